@@ -1,23 +1,25 @@
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileWriter;
-import java.io.IOException;
 
 public class CompilationEngine {
-    private File outputFile;
-    private BufferedWriter writer;
+    private ParseTreeEmitter writer;
     private JackTokenizer jackTokenizer;
 
     public CompilationEngine(JackTokenizer tokenizer, File file) {
+        this(tokenizer, file, false);
+    }
+
+    /**
+     * @param indent lay the XML out like the nand2tetris comparison files
+     */
+    public CompilationEngine(JackTokenizer tokenizer, File file, boolean indent) {
+        this(tokenizer, new XMLWriter(file, indent));
+    }
+
+    // parse into any emitter, such as a ParseTreeAdapter that only listens;
+    // it is closed once the class is done
+    public CompilationEngine(JackTokenizer tokenizer, ParseTreeEmitter writer) {
         jackTokenizer = tokenizer;
-        outputFile = file;
-        // try to create a new file writer
-        try {
-            writer = new BufferedWriter(new FileWriter(outputFile));
-        } catch (IOException e) {
-            throw new IllegalStateException("Cannot write to file \"" +
-                    outputFile.getName() + "\"!");
-        }
+        this.writer = writer;
         advanceTokenizer();
     }
 
@@ -29,7 +31,7 @@ public class CompilationEngine {
             throw new IllegalStateException("syntax error: expected class declaration");
         }
 
-        writeStartTag("class");
+        writer.startElement(NonTerminal.CLASS);
 
         // class
         compileKeyword(jackTokenizer.keyWord());
@@ -56,23 +58,18 @@ public class CompilationEngine {
         }
         
         // symbol }
-        writeTag(TokenType.SYMBOL, '}');
+        writer.writeToken(TokenType.SYMBOL, '}');
 
-        writeEndTag("class");
+        writer.endElement(NonTerminal.CLASS);
 
-        // close and flush buffered writer
-        try {
-            writer.close();
-        } catch (IOException e) {
-            throw new IllegalStateException("Failed to flush and close the file!");
-        }
+        writer.close();
     }
 
     private void compileClassVarDec() {
-        writeStartTag("classVarDec");
+        writer.startElement(NonTerminal.CLASS_VAR_DEC);
 
         // static or field
-        writeTag(TokenType.KEYWORD, jackTokenizer.keyWord());
+        writer.writeToken(TokenType.KEYWORD, jackTokenizer.keyWord());
 
         // type
         advanceTokenizer();
@@ -83,7 +80,7 @@ public class CompilationEngine {
 
         // (',' varName)*
         while (jackTokenizer.tokenType() == TokenType.SYMBOL && jackTokenizer.symbol() == ',') {
-            writeTag(TokenType.SYMBOL, ',');
+            writer.writeToken(TokenType.SYMBOL, ',');
             advanceTokenizer();
             compileIdentifier();
         }
@@ -91,14 +88,14 @@ public class CompilationEngine {
         // ;
         compileSymbol(';');
 
-        writeEndTag("classVarDec");
+        writer.endElement(NonTerminal.CLASS_VAR_DEC);
     }
 
     private void compileSubroutine() {
-        writeStartTag("subroutineDec");
+        writer.startElement(NonTerminal.SUBROUTINE_DEC);
 
         // constructor or function or method
-        writeTag(TokenType.KEYWORD, jackTokenizer.keyWord());
+        writer.writeToken(TokenType.KEYWORD, jackTokenizer.keyWord());
 
         // type
         advanceTokenizer();
@@ -119,7 +116,7 @@ public class CompilationEngine {
         // subroutineBody
         compileSubRoutineBody();
 
-        writeEndTag("subroutineDec");
+        writer.endElement(NonTerminal.SUBROUTINE_DEC);
     }
 
     private void compileSymbol(char symbol) {
@@ -130,7 +127,7 @@ public class CompilationEngine {
             throw new IllegalStateException("syntax error: expected '" + symbol + "'");
         }
         
-        writeTag(TokenType.SYMBOL, symbol);
+        writer.writeToken(TokenType.SYMBOL, symbol);
 
         advanceTokenizer();
     }
@@ -140,7 +137,7 @@ public class CompilationEngine {
             throw new IllegalStateException("syntax error: expected identifier");
         
         // write identifier tag
-        writeTag(TokenType.IDENTIFIER, jackTokenizer.identifier());
+        writer.writeToken(TokenType.IDENTIFIER, jackTokenizer.identifier());
         advanceTokenizer();
     }
 
@@ -149,7 +146,7 @@ public class CompilationEngine {
         if (jackTokenizer.tokenType() == TokenType.KEYWORD &&
                 jackTokenizer.keyWord() == Keyword.VOID
         ) {
-            writeTag(TokenType.KEYWORD, jackTokenizer.keyWord());
+            writer.writeToken(TokenType.KEYWORD, jackTokenizer.keyWord());
             advanceTokenizer();
         } else {
             compileType();
@@ -163,10 +160,10 @@ public class CompilationEngine {
             }
 
             // compile the keyword type
-            writeTag(TokenType.KEYWORD, jackTokenizer.keyWord());
+            writer.writeToken(TokenType.KEYWORD, jackTokenizer.keyWord());
         } else if (jackTokenizer.tokenType() == TokenType.IDENTIFIER) {
             // compile the identifier type
-            writeTag(TokenType.IDENTIFIER, jackTokenizer.identifier());
+            writer.writeToken(TokenType.IDENTIFIER, jackTokenizer.identifier());
         } else {
             throw new IllegalStateException("syntax error: expected type or identifier");
         }
@@ -175,7 +172,7 @@ public class CompilationEngine {
     }
 
     private void compileParameterList() {
-        writeStartTag("parameterList");
+        writer.startElement(NonTerminal.PARAMETER_LIST);
 
         if (currentTokenIsType()) {
             // type varName
@@ -192,11 +189,11 @@ public class CompilationEngine {
             }
         }
 
-        writeEndTag("parameterList");
+        writer.endElement(NonTerminal.PARAMETER_LIST);
     }
 
     private void compileSubRoutineBody() {
-        writeStartTag("subroutineBody");
+        writer.startElement(NonTerminal.SUBROUTINE_BODY);
 
         // {
         compileSymbol('{');
@@ -214,14 +211,14 @@ public class CompilationEngine {
         // }
         compileSymbol('}');
 
-        writeEndTag("subroutineBody");
+        writer.endElement(NonTerminal.SUBROUTINE_BODY);
     }
 
     private void compileVarDec() {
-        writeStartTag("varDec");
+        writer.startElement(NonTerminal.VAR_DEC);
 
         // 'var'
-        writeTag(TokenType.KEYWORD, Keyword.VAR);
+        writer.writeToken(TokenType.KEYWORD, Keyword.VAR);
 
         // type varName
         advanceTokenizer();
@@ -238,11 +235,11 @@ public class CompilationEngine {
 
         compileSymbol(';');
 
-        writeEndTag("varDec");
+        writer.endElement(NonTerminal.VAR_DEC);
     }
 
     private void compileStatements() {
-        writeStartTag("statements");
+        writer.startElement(NonTerminal.STATEMENTS);
 
         boolean done = false;
 
@@ -270,7 +267,7 @@ public class CompilationEngine {
             }
         }
         
-        writeEndTag("statements");
+        writer.endElement(NonTerminal.STATEMENTS);
     }
 
     private void compileKeyword(Keyword keyword) {
@@ -280,12 +277,12 @@ public class CompilationEngine {
             throw new IllegalArgumentException("syntax error: expected " + keyword.toString());
         }
         // write the keyword
-        writeTag(TokenType.KEYWORD, keyword);
+        writer.writeToken(TokenType.KEYWORD, keyword);
         advanceTokenizer();
     }
 
     private void compileDo() {
-        writeStartTag("doStatement");
+        writer.startElement(NonTerminal.DO_STATEMENT);
 
         // do
         compileKeyword(Keyword.DO);
@@ -297,7 +294,7 @@ public class CompilationEngine {
         // ;
         compileSymbol(';');
 
-        writeEndTag("doStatement");
+        writer.endElement(NonTerminal.DO_STATEMENT);
     }
 
     private void compileSubroutineCallNoIdentifier() {
@@ -322,7 +319,7 @@ public class CompilationEngine {
     }
 
     private void compileLet() {
-        writeStartTag("letStatement");
+        writer.startElement(NonTerminal.LET_STATEMENT);
 
         // let
         compileKeyword(Keyword.LET);
@@ -348,11 +345,11 @@ public class CompilationEngine {
         // ;
         compileSymbol(';');
 
-        writeEndTag("letStatement");
+        writer.endElement(NonTerminal.LET_STATEMENT);
     }
 
     private void compileWhile() {
-        writeStartTag("whileStatement");
+        writer.startElement(NonTerminal.WHILE_STATEMENT);
 
         // while
         compileKeyword(Keyword.WHILE);
@@ -375,11 +372,11 @@ public class CompilationEngine {
         // }
         compileSymbol('}');
 
-        writeEndTag("whileStatement");
+        writer.endElement(NonTerminal.WHILE_STATEMENT);
     }
 
     private void compileReturn() {
-        writeStartTag("returnStatement");
+        writer.startElement(NonTerminal.RETURN_STATEMENT);
 
         // return
         compileKeyword(Keyword.RETURN);
@@ -394,11 +391,11 @@ public class CompilationEngine {
         // ;
         compileSymbol(';');
 
-        writeEndTag("returnStatement");
+        writer.endElement(NonTerminal.RETURN_STATEMENT);
     }
 
     private void compileIf() {
-        writeStartTag("ifStatement");
+        writer.startElement(NonTerminal.IF_STATEMENT);
 
         // if
         compileKeyword(Keyword.IF);
@@ -431,26 +428,26 @@ public class CompilationEngine {
             compileSymbol('}');
         }
 
-        writeEndTag("ifStatement");
+        writer.endElement(NonTerminal.IF_STATEMENT);
     }
 
     private void compileExpression() {
-        writeStartTag("expression");
+        writer.startElement(NonTerminal.EXPRESSION);
 
         compileTerm();
         
         // op term
         while (currentTokenIsOp()) {
-            writeTag(TokenType.SYMBOL, jackTokenizer.symbol());
+            writer.writeToken(TokenType.SYMBOL, jackTokenizer.symbol());
             advanceTokenizer();
             compileTerm();
         }
 
-        writeEndTag("expression");
+        writer.endElement(NonTerminal.EXPRESSION);
     }
 
     private void compileTerm() {
-        writeStartTag("term");
+        writer.startElement(NonTerminal.TERM);
 
         switch (jackTokenizer.tokenType()) {
             case IDENTIFIER:
@@ -472,7 +469,7 @@ public class CompilationEngine {
                 break;
             case INT_CONST:
                 // compile integer
-                writeTag(TokenType.INT_CONST, jackTokenizer.intVal() + "");
+                writer.writeToken(TokenType.INT_CONST, jackTokenizer.intVal());
                 advanceTokenizer();
                 break;
             case SYMBOL:
@@ -493,7 +490,7 @@ public class CompilationEngine {
                 break;
             case STRING_CONST:
                 // compile string constants
-                writeTag(TokenType.STRING_CONST, jackTokenizer.stringVal());
+                writer.writeToken(TokenType.STRING_CONST, jackTokenizer.stringVal());
                 advanceTokenizer();
                 break;
             case KEYWORD:
@@ -506,11 +503,11 @@ public class CompilationEngine {
                 break;
         }
 
-        writeEndTag("term");
+        writer.endElement(NonTerminal.TERM);
     }
 
     private void compileExpressionList() {
-        writeStartTag("expressionList");
+        writer.startElement(NonTerminal.EXPRESSION_LIST);
 
         if (currentTokenIsStartExpression()) {
             // expression
@@ -520,13 +517,13 @@ public class CompilationEngine {
             while (jackTokenizer.tokenType() == TokenType.SYMBOL &&
                     jackTokenizer.symbol() == ','
             ) {
-                writeTag(TokenType.SYMBOL, jackTokenizer.symbol());
+                writer.writeToken(TokenType.SYMBOL, jackTokenizer.symbol());
                 advanceTokenizer();
                 compileExpression();
             }
         }
 
-        writeEndTag("expressionList");
+        writer.endElement(NonTerminal.EXPRESSION_LIST);
     }
 
     private void advanceTokenizer() {
@@ -582,69 +579,4 @@ public class CompilationEngine {
         return jackTokenizer.tokenType() == TokenType.IDENTIFIER ||
                 currentTokenIsPrimitive();
     }
-
-    private void writeLine(String line) {
-        // write line to file
-        try {
-            writer.write(line + "\n");
-        } catch (IOException e) {
-            throw new IllegalStateException("Failed to write to \"" + outputFile.getName() + "\"!");
-        }
-    }
-
-    private void writeStartTag(String tagName) {
-        // write <tagName>
-        writeLine(createStartTag(tagName));
-    }
-
-    private void writeEndTag(String tagName) {
-        // write </tagName>
-        writeLine(createEndTag(tagName));
-    }
-
-    private void writeTag(String tagName, String text) {
-        // write <tagName> text </tagName
-        writeLine(createStartTag(tagName) + text + createEndTag(tagName));
-    }
-
-    // overloaded method
-    private void writeTag(String tagName, char text) {
-        // compile special symbol cases
-        switch (text) {
-            case '<':
-                writeTag(TokenType.SYMBOL, "&lt;");
-                break;
-            case '>':
-                writeTag(TokenType.SYMBOL, "&gt;");
-                break;
-            case '&':
-                writeTag(TokenType.SYMBOL, "&amp;");
-                break;
-            default:
-                writeTag(tagName, "" + text);
-        }
-    }
-
-    // overloaded method
-    private void writeTag(TokenType tagName, String text) {
-        writeTag(tagName.toString(), text);
-    }
-
-    // overloaded method
-    private void writeTag(TokenType tagName, char text) {
-        writeTag(tagName.toString(), text);
-    }
-
-    // overloaded method
-    private void writeTag(TokenType tagName, Keyword text) {
-        writeTag(tagName, text.toString());
-    }
-
-    private String createStartTag(String tagName) {
-        return "<" + tagName + ">";
-    }
-
-    private String createEndTag(String tagName) {
-        return "</" + tagName + ">";
-    }
 }
@@ -1,4 +1,8 @@
 import java.io.File;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Future;
 
 public class JackAnalyzer {
     public static void main(String[] args) {
@@ -7,16 +11,42 @@ public class JackAnalyzer {
         System.exit(exitCode);
     }
 
-    private CompilationEngine compEngine;
+    private int jobs = ParallelBuild.defaultJobs();
+    private boolean virtualThreads;
+    private boolean indent;
+    private boolean binary;
 
     public int run(String[] args) {
-        // check for argument length
-        if (args.length != 1) {
+        String path = null;
+
+        // parse options and the file or directory argument
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-j") && i + 1 < args.length) {
+                jobs = parseJobs(args[++i]);
+                if (jobs < 1) {
+                    printUsage();
+                    return -1;
+                }
+            } else if (args[i].equals("--virtual-threads")) {
+                virtualThreads = true;
+            } else if (args[i].equals("--indent")) {
+                indent = true;
+            } else if (args[i].equals("--binary")) {
+                binary = true;
+            } else if (args[i].startsWith("-") || path != null) {
+                printUsage();
+                return -1;
+            } else {
+                path = args[i];
+            }
+        }
+
+        if (path == null) {
             printUsage();
             return -1;
         }
 
-        File fileOrDirectory = new File(args[0]);
+        File fileOrDirectory = new File(path);
 
         // analyze file or directory of files
         try {
@@ -43,24 +73,77 @@ public class JackAnalyzer {
         // compile file
         JackTokenizer jackTokenizer = new JackTokenizer(file);
         String outputFilename = filename.substring(0, 
-                lowerFilename.lastIndexOf(".jack")) + ".xml";
-        File outputFile = new File(outputFilename);
+                lowerFilename.lastIndexOf(".jack")) + (binary ? ".xmlb" : ".xml");
+        File outputFile = new File(file.getParentFile(), outputFilename);
         
-        compEngine = new CompilationEngine(jackTokenizer, outputFile);
+        ParseTreeEmitter writer = binary ? new ParseTreeBinaryWriter(outputFile) :
+                new XMLWriter(outputFile, indent);
+        CompilationEngine compEngine = new CompilationEngine(jackTokenizer, writer);
         compEngine.compileClass();
     }
 
     private void analyzeFiles(File directory) {
         // iterate over directory non-recursively
+        List<File> sources = new ArrayList<>();
         for (File f : directory.listFiles()) {
             if (f.isFile() && f.getName().toLowerCase().endsWith(".jack")) {
+                sources.add(f);
+            }
+        }
+
+        // a fixed order keeps messages the same between runs
+        sources.sort(Comparator.comparing(File::getName));
+
+        if (jobs == 1 || sources.size() < 2) {
+            for (File f : sources)
                 analyzeFile(f);
+            return;
+        }
+
+        analyzeFilesParallel(sources);
+    }
+
+    // files compile concurrently, diagnostics follow file order
+    private void analyzeFilesParallel(List<File> sources) {
+        int failures = 0;
+
+        try (ParallelBuild build = new ParallelBuild(jobs, virtualThreads)) {
+            List<Future<File>> results = build.submit(sources, f -> {
+                analyzeFile(f);
+                return f;
+            });
+
+            for (int i = 0; i < sources.size(); i++) {
+                try {
+                    ParallelBuild.await(results.get(i));
+                } catch (IllegalArgumentException | IllegalStateException e) {
+                    System.err.println(sources.get(i).getName() + ": " + e.getMessage());
+                    failures++;
+                }
             }
         }
+
+        if (failures > 0) {
+            throw new IllegalStateException(failures + " of " + sources.size() +
+                    " files failed to compile!");
+        }
+    }
+
+    // job count, or -1 if the argument is not a number
+    private int parseJobs(String value) {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
     }
 
     private void printUsage() {
         System.err.println("Usage:\n" +
-                           "  java JackAnalyzer (<filename>|<directory>)");
+                           "  java JackAnalyzer [options] (<filename>|<directory>)\n" +
+                           "    -j <n>             analyze n files at a time, default one per core\n" +
+                           "    --virtual-threads  run each file on a virtual thread (Java 21+)\n" +
+                           "    --indent           lay out the XML like the comparison files\n" +
+                           "    --binary           write compact .xmlb parse trees instead of .xml");
     }
 }
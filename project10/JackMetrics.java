@@ -0,0 +1,152 @@
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Prints size and nesting metrics of Jack classes. Each class is parsed by
+ * the compilation engine with a listener that only counts, so nothing is
+ * written and memory does not grow with the number of files.
+ */
+public class JackMetrics {
+    public static void main(String[] args) {
+        JackMetrics jackMetrics = new JackMetrics();
+        int exitCode = jackMetrics.run(args);
+        System.exit(exitCode);
+    }
+
+    private static final String FORMAT = "%-24s %8s %6s %6s %7s %7s %7s";
+
+    public int run(String[] args) {
+        if (args.length != 1 || args[0].startsWith("-")) {
+            printUsage();
+            return -1;
+        }
+
+        File fileOrDirectory = new File(args[0]);
+        List<File> sources = new ArrayList<>();
+
+        if (fileOrDirectory.isDirectory()) {
+            for (File f : fileOrDirectory.listFiles()) {
+                if (f.isFile() && f.getName().toLowerCase().endsWith(".jack"))
+                    sources.add(f);
+            }
+            sources.sort(Comparator.comparing(File::getName));
+        } else {
+            sources.add(fileOrDirectory);
+        }
+
+        System.out.println(String.format(FORMAT,
+                "class", "tokens", "subs", "stmts", "exprs", "nesting", "depth"));
+
+        ClassMetrics total = new ClassMetrics();
+        total.className = "total";
+
+        try {
+            for (File f : sources) {
+                if (!f.getName().toLowerCase().endsWith(".jack"))
+                    throw new IllegalArgumentException("Filename must end with .jack!");
+
+                ClassMetrics metrics = new ClassMetrics();
+                new CompilationEngine(new JackTokenizer(f), metrics).compileClass();
+
+                System.out.println(metrics);
+                total.add(metrics);
+            }
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            System.err.println(e.getMessage());
+            return -1;
+        }
+
+        if (sources.size() > 1)
+            System.out.println(total);
+
+        return 0;
+    }
+
+    private void printUsage() {
+        System.err.println("Usage:\n" +
+                           "  java JackMetrics (<filename>|<directory>)\n" +
+                           "    prints tokens, subroutines, statements and expressions of each\n" +
+                           "    class, with the deepest nesting of statements and expressions");
+    }
+
+    // counts one class as the engine parses it
+    private static class ClassMetrics extends ParseTreeAdapter {
+        private String className;
+        private int tokens, subroutines, statements, expressions;
+        private int nesting, maxNesting;
+        private int depth, maxDepth;
+
+        @Override
+        public void startElement(NonTerminal element) {
+            switch (element) {
+                case SUBROUTINE_DEC:
+                    subroutines++;
+                    break;
+                case STATEMENTS:
+                    maxNesting = Math.max(maxNesting, ++nesting);
+                    break;
+                case DO_STATEMENT:
+                case LET_STATEMENT:
+                case WHILE_STATEMENT:
+                case RETURN_STATEMENT:
+                case IF_STATEMENT:
+                    statements++;
+                    break;
+                case EXPRESSION:
+                    expressions++;
+                    maxDepth = Math.max(maxDepth, ++depth);
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        @Override
+        public void endElement(NonTerminal element) {
+            if (element == NonTerminal.STATEMENTS)
+                nesting--;
+            else if (element == NonTerminal.EXPRESSION)
+                depth--;
+        }
+
+        @Override
+        public void writeToken(TokenType type, String text) {
+            // the class name is the first identifier
+            if (type == TokenType.IDENTIFIER && className == null)
+                className = text;
+            tokens++;
+        }
+
+        @Override
+        public void writeToken(TokenType type, char text) {
+            tokens++;
+        }
+
+        @Override
+        public void writeToken(TokenType type, Keyword text) {
+            tokens++;
+        }
+
+        @Override
+        public void writeToken(TokenType type, int text) {
+            tokens++;
+        }
+
+        private void add(ClassMetrics other) {
+            tokens += other.tokens;
+            subroutines += other.subroutines;
+            statements += other.statements;
+            expressions += other.expressions;
+            maxNesting = Math.max(maxNesting, other.maxNesting);
+            maxDepth = Math.max(maxDepth, other.maxDepth);
+        }
+
+        @Override
+        public String toString() {
+            return String.format(FORMAT, className, tokens, subroutines, statements,
+                    expressions, maxNesting, maxDepth);
+        }
+    }
+}
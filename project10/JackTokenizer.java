@@ -3,6 +3,7 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.StringReader;
 import java.util.LinkedList;
 import java.util.Queue;
 
@@ -25,10 +26,16 @@ public class JackTokenizer {
         tokens = new LinkedList<>();
     }
 
+    // tokenize source already in memory
+    public JackTokenizer(String source) {
+        reader = new BufferedReader(new StringReader(source));
+        tokens = new LinkedList<>();
+    }
+
     public boolean hasMoreTokens() {
-        if (tokens.isEmpty()) 
-            while(tokenizeLine());
-        
+        // lines are read only as their tokens are needed
+        while (tokens.isEmpty() && tokenizeLine());
+
         return !tokens.isEmpty();
     }
 
@@ -192,9 +199,18 @@ public class JackTokenizer {
         return true;
     }
 
+    // the reader is closed at the end of the file
     private String readLine() {
+        if (reader == null)
+            return null;
+
         try {
-            return reader.readLine();
+            String line = reader.readLine();
+            if (line == null) {
+                reader.close();
+                reader = null;
+            }
+            return line;
         } catch (IOException e) {
             throw new IllegalStateException("Failed to read file!");
         }
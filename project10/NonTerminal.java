@@ -0,0 +1,33 @@
+// grammar elements that wrap other elements in the XML parse tree
+public enum NonTerminal {
+    CLASS("class"),
+    CLASS_VAR_DEC("classVarDec"),
+    SUBROUTINE_DEC("subroutineDec"),
+    PARAMETER_LIST("parameterList"),
+    SUBROUTINE_BODY("subroutineBody"),
+    VAR_DEC("varDec"),
+    STATEMENTS("statements"),
+    DO_STATEMENT("doStatement"),
+    LET_STATEMENT("letStatement"),
+    WHILE_STATEMENT("whileStatement"),
+    RETURN_STATEMENT("returnStatement"),
+    IF_STATEMENT("ifStatement"),
+    EXPRESSION("expression"),
+    TERM("term"),
+    EXPRESSION_LIST("expressionList");
+
+    private final String tagName;
+
+    NonTerminal(String tagName) {
+        this.tagName = tagName;
+    }
+
+    public String getTagName() {
+        return tagName;
+    }
+
+    @Override
+    public String toString() {
+        return tagName;
+    }
+}
@@ -0,0 +1,103 @@
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.function.Function;
+
+/**
+ * Runs one task per source file on a thread pool. Tasks start largest file
+ * first so a big file does not finish alone at the end, while results are
+ * handed back in the caller's order so output stays the same from run to
+ * run.
+ */
+public class ParallelBuild implements AutoCloseable {
+    private ExecutorService executor;
+    private Semaphore permits;
+
+    /**
+     * @param jobs number of files compiled at the same time
+     * @param virtualThreads run each task on a virtual thread, needs Java 21
+     */
+    public ParallelBuild(int jobs, boolean virtualThreads) {
+        if (jobs < 1)
+            throw new IllegalArgumentException("Number of jobs must be at least 1!");
+
+        if (virtualThreads) {
+            // looked up at run time so the build still compiles on older JDKs
+            try {
+                executor = (ExecutorService) Executors.class
+                        .getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalArgumentException("Virtual threads need Java 21 or later!");
+            }
+            permits = new Semaphore(jobs);
+        } else {
+            executor = Executors.newFixedThreadPool(jobs, task -> {
+                Thread thread = new Thread(task, "build");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    public static int defaultJobs() {
+        return Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * starts task on every file
+     * @return one future per file, in the order of files
+     */
+    public <T> List<Future<T>> submit(List<File> files, Function<File, T> task) {
+        List<File> bySize = new ArrayList<>(files);
+        bySize.sort(Comparator.comparingLong(File::length).reversed());
+
+        Map<File, Future<T>> futures = new HashMap<>();
+        for (File file : bySize)
+            futures.put(file, executor.submit(() -> run(task, file)));
+
+        List<Future<T>> results = new ArrayList<>();
+        for (File file : files)
+            results.add(futures.get(file));
+
+        return results;
+    }
+
+    // result of the task, rethrowing what it threw
+    public static <T> T await(Future<T> future) {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Error)
+                throw (Error) e.getCause();
+            throw (RuntimeException) e.getCause();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the build!");
+        }
+    }
+
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    // virtual threads are not pooled, so the permits bound how many run at once
+    private <T> T run(Function<File, T> task, File file) throws InterruptedException {
+        if (permits == null)
+            return task.apply(file);
+
+        permits.acquire();
+        try {
+            return task.apply(file);
+        } finally {
+            permits.release();
+        }
+    }
+}
@@ -0,0 +1,29 @@
+/**
+ * A ParseTreeEmitter that ignores everything, for tools that listen to the
+ * compilation engine: extend it and override only the callbacks needed.
+ * The engine calls them in source order as it parses, so a linter or
+ * indexer sees each element and token once, without a tree in memory or
+ * an XML file on disk, and close() when the class is done.
+ */
+public abstract class ParseTreeAdapter implements ParseTreeEmitter {
+    public void startElement(NonTerminal element) {
+    }
+
+    public void endElement(NonTerminal element) {
+    }
+
+    public void writeToken(TokenType type, String text) {
+    }
+
+    public void writeToken(TokenType type, char text) {
+    }
+
+    public void writeToken(TokenType type, Keyword text) {
+    }
+
+    public void writeToken(TokenType type, int text) {
+    }
+
+    public void close() {
+    }
+}
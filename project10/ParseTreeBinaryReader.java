@@ -0,0 +1,143 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+/**
+ * Reads a .xmlb file written by ParseTreeBinaryWriter and replays the parse
+ * tree into a ParseTreeEmitter in the order the compilation engine produced
+ * it. Replaying into an XMLWriter gives back the analyzer's XML; tools
+ * implement ParseTreeEmitter to walk the tree without parsing any XML.
+ */
+public class ParseTreeBinaryReader {
+    private static final NonTerminal[] ELEMENTS = NonTerminal.values();
+    private static final Keyword[] KEYWORDS = Keyword.values();
+
+    private File treeFile;
+    private byte[] data;
+    private int position;
+    private String[] strings;
+
+    public ParseTreeBinaryReader(File file) {
+        treeFile = file;
+        try {
+            data = Files.readAllBytes(file.toPath());
+        } catch (IOException e) {
+            throw new IllegalArgumentException("File not found or is directory!");
+        }
+    }
+
+    public void parse(ParseTreeEmitter emitter) {
+        readHeader();
+
+        int end = readVarint();
+        end += position;
+        if (end < position || end > data.length)
+            throw formatError("tree length past end of file");
+
+        // elements still open, innermost last
+        NonTerminal[] open = new NonTerminal[16];
+        int depth = 0;
+
+        while (position < end) {
+            int kind = data[position++] & 0xFF;
+
+            if (kind < ParseTreeBinaryWriter.END) {
+                NonTerminal element = ELEMENTS[kind - ParseTreeBinaryWriter.ELEMENT];
+                if (depth == open.length)
+                    open = Arrays.copyOf(open, depth * 2);
+                open[depth++] = element;
+                emitter.startElement(element);
+            } else if (kind == ParseTreeBinaryWriter.END) {
+                if (depth == 0)
+                    throw formatError("end of element that was not started");
+                emitter.endElement(open[--depth]);
+            } else if (kind < ParseTreeBinaryWriter.SYMBOL) {
+                emitter.writeToken(TokenType.KEYWORD, KEYWORDS[kind - ParseTreeBinaryWriter.KEYWORD]);
+            } else {
+                switch (kind) {
+                    case ParseTreeBinaryWriter.SYMBOL:
+                        emitter.writeToken(TokenType.SYMBOL, (char) readVarint());
+                        break;
+                    case ParseTreeBinaryWriter.IDENTIFIER:
+                        emitter.writeToken(TokenType.IDENTIFIER, readString());
+                        break;
+                    case ParseTreeBinaryWriter.INT_CONST:
+                        emitter.writeToken(TokenType.INT_CONST, readVarint());
+                        break;
+                    case ParseTreeBinaryWriter.STRING_CONST:
+                        emitter.writeToken(TokenType.STRING_CONST, readString());
+                        break;
+                    default:
+                        throw formatError("unknown node kind " + kind);
+                }
+            }
+        }
+
+        if (depth > 0)
+            throw formatError("element " + open[depth - 1] + " is never ended");
+    }
+
+    // magic, version and string table
+    private void readHeader() {
+        byte[] magic = ParseTreeBinaryWriter.MAGIC;
+
+        if (data.length < magic.length + 1)
+            throw formatError("not a binary parse tree file");
+        for (int i = 0; i < magic.length; i++) {
+            if (data[i] != magic[i])
+                throw formatError("not a binary parse tree file");
+        }
+
+        position = magic.length;
+        int version = data[position++];
+        if (version != ParseTreeBinaryWriter.VERSION)
+            throw formatError("unsupported version " + version);
+
+        int count = readVarint();
+        if (count < 0 || count > data.length)
+            throw formatError("invalid string table");
+
+        strings = new String[count];
+        for (int i = 0; i < count; i++) {
+            int length = readVarint();
+            if (length < 0 || position + length > data.length)
+                throw formatError("string past end of file");
+
+            strings[i] = new String(data, position, length, StandardCharsets.UTF_8);
+            position += length;
+        }
+    }
+
+    private String readString() {
+        int index = readVarint();
+
+        if (index < 0 || index >= strings.length)
+            throw formatError("string index " + index + " out of range");
+
+        return strings[index];
+    }
+
+    private int readVarint() {
+        int value = 0;
+
+        for (int shift = 0; shift < 35; shift += 7) {
+            if (position == data.length)
+                throw formatError("unexpected end of file");
+
+            int b = data[position++];
+            value |= (b & 0x7F) << shift;
+
+            if ((b & 0x80) == 0)
+                return value;
+        }
+
+        throw formatError("varint too long");
+    }
+
+    private IllegalStateException formatError(String message) {
+        return new IllegalStateException(treeFile.getName() + ":" + position +
+                ": format error: " + message);
+    }
+}
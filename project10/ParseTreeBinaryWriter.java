@@ -0,0 +1,158 @@
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes the parse tree in the compact .xmlb format read by
+ * ParseTreeBinaryReader, the binary counterpart of the .xml output. The file
+ * is the magic bytes "JPTB", a version byte, the string table and the tree:
+ *
+ *   strings:  count, then per string its UTF-8 length and bytes
+ *   tree:     length in bytes, then the nodes in pre-order, one kind byte
+ *             per node followed by its operand
+ *
+ * Every count, length and operand is an unsigned LEB128 varint. Element
+ * kinds are ELEMENT plus the NonTerminal ordinal and END closes the
+ * innermost open element. Keyword kinds are KEYWORD plus the keyword
+ * ordinal and have no operand. A symbol is followed by its character,
+ * an integer constant by its value, and identifiers and string constants by
+ * their index in the string table, so each distinct name is stored once.
+ */
+public class ParseTreeBinaryWriter implements ParseTreeEmitter {
+    public static final byte[] MAGIC = {'J', 'P', 'T', 'B'};
+    public static final int VERSION = 1;
+
+    public static final int ELEMENT = 0;
+    public static final int END = 15;
+    public static final int KEYWORD = 16;
+    public static final int SYMBOL = 37;
+    public static final int IDENTIFIER = 38;
+    public static final int INT_CONST = 39;
+    public static final int STRING_CONST = 40;
+
+    private File outputFile;
+    private ByteArrayOutputStream tree = new ByteArrayOutputStream();
+    private List<String> strings = new ArrayList<>();
+    private Map<String, Integer> stringIndex = new HashMap<>();
+
+    public ParseTreeBinaryWriter(File file) {
+        outputFile = file;
+    }
+
+    public void startElement(NonTerminal element) {
+        tree.write(ELEMENT + element.ordinal());
+    }
+
+    public void endElement(NonTerminal element) {
+        tree.write(END);
+    }
+
+    public void writeToken(TokenType type, String text) {
+        switch (type) {
+            case KEYWORD:
+                Keyword keyword = Keyword.getValueByMnemonic(text);
+                if (keyword == null)
+                    throw new IllegalArgumentException("Not a keyword: \"" + text + "\"!");
+                writeToken(type, keyword);
+                break;
+            case SYMBOL:
+                if (text.length() != 1)
+                    throw new IllegalArgumentException("Not a symbol: \"" + text + "\"!");
+                writeToken(type, text.charAt(0));
+                break;
+            case IDENTIFIER:
+                tree.write(IDENTIFIER);
+                writeVarint(tree, indexOf(text));
+                break;
+            case INT_CONST:
+                writeToken(type, Integer.parseInt(text));
+                break;
+            case STRING_CONST:
+                tree.write(STRING_CONST);
+                writeVarint(tree, indexOf(text));
+                break;
+        }
+    }
+
+    public void writeToken(TokenType type, char text) {
+        if (type != TokenType.SYMBOL) {
+            writeToken(type, String.valueOf(text));
+            return;
+        }
+
+        tree.write(SYMBOL);
+        writeVarint(tree, text);
+    }
+
+    public void writeToken(TokenType type, Keyword text) {
+        if (type != TokenType.KEYWORD) {
+            writeToken(type, text.getMnemonic());
+            return;
+        }
+
+        tree.write(KEYWORD + text.ordinal());
+    }
+
+    public void writeToken(TokenType type, int text) {
+        if (type != TokenType.INT_CONST) {
+            writeToken(type, String.valueOf(text));
+            return;
+        }
+
+        tree.write(INT_CONST);
+        writeVarint(tree, text);
+    }
+
+    // the string table is only complete once the whole tree is known, so
+    // the file is written here
+    public void close() {
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        header.write(MAGIC, 0, MAGIC.length);
+        header.write(VERSION);
+
+        writeVarint(header, strings.size());
+        for (String string : strings) {
+            byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+            writeVarint(header, bytes.length);
+            header.write(bytes, 0, bytes.length);
+        }
+        writeVarint(header, tree.size());
+
+        try (OutputStream out = new FileOutputStream(outputFile)) {
+            header.writeTo(out);
+            tree.writeTo(out);
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot write to file \"" +
+                    outputFile.getName() + "\"!");
+        }
+    }
+
+    // index of the string in the table, added on first use
+    private int indexOf(String string) {
+        Integer index = stringIndex.get(string);
+
+        if (index == null) {
+            index = strings.size();
+            strings.add(string);
+            stringIndex.put(string, index);
+        }
+
+        return index;
+    }
+
+    // negative values take the full five bytes
+    private static void writeVarint(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+}
@@ -0,0 +1,73 @@
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Converts .xmlb parse trees back to the XML the analyzer would have
+ * written, laid out like the nand2tetris comparison files unless --compact
+ * is given, writing file.xml next to each file.xmlb.
+ */
+public class ParseTreeDump {
+    public static void main(String[] args) {
+        ParseTreeDump parseTreeDump = new ParseTreeDump();
+        int exitCode = parseTreeDump.run(args);
+        System.exit(exitCode);
+    }
+
+    private boolean indent = true;
+
+    public int run(String[] args) {
+        List<File> files = new ArrayList<>();
+
+        for (String arg : args) {
+            if (arg.equals("--compact")) {
+                indent = false;
+            } else if (arg.startsWith("-")) {
+                printUsage();
+                return -1;
+            } else {
+                files.add(new File(arg));
+            }
+        }
+
+        if (files.isEmpty()) {
+            printUsage();
+            return -1;
+        }
+
+        try {
+            for (File file : files)
+                convert(file);
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            System.err.println(e.getMessage());
+            return -1;
+        }
+
+        return 0;
+    }
+
+    private void convert(File file) {
+        String filename = file.getName();
+        String lowerFilename = filename.toLowerCase();
+
+        if (!lowerFilename.endsWith(".xmlb"))
+            throw new IllegalArgumentException("Filename must end with .xmlb!");
+
+        String base = filename.substring(0, lowerFilename.lastIndexOf(".xmlb"));
+        File outputFile = new File(file.getParentFile(), base + ".xml");
+
+        XMLWriter writer = new XMLWriter(outputFile, indent);
+        new ParseTreeBinaryReader(file).parse(writer);
+        writer.close();
+
+        System.out.println("Converting to " + outputFile.getPath() + " (" +
+                file.length() + " -> " + outputFile.length() + " bytes)");
+    }
+
+    private void printUsage() {
+        System.err.println("Usage:\n" +
+                           "  java ParseTreeDump [--compact] <filename.xmlb>...\n" +
+                           "    writes file.xml for each file.xmlb, one element per line\n" +
+                           "    with --compact, otherwise indented like the comparison files");
+    }
+}
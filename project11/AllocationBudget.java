@@ -0,0 +1,291 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Measures the heap allocated by each phase of compiling a fixed corpus,
+ * relative to the work done, and checks it against a budget:
+ *
+ *   lex    JackTokenizer over sources already in memory
+ *   parse  CompilationEngine into a VMBuffer, less what its lexing allocated
+ *   write  VMWriter formatting the buffers into a discarding channel
+ *
+ * Every phase is reported in bytes per source byte, per token and per VM
+ * command, averaged over the measured passes after the warmup ones, so the
+ * JIT has already removed what escape analysis can. Allocation is read from
+ * the counter the JVM keeps for the current thread, which everything here
+ * runs on. A budget file has one limit per line,
+ *
+ *   PHASE.METRIC MAX_BYTES
+ *
+ * with METRIC one of perSourceByte, perToken or perCommand, and the exit
+ * code is 1 if any phase goes over its limit.
+ */
+public class AllocationBudget {
+    public static void main(String[] args) {
+        AllocationBudget allocationBudget = new AllocationBudget();
+        int exitCode = allocationBudget.run(args);
+        System.exit(exitCode);
+    }
+
+    private static final String[] PHASES = {"lex", "parse", "write"};
+    private static final String[] METRICS = {"perSourceByte", "perToken", "perCommand"};
+
+    private int warmup = 20;
+    private int iterations = 10;
+    private File budgetFile;
+
+    private com.sun.management.ThreadMXBean threads;
+    private List<String> sources = new ArrayList<>();
+    private long sourceBytes, tokens, commands;
+
+    public int run(String[] args) {
+        File directory = null;
+
+        try {
+            for (int i = 0; i < args.length; i++) {
+                if (args[i].equals("--warmup") && i + 1 < args.length) {
+                    warmup = Integer.parseInt(args[++i]);
+                } else if (args[i].equals("--iterations") && i + 1 < args.length) {
+                    iterations = Integer.parseInt(args[++i]);
+                } else if (args[i].equals("--budget") && i + 1 < args.length) {
+                    budgetFile = new File(args[++i]);
+                } else if (directory == null && !args[i].startsWith("-")) {
+                    directory = new File(args[i]);
+                } else {
+                    printUsage();
+                    return -1;
+                }
+            }
+        } catch (NumberFormatException e) {
+            printUsage();
+            return -1;
+        }
+
+        if (directory == null || !directory.isDirectory() || warmup < 0 || iterations < 1) {
+            printUsage();
+            return -1;
+        }
+
+        if (!(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean)) {
+            System.err.println("This JVM does not count allocated bytes per thread!");
+            return -1;
+        }
+        threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        try {
+            Map<String, Double> budget = budgetFile != null ? loadBudget() : new LinkedHashMap<>();
+            loadSources(directory);
+
+            double[] allocated = measure();
+            return report(allocated, budget) ? 0 : 1;
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            System.err.println(e.getMessage());
+            return -1;
+        }
+    }
+
+    private void loadSources(File directory) {
+        File[] files = directory.listFiles();
+        Arrays.sort(files);
+
+        for (File f : files) {
+            if (!f.isFile() || !f.getName().toLowerCase().endsWith(".jack"))
+                continue;
+
+            try {
+                byte[] bytes = Files.readAllBytes(f.toPath());
+                sources.add(new String(bytes, Charset.defaultCharset()));
+                sourceBytes += bytes.length;
+            } catch (IOException e) {
+                throw new IllegalArgumentException("Cannot read file \"" + f.getName() + "\"!");
+            }
+        }
+
+        if (sources.isEmpty())
+            throw new IllegalArgumentException("No .jack files in \"" + directory.getName() + "\"!");
+
+        // the work every allocation is divided by
+        for (String source : sources) {
+            tokens += lex(source);
+            commands += compile(source).size();
+        }
+    }
+
+    // average bytes allocated by one pass over the corpus, by phase
+    private double[] measure() {
+        long[] total = new long[PHASES.length];
+
+        for (int i = 0; i < warmup + iterations; i++) {
+            long[] pass = new long[PHASES.length];
+            List<VMBuffer> compiled = new ArrayList<>(sources.size());
+
+            for (String source : sources) {
+                long start = allocatedBytes();
+                lex(source);
+                long lexed = allocatedBytes();
+                compiled.add(compile(source));
+                long parsed = allocatedBytes();
+
+                pass[0] += lexed - start;
+                // compiling lexes the source again
+                pass[1] += (parsed - lexed) - (lexed - start);
+            }
+
+            for (VMBuffer buffer : compiled) {
+                long start = allocatedBytes();
+                VMWriter writer = new VMWriter(new DiscardingChannel(), "budget");
+                buffer.replay(writer);
+                writer.close();
+                pass[2] += allocatedBytes() - start;
+            }
+
+            if (i >= warmup) {
+                for (int p = 0; p < total.length; p++)
+                    total[p] += pass[p];
+            }
+        }
+
+        double[] average = new double[total.length];
+        for (int p = 0; p < total.length; p++)
+            average[p] = (double) total[p] / iterations;
+        return average;
+    }
+
+    private static int lex(String source) {
+        JackTokenizer tokenizer = new JackTokenizer(source);
+        int count = 0;
+
+        while (tokenizer.hasMoreTokens()) {
+            tokenizer.advance();
+            count++;
+        }
+
+        return count;
+    }
+
+    private static VMBuffer compile(String source) {
+        VMBuffer commands = new VMBuffer();
+        new CompilationEngine(new JackTokenizer(source), commands).compileClass();
+        return commands;
+    }
+
+    private long allocatedBytes() {
+        return threads.getCurrentThreadAllocatedBytes();
+    }
+
+    // print every phase and metric, false if one is over budget
+    private boolean report(double[] allocated, Map<String, Double> budget) {
+        boolean withinBudget = true;
+        double[] work = {sourceBytes, tokens, commands};
+
+        System.out.println(String.format(Locale.ROOT,
+                "%d sources, %d bytes, %d tokens, %d VM commands, %d measured passes",
+                sources.size(), sourceBytes, tokens, commands, iterations));
+        System.out.println(String.format(Locale.ROOT, "%-6s %14s %14s %12s %12s",
+                "phase", "bytes/pass", "/source byte", "/token", "/command"));
+
+        for (int p = 0; p < PHASES.length; p++) {
+            StringBuilder line = new StringBuilder(String.format(Locale.ROOT, "%-6s %14.0f",
+                    PHASES[p], allocated[p]));
+
+            for (int m = 0; m < METRICS.length; m++) {
+                double value = allocated[p] / work[m];
+                Double limit = budget.get(PHASES[p] + "." + METRICS[m]);
+                boolean over = limit != null && value > limit;
+
+                line.append(String.format(Locale.ROOT, m == 0 ? " %13.1f%s" : " %11.1f%s",
+                        value, over ? "!" : limit != null ? " " : ""));
+                if (over) {
+                    withinBudget = false;
+                    System.err.println(String.format(Locale.ROOT,
+                            "over budget: %s.%s is %.1f bytes, limit %.1f",
+                            PHASES[p], METRICS[m], value, limit));
+                }
+            }
+
+            System.out.println(line);
+        }
+
+        if (!budget.isEmpty())
+            System.out.println(withinBudget ? "Within budget" : "Over budget");
+
+        return withinBudget;
+    }
+
+    private Map<String, Double> loadBudget() {
+        Map<String, Double> budget = new LinkedHashMap<>();
+        List<String> keys = new ArrayList<>();
+
+        for (String phase : PHASES) {
+            for (String metric : METRICS)
+                keys.add(phase + "." + metric);
+        }
+
+        try (BufferedReader reader = new BufferedReader(new FileReader(budgetFile))) {
+            String line;
+            int lineNumber = 0;
+
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#"))
+                    continue;
+
+                String[] parts = line.split("\\s+");
+                if (parts.length != 2 || !keys.contains(parts[0])) {
+                    throw new IllegalArgumentException(budgetFile.getName() + ":" + lineNumber +
+                            ": expected PHASE.METRIC MAX_BYTES");
+                }
+
+                try {
+                    budget.put(parts[0], Double.parseDouble(parts[1]));
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException(budgetFile.getName() + ":" + lineNumber +
+                            ": bad limit \"" + parts[1] + "\"");
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Cannot read file \"" + budgetFile.getName() + "\"!");
+        }
+
+        return budget;
+    }
+
+    private void printUsage() {
+        System.err.println("Usage:\n" +
+                           "  java AllocationBudget [options] <directory of .jack files>\n" +
+                           "    --warmup <n>      unmeasured passes first, default 20\n" +
+                           "    --iterations <n>  measured passes, default 10\n" +
+                           "    --budget <file>   limits to check, exit code 1 if one is exceeded");
+    }
+
+    // drops everything written to it without allocating
+    private static class DiscardingChannel implements WritableByteChannel {
+        public int write(ByteBuffer source) {
+            int length = source.remaining();
+            source.position(source.limit());
+            return length;
+        }
+
+        public boolean isOpen() {
+            return true;
+        }
+
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,135 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Compiles a directory of Jack classes, plus any .vm files without a Jack
+ * source, to Hack assembly in several AsmWriter modes, runs each on the Hack
+ * emulator and compares ROM size and executed cycles. The "inline" mode is
+ * what a textbook VM translator produces.
+ *
+ * The emulator runs the whole program, so the directory must also hold
+ * the OS: the .vm files of Sys, Memory, Math, Array, String, Output and
+ * whatever else the classes call, as in the OS directory of the
+ * nand2tetris tools. The benchmark sources in project11/benchmark need
+ * them copied in first.
+ */
+public class AsmBenchmark {
+    public static void main(String[] args) {
+        AsmBenchmark benchmark = new AsmBenchmark();
+        int exitCode = benchmark.run(args);
+        System.exit(exitCode);
+    }
+
+    private long maxCycles = 100_000_000L;
+
+    public int run(String[] args) {
+        File directory = null;
+
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--max-cycles") && i + 1 < args.length) {
+                maxCycles = Long.parseLong(args[++i]);
+            } else if (directory == null && !args[i].startsWith("-")) {
+                directory = new File(args[i]);
+            } else {
+                printUsage();
+                return -1;
+            }
+        }
+
+        if (directory == null || !directory.isDirectory()) {
+            printUsage();
+            return -1;
+        }
+
+        try {
+            Result inline = measure(directory, false, false);
+            Result cachedInline = measure(directory, true, false);
+            Result cachedShared = measure(directory, true, true);
+
+            System.out.println(String.format("%-14s %10s %14s", "mode", "ROM", "cycles"));
+            print("inline", inline, inline);
+            print("cached", cachedInline, inline);
+            print("cached+shared", cachedShared, inline);
+
+            // statics and heap must end up identical in every mode
+            if (!Arrays.equals(inline.memory, cachedInline.memory) ||
+                    !Arrays.equals(inline.memory, cachedShared.memory)) {
+                System.err.println("Memory contents differ between modes!");
+                return -1;
+            }
+        } catch (IOException | IllegalArgumentException | IllegalStateException e) {
+            System.err.println(e.getMessage());
+            return -1;
+        }
+
+        return 0;
+    }
+
+    private Result measure(File directory, boolean cacheTop, boolean sharedRoutines)
+            throws IOException {
+        File asmFile = File.createTempFile("bench", ".asm");
+        asmFile.deleteOnExit();
+
+        AsmWriter writer = new AsmWriter(asmFile, cacheTop, sharedRoutines);
+        writer.writeInit();
+
+        for (File f : directory.listFiles()) {
+            String lowerFilename = f.getName().toLowerCase();
+
+            if (!f.isFile()) {
+                continue;
+            } else if (lowerFilename.endsWith(".jack")) {
+                new CompilationEngine(new JackTokenizer(f), writer).compileClass();
+            } else if (lowerFilename.endsWith(".vm")) {
+                // only use .vm files that are not compiled from a source here
+                String base = f.getName().substring(0, f.getName().length() - 3);
+                if (!new File(directory, base + ".jack").exists())
+                    new VMParser(f).parse(writer);
+            }
+        }
+        writer.close();
+
+        HackAssembler assembler = new HackAssembler();
+        short[] program = assembler.assemble(asmFile);
+
+        HackEmulator emulator = new HackEmulator(program);
+        emulator.addHaltAddress(assembler.addressOf("$HALT"));
+        emulator.addHaltAddress(assembler.addressOf("Sys.halt"));
+
+        if (!emulator.run(maxCycles))
+            throw new IllegalStateException("Program did not halt within " + maxCycles + " cycles!");
+
+        Result result = new Result();
+        result.romSize = program.length;
+        result.cycles = emulator.getCycles();
+        result.memory = new int[16384 - 16];
+        for (int address = 16; address < 16384; address++) {
+            // skip the stack, it holds whatever was last spilled
+            if (address < 256 || address >= 2048)
+                result.memory[address - 16] = emulator.peek(address);
+        }
+
+        return result;
+    }
+
+    private void print(String mode, Result result, Result baseline) {
+        System.out.println(String.format("%-14s %10d %14d   ROM %5.1f%%  cycles %5.1f%%",
+                mode, result.romSize, result.cycles,
+                100.0 * result.romSize / baseline.romSize,
+                100.0 * result.cycles / baseline.cycles));
+    }
+
+    private void printUsage() {
+        System.err.println("Usage:\n" +
+                           "  java AsmBenchmark [--max-cycles <n>] <directory>\n" +
+                           "    the directory holds the Jack or VM program together with the\n" +
+                           "    OS .vm files it calls (Sys.vm, Memory.vm, Math.vm, ...)");
+    }
+
+    private static class Result {
+        private int romSize;
+        private long cycles;
+        private int[] memory;
+    }
+}
@@ -0,0 +1,601 @@
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Emits Hack assembly directly from VM commands. The top of the VM stack is
+ * kept in the D register between commands and is only spilled to RAM when
+ * another value is pushed, before a label or jump, and before a call.
+ * Subroutines return their value in D with SP pointing at the old ARG.
+ * Call, return and comparisons either jump to one shared copy of their
+ * code, written after the program, or are inlined at every use.
+ */
+public class AsmWriter implements VMEmitter {
+    // pop into local/argument/this/that with A=A+1 chains up to this index
+    private static final int MAX_CHAIN = 6;
+
+    private File outputFile;
+    private BufferedWriter writer;
+    private boolean cacheTop;
+    private boolean sharedRoutines;
+    private boolean topInD;
+    private String fileName = "";
+    private String functionName = "";
+    private int labelIndex;
+    private int romSize;
+    private boolean usedCall, usedReturn, usedEq, usedGt, usedLt;
+
+    // DIR/DIR.asm for a program compiled from a directory, named after the
+    // directory itself so that "." and "dir/" work too
+    public static File fileForDirectory(File directory) {
+        Path name = directory.getAbsoluteFile().toPath().normalize().getFileName();
+        return new File(directory, (name == null ? "out" : name.toString()) + ".asm");
+    }
+
+    /**
+     * @param file output .asm file
+     * @param cacheTop keep the stack top in D, or spill after every command
+     * @param sharedRoutines jump to shared call, return and compare code
+     */
+    public AsmWriter(File file, boolean cacheTop, boolean sharedRoutines) {
+        outputFile = file;
+        this.cacheTop = cacheTop;
+        this.sharedRoutines = sharedRoutines;
+        // open output file
+        try {
+            writer = new BufferedWriter(new FileWriter(outputFile));
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot write to file \"" +
+                    outputFile.getName() + "\"!");
+        }
+    }
+
+    // write SP = 256, call Sys.init and halt when it returns
+    public void writeInit() {
+        emit("@256");
+        emit("D=A");
+        emit("@SP");
+        emit("M=D");
+        writeCall("Sys.init", 0);
+        topInD = false;
+        emit("($HALT)");
+        emit("@$HALT");
+        emit("0;JMP");
+    }
+
+    // write push command
+    public void writePush(Segment seg, int index) {
+        spill();
+
+        switch (seg) {
+            case CONST:
+                loadConstant(index);
+                break;
+            case LOCAL: case ARG: case THIS: case THAT:
+                if (index <= 1) {
+                    selectChained(seg, index);
+                } else {
+                    emit("@" + index);
+                    emit("D=A");
+                    emit("@" + getBaseSymbol(seg));
+                    emit("A=D+M");
+                }
+                emit("D=M");
+                break;
+            default:
+                emit("@" + getDirectAddress(seg, index));
+                emit("D=M");
+                break;
+        }
+
+        setTop();
+    }
+
+    // write pop command
+    public void writePop(Segment seg, int index) {
+        if (seg == Segment.CONST)
+            throw new IllegalStateException("Cannot pop to constant segment!");
+
+        popToD();
+
+        switch (seg) {
+            case LOCAL: case ARG: case THIS: case THAT:
+                if (index <= MAX_CHAIN) {
+                    selectChained(seg, index);
+                    emit("M=D");
+                } else {
+                    // value goes to R13, address to R14
+                    emit("@R13");
+                    emit("M=D");
+                    emit("@" + index);
+                    emit("D=A");
+                    emit("@" + getBaseSymbol(seg));
+                    emit("D=D+M");
+                    emit("@R14");
+                    emit("M=D");
+                    emit("@R13");
+                    emit("D=M");
+                    emit("@R14");
+                    emit("A=M");
+                    emit("M=D");
+                }
+                break;
+            default:
+                emit("@" + getDirectAddress(seg, index));
+                emit("M=D");
+                break;
+        }
+    }
+
+    // write arithmetic command
+    public void writeArithmetic(Command com) {
+        popToD();
+
+        switch (com) {
+            case NEG:
+                emit("D=-D");
+                break;
+            case NOT:
+                emit("D=!D");
+                break;
+            case ADD:
+                popSecondOperand();
+                emit("D=D+M");
+                break;
+            case SUB:
+                popSecondOperand();
+                emit("D=M-D");
+                break;
+            case AND:
+                popSecondOperand();
+                emit("D=D&M");
+                break;
+            case OR:
+                popSecondOperand();
+                emit("D=D|M");
+                break;
+            case EQ:
+                writeCompare("JEQ");
+                break;
+            case GT:
+                writeCompare("JGT");
+                break;
+            case LT:
+                writeCompare("JLT");
+                break;
+        }
+
+        setTop();
+    }
+
+    // write label command
+    public void writeLabel(String label) {
+        spill();
+        emit("(" + functionName + "$" + label + ")");
+    }
+
+    // write goto command
+    public void writeGoto(String label) {
+        spill();
+        emit("@" + functionName + "$" + label);
+        emit("0;JMP");
+    }
+
+    // write goto-if command
+    public void writeIf(String label) {
+        popToD();
+        emit("@" + functionName + "$" + label);
+        emit("D;JNE");
+    }
+
+    // write call command, the return value arrives in D
+    public void writeCall(String name, int nArgs) {
+        spill();
+
+        String returnLabel = functionName + "$ret." + labelIndex++;
+
+        if (sharedRoutines) {
+            // R13 = nArgs, R14 = callee, D = return address
+            if (nArgs <= 1) {
+                emit("@R13");
+                emit("M=" + nArgs);
+            } else {
+                emit("@" + nArgs);
+                emit("D=A");
+                emit("@R13");
+                emit("M=D");
+            }
+            emit("@" + name);
+            emit("D=A");
+            emit("@R14");
+            emit("M=D");
+            emit("@" + returnLabel);
+            emit("D=A");
+            emit("@$CALL");
+            emit("0;JMP");
+            emit("(" + returnLabel + ")");
+
+            usedCall = true;
+            setTop();
+            return;
+        }
+
+        emit("@" + returnLabel);
+        emit("D=A");
+        writeCallFrame();
+
+        // ARG = SP - nArgs - 5
+        emit("@SP");
+        emit("D=M");
+        emit("@" + (nArgs + 5));
+        emit("D=D-A");
+        emit("@ARG");
+        emit("M=D");
+
+        // LCL = SP
+        emit("@SP");
+        emit("D=M");
+        emit("@LCL");
+        emit("M=D");
+
+        emit("@" + name);
+        emit("0;JMP");
+        emit("(" + returnLabel + ")");
+
+        setTop();
+    }
+
+    // push the return address held in D followed by LCL, ARG, THIS and THAT
+    private void writeCallFrame() {
+        pushD();
+        for (String pointer : new String[] {"LCL", "ARG", "THIS", "THAT"}) {
+            emit("@" + pointer);
+            emit("D=M");
+            pushD();
+        }
+    }
+
+    // write function command
+    public void writeFunction(String name, int nArgs) {
+        topInD = false;
+        functionName = name;
+        fileName = name.substring(0, Math.max(name.indexOf('.'), 0));
+
+        emit("(" + name + ")");
+
+        // zero the locals
+        if (nArgs > 0) {
+            emit("@SP");
+            emit("A=M");
+            for (int i = 0; i < nArgs; i++) {
+                emit("M=0");
+                emit("A=A+1");
+            }
+            emit("D=A");
+            emit("@SP");
+            emit("M=D");
+        }
+    }
+
+    // write return, the value is handed back in D
+    public void writeReturn() {
+        popToD();
+
+        if (sharedRoutines) {
+            usedReturn = true;
+            emit("@$RETURN");
+            emit("0;JMP");
+            return;
+        }
+
+        writeReturnBody();
+    }
+
+    // return with the value in D
+    private void writeReturnBody() {
+        // R15 = return value, R14 = return address
+        emit("@R15");
+        emit("M=D");
+        emit("@LCL");
+        emit("D=M");
+        emit("@5");
+        emit("A=D-A");
+        emit("D=M");
+        emit("@R14");
+        emit("M=D");
+
+        // SP = ARG
+        emit("@ARG");
+        emit("D=M");
+        emit("@SP");
+        emit("M=D");
+
+        // walk LCL down the frame restoring THAT, THIS, ARG and LCL
+        for (String pointer : new String[] {"THAT", "THIS", "ARG"}) {
+            emit("@LCL");
+            emit("AM=M-1");
+            emit("D=M");
+            emit("@" + pointer);
+            emit("M=D");
+        }
+        emit("@LCL");
+        emit("A=M-1");
+        emit("D=M");
+        emit("@LCL");
+        emit("M=D");
+
+        emit("@R15");
+        emit("D=M");
+        emit("@R14");
+        emit("A=M");
+        emit("0;JMP");
+    }
+
+    // close and flush
+    public void close() {
+        writeSharedRoutines();
+
+        try {
+            writer.close();
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to flush and close the file!");
+        }
+    }
+
+    // number of instructions written so far, labels excluded
+    public int getRomSize() {
+        return romSize;
+    }
+
+    // store D at the top of the stack if it is being cached there
+    private void spill() {
+        if (!topInD)
+            return;
+
+        pushD();
+        topInD = false;
+    }
+
+    // make sure D holds the top of the stack and remove it from the stack
+    private void popToD() {
+        if (topInD) {
+            topInD = false;
+            return;
+        }
+
+        emit("@SP");
+        emit("AM=M-1");
+        emit("D=M");
+    }
+
+    // pop the next value into M while the first operand stays in D
+    private void popSecondOperand() {
+        emit("@SP");
+        emit("AM=M-1");
+    }
+
+    // D now holds the top of the stack
+    private void setTop() {
+        topInD = true;
+
+        if (!cacheTop)
+            spill();
+    }
+
+    private void pushD() {
+        emit("@SP");
+        emit("AM=M+1");
+        emit("A=A-1");
+        emit("M=D");
+    }
+
+    // compare x with y, which is in D, and leave -1 or 0 in D
+    private void writeCompare(String jump) {
+        if (sharedRoutines) {
+            // R13 = y, D = return address
+            String returnLabel = functionName + "$ret." + labelIndex++;
+            usedEq |= jump.equals("JEQ");
+            usedGt |= jump.equals("JGT");
+            usedLt |= jump.equals("JLT");
+            emit("@R13");
+            emit("M=D");
+            emit("@" + returnLabel);
+            emit("D=A");
+            emit("@$" + jump);
+            emit("0;JMP");
+            emit("(" + returnLabel + ")");
+            return;
+        }
+
+        String prefix = "$cmp." + labelIndex, trueLabel = prefix + ".true",
+                endLabel = prefix + ".end";
+        labelIndex++;
+
+        if (jump.equals("JEQ")) {
+            popSecondOperand();
+            emit("D=M-D");
+        } else {
+            emit("@R13");
+            emit("M=D");
+            writeOrder(prefix);
+        }
+        emit("@" + trueLabel);
+        emit("D;" + jump);
+        emit("D=0");
+        emit("@" + endLabel);
+        emit("0;JMP");
+        emit("(" + trueLabel + ")");
+        emit("D=-1");
+        emit("(" + endLabel + ")");
+    }
+
+    // pop x with y in R13 and leave a D with the sign of x - y; the
+    // difference alone overflows when the signs differ, which would make
+    // 20000 > -20000 false, so those cases are decided by the sign of x
+    private void writeOrder(String prefix) {
+        emit("@SP");
+        emit("AM=M-1");
+        emit("D=M");
+        emit("@" + prefix + ".negative");
+        emit("D;JLT");
+
+        // x >= 0 is greater than any y < 0
+        emit("@R13");
+        emit("D=M");
+        emit("@" + prefix + ".subtract");
+        emit("D;JGE");
+        emit("D=1");
+        emit("@" + prefix + ".ordered");
+        emit("0;JMP");
+
+        // x < 0 is less than any y >= 0
+        emit("(" + prefix + ".negative)");
+        emit("@R13");
+        emit("D=M");
+        emit("@" + prefix + ".subtract");
+        emit("D;JLT");
+        emit("D=-1");
+        emit("@" + prefix + ".ordered");
+        emit("0;JMP");
+
+        emit("(" + prefix + ".subtract)");
+        emit("@SP");
+        emit("A=M");
+        emit("D=M");
+        emit("@R13");
+        emit("D=D-M");
+        emit("(" + prefix + ".ordered)");
+    }
+
+    // one copy of each routine the program jumped to, appended at the end
+    private void writeSharedRoutines() {
+        if (usedCall) {
+            // R13 = nArgs, R14 = callee, D = return address
+            emit("($CALL)");
+            writeCallFrame();
+
+            // ARG = SP - R13 - 5
+            emit("@R13");
+            emit("D=M");
+            emit("@5");
+            emit("D=D+A");
+            emit("@SP");
+            emit("D=M-D");
+            emit("@ARG");
+            emit("M=D");
+
+            // LCL = SP
+            emit("@SP");
+            emit("D=M");
+            emit("@LCL");
+            emit("M=D");
+
+            emit("@R14");
+            emit("A=M");
+            emit("0;JMP");
+        }
+
+        if (usedReturn) {
+            emit("($RETURN)");
+            writeReturnBody();
+        }
+
+        String[] jumps = {"JEQ", "JGT", "JLT"};
+        boolean[] used = {usedEq, usedGt, usedLt};
+
+        for (int i = 0; i < jumps.length; i++) {
+            if (!used[i])
+                continue;
+
+            // R13 = y, D = return address, x on the stack
+            emit("($" + jumps[i] + ")");
+            emit("@R14");
+            emit("M=D");
+            if (jumps[i].equals("JEQ")) {
+                emit("@R13");
+                emit("D=M");
+                emit("@SP");
+                emit("AM=M-1");
+                emit("D=M-D");
+            } else {
+                writeOrder("$" + jumps[i]);
+            }
+            emit("@$" + jumps[i] + ".true");
+            emit("D;" + jumps[i]);
+            emit("D=0");
+            emit("@R14");
+            emit("A=M");
+            emit("0;JMP");
+            emit("($" + jumps[i] + ".true)");
+            emit("D=-1");
+            emit("@R14");
+            emit("A=M");
+            emit("0;JMP");
+        }
+
+        usedCall = usedReturn = usedEq = usedGt = usedLt = false;
+    }
+
+    private void loadConstant(int value) {
+        if (value == 0 || value == 1 || value == -1) {
+            emit("D=" + value);
+        } else if (value > 0 && value <= 32767) {
+            emit("@" + value);
+            emit("D=A");
+        } else if (value < 0 && value > -32768) {
+            emit("@" + (-value));
+            emit("D=-A");
+        } else if (value == -32768) {
+            emit("@32767");
+            emit("D=!A");
+        } else {
+            throw new IllegalStateException("Constant out of range: " + value);
+        }
+    }
+
+    // A = base + index using increments instead of D
+    private void selectChained(Segment seg, int index) {
+        emit("@" + getBaseSymbol(seg));
+        emit("A=M");
+        for (int i = 0; i < index; i++)
+            emit("A=A+1");
+    }
+
+    private String getBaseSymbol(Segment seg) {
+        switch (seg) {
+            case LOCAL:
+                return "LCL";
+            case ARG:
+                return "ARG";
+            case THIS:
+                return "THIS";
+            default:
+                return "THAT";
+        }
+    }
+
+    private String getDirectAddress(Segment seg, int index) {
+        switch (seg) {
+            case POINTER:
+                return Integer.toString(3 + index);
+            case TEMP:
+                return Integer.toString(5 + index);
+            default:
+                return fileName + "." + index;
+        }
+    }
+
+    private void emit(String instruction) {
+        if (!instruction.startsWith("("))
+            romSize++;
+
+        // write line to file
+        try {
+            writer.write(instruction + "\n");
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to write to \"" + outputFile.getName() + "\"!");
+        }
+    }
+}
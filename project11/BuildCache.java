@@ -0,0 +1,248 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Remembers what every source in a directory compiled to, so a rebuild can
+ * skip classes whose source, compiler and options are unchanged. The
+ * manifest is kept in the directory as .jackcache, one line per source:
+ *
+ *   SOURCE SOURCE_HASH COMPILER_VERSION OPTIONS_HASH OUTPUT OUTPUT_HASH
+ *
+ * followed by one line per call into another class, and the class name and
+ * subroutine signatures declared by the source when it had the given hash:
+ *
+ *   dep SOURCE Class.subroutine SIGNATURE
+ *   class SOURCE SOURCE_HASH CLASS_NAME
+ *   sig SOURCE subroutine SIGNATURE
+ *
+ * Hashes are SHA-256 in hex and signatures are as returned by ClassIndex.
+ * A source is up to date only while its output still exists with the
+ * recorded hash, so deleted or edited outputs are rebuilt, and while every
+ * signature it relied on is unchanged. The stored signatures let a
+ * rebuild index unchanged sources without reading them again.
+ */
+public class BuildCache {
+    // change whenever the compiler can generate different code for the
+    // same source and options
+    public static final String COMPILER_VERSION = "11.50";
+
+    public static final String MANIFEST_NAME = ".jackcache";
+
+    private File manifest;
+    private String optionsHash;
+    private Map<String, String[]> entries = new TreeMap<>();
+    private Map<String, Map<String, String>> dependencies = new HashMap<>();
+    private Map<String, String[]> classes = new HashMap<>();
+    private Map<String, Map<String, String>> signatures = new HashMap<>();
+    private Map<File, String> sourceHashes = new HashMap<>();
+    private boolean changed;
+
+    /**
+     * loads the manifest of directory if it has one
+     * @param options settings of this build, part of every entry's key
+     */
+    public BuildCache(File directory, CompilerOptions options) {
+        manifest = new File(directory, MANIFEST_NAME);
+        optionsHash = hash(options.toString().getBytes(StandardCharsets.UTF_8));
+
+        if (!manifest.isFile())
+            return;
+
+        try (BufferedReader reader = new BufferedReader(new FileReader(manifest))) {
+            String line;
+
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.trim().split("\\s+");
+
+                // damaged lines only cost a rebuild
+                if (parts.length >= 4 && parts[0].equals("dep")) {
+                    dependencies.computeIfAbsent(parts[1], key -> new TreeMap<>()).put(parts[2],
+                            line.trim().split("\\s+", 4)[3]);
+                } else if (parts.length == 4 && parts[0].equals("class")) {
+                    classes.put(parts[1], new String[] {parts[2], parts[3]});
+                } else if (parts.length >= 4 && parts[0].equals("sig")) {
+                    signatures.computeIfAbsent(parts[1], key -> new TreeMap<>()).put(parts[2],
+                            line.trim().split("\\s+", 4)[3]);
+                } else if (parts.length == 6 && !line.startsWith("#")) {
+                    entries.put(parts[0], parts);
+                }
+            }
+        } catch (IOException e) {
+            entries.clear();
+        }
+    }
+
+    // true if output was built from the current source with the same compiler and options
+    public boolean isUpToDate(File source, File output) {
+        String[] entry = entries.get(source.getName());
+
+        return entry != null &&
+                entry[1].equals(getSourceHash(source)) &&
+                entry[2].equals(COMPILER_VERSION) &&
+                entry[3].equals(optionsHash) &&
+                entry[4].equals(output.getName()) &&
+                output.isFile() &&
+                entry[5].equals(hash(output));
+    }
+
+    /**
+     * @return the first Class.subroutine source relied on whose signature in
+     *         classIndex differs from the recorded one, or null
+     */
+    public String getChangedDependency(File source, ClassIndex classIndex) {
+        Map<String, String> relied = dependencies.get(source.getName());
+
+        if (relied == null)
+            return null;
+
+        for (Map.Entry<String, String> dependency : relied.entrySet()) {
+            String member = dependency.getKey();
+            int dot = member.indexOf('.');
+            String signature = classIndex.getSignature(member.substring(0, dot),
+                    member.substring(dot + 1));
+
+            if (!signature.equals(dependency.getValue()))
+                return member;
+        }
+
+        return null;
+    }
+
+    /**
+     * add the signatures stored for source to classIndex
+     * @return false if none are stored for the current contents of source
+     */
+    public boolean addSignatures(File source, ClassIndex classIndex) {
+        String[] declared = classes.get(source.getName());
+
+        if (declared == null || !declared[0].equals(getSourceHash(source)))
+            return false;
+
+        classIndex.add(declared[1], signatures.getOrDefault(source.getName(), new TreeMap<>()));
+        return true;
+    }
+
+    // note the signatures source declares in its current contents
+    public void recordSignatures(File source, String className, Map<String, String> members) {
+        classes.put(source.getName(), new String[] {getSourceHash(source), className});
+        signatures.put(source.getName(), new TreeMap<>(members));
+        changed = true;
+    }
+
+    /**
+     * note that output was just built from source
+     * @param relied signatures the compiler checked calls against
+     */
+    public void record(File source, File output, Map<String, String> relied) {
+        entries.put(source.getName(), new String[] {source.getName(), getSourceHash(source),
+                COMPILER_VERSION, optionsHash, output.getName(), hash(output)});
+        dependencies.put(source.getName(), new TreeMap<>(relied));
+        changed = true;
+    }
+
+    // write the manifest back if anything was recorded
+    public void save() {
+        if (!changed)
+            return;
+
+        File tempFile = new File(manifest.getParentFile(), MANIFEST_NAME + ".tmp");
+
+        try {
+            try (BufferedWriter writer = new BufferedWriter(new FileWriter(tempFile))) {
+                writer.write("# source sourceHash compilerVersion optionsHash output outputHash\n");
+
+                for (String[] entry : entries.values()) {
+                    writer.write(String.join(" ", entry) + "\n");
+
+                    writeMap(writer, "dep " + entry[0], dependencies.get(entry[0]));
+                }
+
+                for (Map.Entry<String, String[]> declared : new TreeMap<>(classes).entrySet()) {
+                    String source = declared.getKey();
+                    writer.write("class " + source + " " + declared.getValue()[0] + " " +
+                            declared.getValue()[1] + "\n");
+                    writeMap(writer, "sig " + source, signatures.get(source));
+                }
+            }
+
+            try {
+                Files.move(tempFile.toPath(), manifest.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                        StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tempFile.toPath(), manifest.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot write to file \"" + MANIFEST_NAME + "\"!");
+        } finally {
+            tempFile.delete();
+        }
+
+        changed = false;
+    }
+
+    // one "prefix key value" line per entry
+    private void writeMap(BufferedWriter writer, String prefix, Map<String, String> map)
+            throws IOException {
+        if (map == null)
+            return;
+
+        for (Map.Entry<String, String> entry : map.entrySet())
+            writer.write(prefix + " " + entry.getKey() + " " + entry.getValue() + "\n");
+    }
+
+    // sources are hashed once per build even when checked and recorded
+    private String getSourceHash(File source) {
+        return sourceHashes.computeIfAbsent(source, BuildCache::hash);
+    }
+
+    // SHA-256 of the file contents in hex
+    public static String hash(File file) {
+        MessageDigest digest = newDigest();
+        byte[] block = new byte[8192];
+
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            int length;
+            while ((length = in.read(block)) > 0)
+                digest.update(block, 0, length);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Cannot read file \"" + file.getName() + "\"!");
+        }
+
+        return toHex(digest.digest());
+    }
+
+    public static String hash(byte[] data) {
+        return toHex(newDigest().digest(data));
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available!");
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+
+        for (byte b : bytes)
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+
+        return hex.toString();
+    }
+}
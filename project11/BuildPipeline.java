@@ -0,0 +1,162 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Overlaps file I/O with compilation in a directory build. A reader thread
+ * loads upcoming source files into memory while the current one compiles,
+ * and a writer thread formats finished classes into a temp file next to
+ * their output and renames it into place, so readers of the output
+ * directory never see a partly written file.
+ */
+public class BuildPipeline implements AutoCloseable {
+    // source files read ahead of the one being compiled
+    private static final int READ_AHEAD = 4;
+
+    private List<File> sources;
+    private int nextRead, nextSource;
+    private Queue<Future<String>> reads = new ArrayDeque<>();
+    private List<Future<?>> writes = new ArrayList<>();
+
+    private ExecutorService reader = Executors.newSingleThreadExecutor(BuildPipeline::newThread);
+    private ExecutorService writer = Executors.newSingleThreadExecutor(BuildPipeline::newThread);
+
+    /**
+     * @param sources files returned by nextSource(), in this order
+     */
+    public BuildPipeline(List<File> sources) {
+        this.sources = sources;
+
+        while (nextRead < sources.size() && reads.size() < READ_AHEAD)
+            scheduleRead();
+    }
+
+    // contents of the next source file, waiting for it if it is not read yet
+    public String nextSource() {
+        if (nextSource == sources.size())
+            throw new IllegalStateException("No more source files!");
+
+        File file = sources.get(nextSource++);
+        Future<String> read = reads.poll();
+
+        if (nextRead < sources.size())
+            scheduleRead();
+
+        try {
+            return read.get();
+        } catch (ExecutionException e) {
+            throw new IllegalArgumentException("Cannot read file \"" + file.getName() + "\"!");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while reading \"" + file.getName() + "\"!");
+        }
+    }
+
+    /**
+     * writes the commands in the background as .vmb if the file name ends
+     * with .vmb and as .vm text otherwise
+     * @param file final output file, replaced atomically when complete
+     * @param commands compiled class, must not change afterwards
+     */
+    public void write(File file, VMBuffer commands) {
+        write(file, commands, null);
+    }
+
+    // stats, if not null, is charged with the write
+    public void write(File file, VMBuffer commands, CompileStats stats) {
+        writes.add(writer.submit(() -> writeAtomically(file, commands, stats)));
+    }
+
+    // waits for every pending write and reports the first failure
+    public void close() {
+        reader.shutdownNow();
+        writer.shutdown();
+
+        RuntimeException failure = null;
+        for (Future<?> write : writes) {
+            try {
+                write.get();
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof Error)
+                    throw (Error) e.getCause();
+                if (failure == null)
+                    failure = (RuntimeException) e.getCause();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while writing output!");
+            }
+        }
+
+        if (failure != null)
+            throw failure;
+    }
+
+    private void scheduleRead() {
+        File file = sources.get(nextRead++);
+
+        // decoded like FileReader does for JackTokenizer(File)
+        reads.add(reader.submit(() ->
+                new String(Files.readAllBytes(file.toPath()), Charset.defaultCharset())));
+    }
+
+    // format commands into a temp file and rename it over file, leaving
+    // file and its timestamp alone when the contents are the same
+    public static void writeAtomically(File file, VMBuffer commands) {
+        writeAtomically(file, commands, null);
+    }
+
+    public static void writeAtomically(File file, VMBuffer commands, CompileStats stats) {
+        File directory = file.getAbsoluteFile().getParentFile();
+        File tempFile = null;
+        long bytes = 0;
+
+        if (stats != null)
+            stats.beginWrite();
+
+        try {
+            tempFile = File.createTempFile(file.getName(), ".tmp", directory);
+
+            VMEmitter emitter = file.getName().toLowerCase().endsWith(".vmb") ?
+                    new VMBinaryWriter(tempFile) : new VMWriter(tempFile);
+            commands.replay(emitter);
+            emitter.close();
+
+            bytes = tempFile.length();
+
+            if (file.isFile() && Files.mismatch(tempFile.toPath(), file.toPath()) == -1)
+                return;
+
+            try {
+                Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                        StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot write to file \"" + file.getName() + "\"!");
+        } finally {
+            if (tempFile != null)
+                tempFile.delete();
+            if (stats != null)
+                stats.endWrite(file, bytes);
+        }
+    }
+
+    // daemon threads so a failed build can still exit
+    private static Thread newThread(Runnable task) {
+        Thread thread = new Thread(task, "build-io");
+        thread.setDaemon(true);
+        return thread;
+    }
+}
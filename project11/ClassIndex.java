@@ -0,0 +1,130 @@
+import java.io.File;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Subroutine signatures of every class in a build, read from the
+ * declarations alone so the whole directory can be indexed before anything
+ * compiles. CompilationEngine checks calls to other classes against it and
+ * records the signatures it relied on, which lets BuildCache rebuild a
+ * class when one of them changes.
+ */
+public class ClassIndex {
+    // signature of members of classes outside the build, like the OS
+    public static final String EXTERNAL = "external";
+    // signature of members a class in the build does not declare
+    public static final String MISSING = "missing";
+
+    // class name to subroutine name to "kind nParams"
+    private Map<String, Map<String, String>> classes = new HashMap<>();
+
+    /**
+     * @param cache signatures of unchanged sources, and where new ones are
+     *              recorded, or null to read every source
+     */
+    public static ClassIndex scan(List<File> sources, BuildCache cache) {
+        ClassIndex index = new ClassIndex();
+
+        for (File source : sources) {
+            if (cache != null && cache.addSignatures(source, index))
+                continue;
+
+            // sources that do not tokenize are reported when they compile
+            try {
+                String className = index.add(new JackTokenizer(source));
+
+                if (cache != null && className != null)
+                    cache.recordSignatures(source, className, index.classes.get(className));
+            } catch (IllegalStateException ignored) {}
+        }
+
+        return index;
+    }
+
+    public void add(String className, Map<String, String> members) {
+        classes.put(className, members);
+    }
+
+    /**
+     * add the class read by tokenizer, skipping over subroutine bodies
+     * @return name of the class, or null if it has no class declaration
+     */
+    public String add(JackTokenizer tokenizer) {
+        Map<String, String> members = new HashMap<>();
+        String className = null;
+        int depth = 0;
+
+        while (tokenizer.hasMoreTokens()) {
+            tokenizer.advance();
+
+            if (tokenizer.tokenType() == TokenType.SYMBOL) {
+                if (tokenizer.symbol() == '{') {
+                    depth++;
+                } else if (tokenizer.symbol() == '}') {
+                    depth--;
+                }
+            } else if (tokenizer.tokenType() == TokenType.KEYWORD) {
+                Keyword keyword = tokenizer.keyWord();
+
+                if (keyword == Keyword.CLASS && className == null) {
+                    className = nextIdentifier(tokenizer);
+                } else if (depth == 1 && (keyword == Keyword.CONSTRUCTOR ||
+                        keyword == Keyword.FUNCTION || keyword == Keyword.METHOD)) {
+                    // return type, then name
+                    nextIdentifier(tokenizer);
+                    String name = nextIdentifier(tokenizer);
+                    members.put(name, keyword.getMnemonic() + " " + countParameters(tokenizer));
+                }
+            }
+        }
+
+        // broken sources get no signatures and fail later in the compiler
+        if (className != null)
+            classes.put(className, members);
+
+        return className;
+    }
+
+    /**
+     * @return "kind nParams" of the subroutine, EXTERNAL if the class is not
+     *         part of the build or MISSING if it does not declare the subroutine
+     */
+    public String getSignature(String className, String subroutineName) {
+        Map<String, String> members = classes.get(className);
+
+        if (members == null)
+            return EXTERNAL;
+
+        String signature = members.get(subroutineName);
+        return signature == null ? MISSING : signature;
+    }
+
+    private String nextIdentifier(JackTokenizer tokenizer) {
+        if (!tokenizer.hasMoreTokens())
+            return null;
+
+        tokenizer.advance();
+        return tokenizer.tokenType() == TokenType.IDENTIFIER ? tokenizer.identifier() : null;
+    }
+
+    // count the comma separated entries between ( and )
+    private int countParameters(JackTokenizer tokenizer) {
+        int count = 0;
+        boolean empty = true;
+
+        while (tokenizer.hasMoreTokens()) {
+            tokenizer.advance();
+
+            if (tokenizer.tokenType() != TokenType.SYMBOL) {
+                empty = false;
+            } else if (tokenizer.symbol() == ',') {
+                count++;
+            } else if (tokenizer.symbol() == ')') {
+                break;
+            }
+        }
+
+        return empty ? 0 : count + 1;
+    }
+}
@@ -1,3 +1,6 @@
+import java.util.HashMap;
+import java.util.Map;
+
 public enum Command {
     ADD("add"),
     SUB("sub"),
@@ -9,6 +12,8 @@ public enum Command {
     OR("or"),
     NOT("not");
 
+    private static final Map<String, Command> MNEMONIC_MAP = new HashMap<>();
+
     private String mnemonic;
 
     Command(String mne) {
@@ -19,4 +24,13 @@ public enum Command {
     public String getMnemonic() {
         return mnemonic;
     }
+
+    public static Command getValueByMnemonic(String mnemonic) {
+        return MNEMONIC_MAP.get(mnemonic);
+    }
+
+    static {
+        for (Command value : values())
+            MNEMONIC_MAP.put(value.getMnemonic(), value);
+    }
 }
@@ -1,23 +1,81 @@
 import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 
 public class CompilationEngine {
     private File outputFile;
-    private VMWriter writer;
+    private VMEmitter output;
+    private VMBuffer writer;
+    private boolean ownsWriter;
+    private CompilerOptions options;
+    private List<VMBuffer> subroutines;
+    private Map<String, String> dependencies = new TreeMap<>();
     private JackTokenizer jackTokenizer;
     private SymbolTable symbolTable;
     private String className;
     private String subroutineName;
     private int labelIndex;
+    // numbers subroutine calls in source order, see VMBuffer.getSite
+    private int callIndex;
+    private CompileStats stats;
+    private ParseTreeEmitter tree;
+    // "Class.subroutine POINT" of each profile counter, see writeCounter
+    private List<String> counters = new ArrayList<>();
+    // conditions of if and while are written here first, see compileCondition
+    private VMBuffer condition = new VMBuffer();
+    private ShortCircuit shortCircuit = new ShortCircuit();
 
     public CompilationEngine(JackTokenizer tokenizer, File file) {
-        jackTokenizer = tokenizer;
+        this(tokenizer, file, new CompilerOptions());
+    }
+
+    public CompilationEngine(JackTokenizer tokenizer, File file, CompilerOptions options) {
+        this(tokenizer, options.isBinary() ? new VMBinaryWriter(file) : new VMWriter(file),
+                options);
         outputFile = file;
+        ownsWriter = true;
+    }
+
+    // compile into an emitter shared with other classes, left open afterwards
+    public CompilationEngine(JackTokenizer tokenizer, VMEmitter emitter) {
+        this(tokenizer, emitter, new CompilerOptions());
+    }
+
+    public CompilationEngine(JackTokenizer tokenizer, VMEmitter emitter,
+            CompilerOptions options) {
+        jackTokenizer = tokenizer;
+        this.options = options;
         symbolTable = new SymbolTable();
-        writer = new VMWriter(outputFile);
+        output = emitter;
+        subroutines = new ArrayList<>();
         advanceTokenizer();
     }
 
+    // count and time the compile into stats, which also gets the tokenizer's
+    // counts if it was handed the same object
+    public void setStats(CompileStats stats) {
+        this.stats = stats;
+    }
+
+    /**
+     * also pass every element and token of the class to tree while it is
+     * parsed, so the XML outputs need no second pass; tree is left open
+     */
+    public void setParseTree(ParseTreeEmitter tree) {
+        this.tree = tree;
+    }
+
     public void compileClass() {
+        // time not charged to another phase is parsing
+        long start = 0, accounted = 0;
+        if (stats != null) {
+            stats.beginCompile();
+            start = System.nanoTime();
+            accounted = stats.getTotalTime();
+        }
+
         // class
         if (jackTokenizer.tokenType() != TokenType.KEYWORD || 
                 jackTokenizer.keyWord() != Keyword.CLASS
@@ -25,6 +83,7 @@ public class CompilationEngine {
             throw new IllegalStateException("syntax error: expected class declaration");
         }
 
+        startElement(NonTerminal.CLASS);
         advanceTokenizer();
 
         // className (identifier)
@@ -55,11 +114,97 @@ public class CompilationEngine {
             throw new IllegalStateException("syntax error: expected '}'");
         }
 
+        // the closing brace is the last token, nothing advances past it
+        if (tree != null) {
+            writeToken();
+            endElement(NonTerminal.CLASS);
+        }
+
+        if (!counters.isEmpty())
+            compileCounterDump();
+
+        // optimize each subroutine, then across the class, then write
+        // every subroutine out
+        if (options.isPropagation() || options.getProfile() != null) {
+            long optimizeStart = stats != null ? System.nanoTime() : 0;
+
+            if (options.isPropagation()) {
+                ConstantPropagation propagation = new ConstantPropagation(
+                        isFoldable("multiply") && isFoldable("divide"));
+                for (VMBuffer subroutine : subroutines)
+                    propagation.optimize(subroutine);
+            }
+            if (options.getProfile() != null)
+                subroutines = new Inliner(options.getProfile()).inline(subroutines);
+
+            if (stats != null)
+                stats.addTime(CompileStats.Phase.OPTIMIZE, System.nanoTime() - optimizeStart);
+        }
+
+        // replaying into a buffer is not writing, its owner writes it later
+        boolean writing = stats != null && !(output instanceof VMBuffer);
+        if (writing)
+            stats.beginWrite();
+
+        for (VMBuffer subroutine : subroutines)
+            subroutine.replay(output);
+
         // close and flush VM writer
-        writer.close();
+        if (ownsWriter)
+            output.close();
+
+        if (writing)
+            stats.endWrite(outputFile, ownsWriter ? outputFile.length() : 0);
+
+        if (stats != null) {
+            for (VMBuffer subroutine : subroutines)
+                stats.count(subroutine);
+
+            stats.addTime(CompileStats.Phase.PARSE,
+                    System.nanoTime() - start - (stats.getTotalTime() - accounted));
+            stats.endCompile();
+        }
+    }
+
+    /**
+     * @return Class.subroutine of every call into another class, mapped to
+     *         the ClassIndex signature it was checked against
+     */
+    public Map<String, String> getDependencies() {
+        return dependencies;
+    }
+
+    public String getClassName() {
+        return className;
+    }
+
+    /**
+     * @return "Class.subroutine POINT" of every counter compiled in with
+     *         --instrument, in the order of their static words
+     */
+    public List<String> getCounters() {
+        return counters;
+    }
+
+    // static words the class uses, profile counters included
+    public int getStaticCount() {
+        return symbolTable.varCount(Kind.STATIC) + 2 * counters.size();
+    }
+
+    /**
+     * @param source name of the Jack file, recorded in the map
+     * @return source line and subroutine of every command written, in order
+     */
+    public SourceMap getSourceMap(String source) {
+        SourceMap map = new SourceMap(source);
+        for (VMBuffer subroutine : subroutines)
+            map.add(subroutine);
+        return map;
     }
 
     private void compileClassVarDec() {
+        startElement(NonTerminal.CLASS_VAR_DEC);
+
         // static or field
         Keyword keyword = jackTokenizer.keyWord();
         Kind kind = keyword == Keyword.STATIC ? Kind.STATIC : Kind.FIELD;
@@ -83,11 +228,19 @@ public class CompilationEngine {
 
         // ;
         compileSymbol(';');
+
+        endElement(NonTerminal.CLASS_VAR_DEC);
     }
 
     private void compileSubroutine() {
         symbolTable.startSubroutine();
 
+        // each subroutine is kept in memory until the class is done
+        writer = new VMBuffer();
+        subroutines.add(writer);
+
+        startElement(NonTerminal.SUBROUTINE_DEC);
+
         // constructor or function or method
         Keyword keyword = jackTokenizer.keyWord();
         advanceTokenizer();
@@ -114,6 +267,8 @@ public class CompilationEngine {
 
         // subroutineBody
         compileSubRoutineBody(keyword);
+
+        endElement(NonTerminal.SUBROUTINE_DEC);
     }
 
     private void compileSymbol(char symbol) {
@@ -172,6 +327,8 @@ public class CompilationEngine {
     }
 
     private void compileParameterList() {
+        startElement(NonTerminal.PARAMETER_LIST);
+
         if (currentTokenIsType()) {
             // type varName
             String type = compileType();
@@ -190,9 +347,13 @@ public class CompilationEngine {
                 symbolTable.define(identifier, type, Kind.ARG);
             }
         }
+
+        endElement(NonTerminal.PARAMETER_LIST);
     }
 
     private void compileSubRoutineBody(Keyword keyword) {
+        startElement(NonTerminal.SUBROUTINE_BODY);
+
         // {
         compileSymbol('{');
         
@@ -215,14 +376,20 @@ public class CompilationEngine {
             writer.writePop(Segment.POINTER, 0);
         }
 
+        writeCounter(ProfileCounters.ENTRY);
+
         // statements
         compileStatements();
 
         // }
         compileSymbol('}');
+
+        endElement(NonTerminal.SUBROUTINE_BODY);
     }
 
     private void compileVarDec() {
+        startElement(NonTerminal.VAR_DEC);
+
         // 'var'
         advanceTokenizer();
 
@@ -242,9 +409,13 @@ public class CompilationEngine {
         }
 
         compileSymbol(';');
+
+        endElement(NonTerminal.VAR_DEC);
     }
 
     private void compileStatements() {
+        startElement(NonTerminal.STATEMENTS);
+
         boolean done = false;
 
         // statement*
@@ -270,6 +441,8 @@ public class CompilationEngine {
                     break;
             }
         }
+
+        endElement(NonTerminal.STATEMENTS);
     }
 
     private void compileKeyword(Keyword keyword) {
@@ -283,6 +456,8 @@ public class CompilationEngine {
     }
 
     private void compileDo() {
+        startElement(NonTerminal.DO_STATEMENT);
+
         // do
         compileKeyword(Keyword.DO);
         
@@ -293,6 +468,8 @@ public class CompilationEngine {
         compileSymbol(';');
 
         writer.writePop(Segment.TEMP, 0);
+
+        endElement(NonTerminal.DO_STATEMENT);
     }
 
     private void compileSubroutineCallNoIdentifier(String identifier) {
@@ -313,19 +490,18 @@ public class CompilationEngine {
 
         // determine type
         String objectType = className;
+        boolean isMethodCall = true;
 
         if (objectName != null) {
-            String typeOf = symbolTable.typeOf(objectName);
+            int symbol = resolve(objectName);
 
-            System.out.println(typeOf);
-
-            if (typeOf != null) {   // method
-                objectType = typeOf;
+            if (symbol != SymbolTable.NOT_FOUND) {   // method
+                objectType = symbolTable.getType(symbol);
                 numArgs++;
-                writer.writePush(symbolTable.kindOf(objectName), symbolTable.indexOf(objectName));
-                System.out.println(objectName + " " + numArgs);
+                pushVariable(symbol);
             } else { // otherwise function or constructor
                 objectType = objectName;
+                isMethodCall = false;
             }
         } else { // method
             writer.writePush(Segment.POINTER, 0);
@@ -336,14 +512,87 @@ public class CompilationEngine {
         compileSymbol('(');
 
         // expressionList
+        int argumentsStart = writer.size();
         numArgs += compileExpressionList();
 
         // )
         compileSymbol(')');
 
+        checkCall(objectType, name, isMethodCall, numArgs);
+
+        if (objectType.equals("Sys") && name.equals("halt"))
+            writeProfileDump();
+
+        if (!isMethodCall && options.isIntrinsics() && isUnshadowedOS(objectType, name) &&
+                Intrinsics.write(objectType + "." + name, numArgs,
+                        constantArgument(argumentsStart), writer)) {
+            return;
+        }
+
         // write function as VM code
         writer.writeCall(objectType + "." + name, numArgs);
-        System.out.println(objectType + "." + name + " " + numArgs);
+        writer.setSite(writer.size() - 1, callIndex++);
+    }
+
+    // a call into a class that is not part of the build, which can only be
+    // the OS; without a class index a user class may still shadow it
+    private boolean isUnshadowedOS(String objectType, String name) {
+        ClassIndex classIndex = options.getClassIndex();
+
+        return classIndex != null && !objectType.equals(className) &&
+                classIndex.getSignature(objectType, name).equals(ClassIndex.EXTERNAL);
+    }
+
+    // whether Math.name reaches the OS, so its result may be computed while
+    // compiling; the output then relies on no class Math joining the build
+    private boolean isFoldable(String name) {
+        if (!isUnshadowedOS("Math", name))
+            return false;
+
+        dependencies.put("Math." + name, ClassIndex.EXTERNAL);
+        return true;
+    }
+
+    // value of the argument list written from start on if it is one
+    // constant, otherwise -1
+    private int constantArgument(int start) {
+        if (writer.size() != start + 1 || writer.getKind(start) != VMBuffer.PUSH ||
+                writer.getSegment(start) != Segment.CONST) {
+            return -1;
+        }
+
+        return writer.getIndex(start);
+    }
+
+    // check a call into another class against its declaration, and note
+    // that this class's output relies on that declaration
+    private void checkCall(String objectType, String name, boolean isMethodCall, int numArgs) {
+        ClassIndex classIndex = options.getClassIndex();
+
+        if (classIndex == null || objectType.equals(className))
+            return;
+
+        String member = objectType + "." + name;
+        String signature = classIndex.getSignature(objectType, name);
+        dependencies.put(member, signature);
+
+        if (signature.equals(ClassIndex.EXTERNAL))
+            return;
+        if (signature.equals(ClassIndex.MISSING))
+            throw new IllegalStateException("semantic error: " + member + " is not declared");
+
+        String[] parts = signature.split(" ");
+        boolean isMethod = parts[0].equals(Keyword.METHOD.getMnemonic());
+        int numParams = Integer.parseInt(parts[1]) + (isMethod ? 1 : 0);
+
+        if (isMethod != isMethodCall) {
+            throw new IllegalStateException("semantic error: " + member + " is a " + parts[0] +
+                    (isMethod ? " but is called without an object" : " but is called on an object"));
+        }
+        if (numParams != numArgs) {
+            throw new IllegalStateException("semantic error: " + member + " takes " + parts[1] +
+                    " argument(s) but is called with " + (numArgs - (isMethod ? 1 : 0)));
+        }
     }
 
     private void compileSubroutineCall() {
@@ -351,6 +600,8 @@ public class CompilationEngine {
     }
 
     private void compileLet() {
+        startElement(NonTerminal.LET_STATEMENT);
+
         // let
         compileKeyword(Keyword.LET);
 
@@ -378,19 +629,25 @@ public class CompilationEngine {
         // ;
         compileSymbol(';');
 
+        int symbol = resolveVariable(varName);
+
         if (isArray) {
             writer.writePop(Segment.TEMP, 0);
-            writer.writePush(symbolTable.kindOf(varName), symbolTable.indexOf(varName));
+            pushVariable(symbol);
             writer.writeArithmetic(Command.ADD);
             writer.writePop(Segment.POINTER, 1);
             writer.writePush(Segment.TEMP, 0);
             writer.writePop(Segment.THAT, 0);
         } else {
-            writer.writePop(symbolTable.kindOf(varName), symbolTable.indexOf(varName));
+            writer.writePop(SymbolTable.getKind(symbol), SymbolTable.getIndex(symbol));
         }
+
+        endElement(NonTerminal.LET_STATEMENT);
     }
 
     private void compileWhile() {
+        startElement(NonTerminal.WHILE_STATEMENT);
+
         String startLabel = "WHILE_START_" + labelIndex,
                 endLabel = "WHILE_END_" + labelIndex;
         labelIndex++;
@@ -403,10 +660,7 @@ public class CompilationEngine {
         writer.writeLabel(startLabel);
 
         // expression
-        compileExpression();
-
-        writer.writeArithmetic(Command.NOT);
-        writer.writeIf(endLabel);
+        compileCondition(false, endLabel);
 
         // )
         compileSymbol(')');
@@ -419,14 +673,24 @@ public class CompilationEngine {
         // }
         compileSymbol('}');
 
+        // the back edge counts iterations
+        writeCounter(startLabel);
         writer.writeGoto(startLabel);
         writer.writeLabel(endLabel);
+
+        endElement(NonTerminal.WHILE_STATEMENT);
     }
 
     private void compileReturn() {
+        startElement(NonTerminal.RETURN_STATEMENT);
+
         // return
         compileKeyword(Keyword.RETURN);
 
+        // the counters are written out when the program ends normally
+        if (className.equals("Main") && subroutineName.equals("main"))
+            writeProfileDump();
+
         // expression?
         if (jackTokenizer.tokenType() != TokenType.SYMBOL ||
                 jackTokenizer.symbol() != ';'
@@ -440,13 +704,23 @@ public class CompilationEngine {
 
         // ;
         compileSymbol(';');
+
+        endElement(NonTerminal.RETURN_STATEMENT);
     }
 
     private void compileIf() {
         String startLabel = "IF_START_" + labelIndex, endLabel = "IF_END_" + labelIndex,
-        elseLabel = "ELSE_" + labelIndex;
+        elseLabel = "ELSE_" + labelIndex, trueLabel = "IF_TRUE_" + labelIndex;
         labelIndex++;
 
+        startElement(NonTerminal.IF_STATEMENT);
+
+        if (conditionUsuallyFalse(startLabel, elseLabel, trueLabel)) {
+            compileIfElseFirst(startLabel, trueLabel, elseLabel, endLabel);
+            endElement(NonTerminal.IF_STATEMENT);
+            return;
+        }
+
         // if
         compileKeyword(Keyword.IF);
         // (
@@ -455,10 +729,7 @@ public class CompilationEngine {
         writer.writeLabel(startLabel);
 
         // expression
-        compileExpression();
-
-        writer.writeArithmetic(Command.NOT);
-        writer.writeIf(elseLabel);
+        compileCondition(false, elseLabel);
 
         // )
         compileSymbol(')');
@@ -466,6 +737,7 @@ public class CompilationEngine {
         compileSymbol('{');
 
         // statements
+        writeCounter(trueLabel);
         compileStatements();
 
         writer.writeGoto(endLabel);
@@ -474,7 +746,8 @@ public class CompilationEngine {
         compileSymbol('}');
 
         writer.writeLabel(elseLabel);
-        
+        writeCounter(elseLabel);
+
         // else { statements }
         if (jackTokenizer.tokenType() == TokenType.KEYWORD &&
                 jackTokenizer.keyWord() == Keyword.ELSE
@@ -486,9 +759,164 @@ public class CompilationEngine {
         }
 
         writer.writeLabel(endLabel);
+
+        endElement(NonTerminal.IF_STATEMENT);
+    }
+
+    // if the profile says the condition is mostly false, lay out the else
+    // branch as the fall-through path and jump to the if branch
+    private void compileIfElseFirst(String startLabel, String trueLabel, String elseLabel,
+            String endLabel) {
+        // if
+        compileKeyword(Keyword.IF);
+        // (
+        compileSymbol('(');
+
+        writer.writeLabel(startLabel);
+
+        // expression
+        compileCondition(true, trueLabel);
+
+        // )
+        compileSymbol(')');
+        // {
+        compileSymbol('{');
+
+        // statements of the if branch are written after the else branch
+        VMBuffer saved = writer;
+        VMBuffer ifBranch = new VMBuffer();
+        ifBranch.setLine(saved.getLine());
+        writer = ifBranch;
+        writeCounter(trueLabel);
+        compileStatements();
+        writer = saved;
+
+        // }
+        compileSymbol('}');
+
+        // the false path has no label in this layout, its counter keeps the name
+        writeCounter(elseLabel);
+
+        // else { statements }
+        if (jackTokenizer.tokenType() == TokenType.KEYWORD &&
+                jackTokenizer.keyWord() == Keyword.ELSE
+        ) {
+            compileKeyword(Keyword.ELSE);
+            compileSymbol('{');
+            compileStatements();
+            compileSymbol('}');
+        }
+
+        writer.writeGoto(endLabel);
+        writer.writeLabel(trueLabel);
+        ifBranch.replay(writer);
+        writer.writeLabel(endLabel);
+    }
+
+    // jump to label when the condition has the value jumpIf, skipping the
+    // second operand of & and | where ShortCircuit can
+    private void compileCondition(boolean jumpIf, String label) {
+        // a condition holds no statements, so the buffer is never in use twice
+        VMBuffer saved = writer;
+        condition.clear();
+        condition.setLine(saved.getLine());
+        writer = condition;
+        compileExpression();
+        writer = saved;
+        writer.setLine(condition.getLine());
+
+        if (shortCircuit.writeJump(condition, jumpIf, label, writer))
+            return;
+
+        condition.replay(writer);
+        if (!jumpIf)
+            writer.writeArithmetic(Command.NOT);
+        writer.writeIf(label);
+    }
+
+    // compare how often an if statement took each branch in the profile,
+    // which has IF_TRUE_n or ELSE_n counts depending on the layout it ran
+    private boolean conditionUsuallyFalse(String startLabel, String elseLabel,
+            String trueLabel) {
+        ExecutionProfile profile = options.getProfile();
+
+        if (profile == null)
+            return false;
+
+        String function = className + "." + subroutineName;
+        long total = profile.getLabelCount(function, startLabel);
+        long falseCount = profile.getLabelCount(function, elseLabel);
+        long trueCount = profile.getLabelCount(function, trueLabel);
+
+        if (total < 0 || (falseCount < 0 && trueCount < 0))
+            return false;
+
+        if (falseCount < 0)
+            falseCount = total - trueCount;
+
+        return falseCount > total - falseCount;
+    }
+
+    // with --instrument, add one to a counter named after point in two
+    // static words past the class's own statics, carrying into the high word
+    private void writeCounter(String point) {
+        if (!options.isInstrument())
+            return;
+
+        int low = getStaticCount();
+        String carryLabel = "PROFILE_" + counters.size();
+        counters.add(className + "." + subroutineName + " " + point);
+
+        writer.writePush(Segment.STATIC, low);
+        writer.writePush(Segment.CONST, 1);
+        writer.writeArithmetic(Command.ADD);
+        writer.writePop(Segment.STATIC, low);
+        writer.writePush(Segment.STATIC, low);
+        writer.writeIf(carryLabel);
+        writer.writePush(Segment.STATIC, low + 1);
+        writer.writePush(Segment.CONST, 1);
+        writer.writeArithmetic(Command.ADD);
+        writer.writePop(Segment.STATIC, low + 1);
+        writer.writeLabel(carryLabel);
+    }
+
+    // call the generated Profile.dump, leaving the stack as it was
+    private void writeProfileDump() {
+        if (!options.isInstrument())
+            return;
+
+        writer.writeCall(ProfileCounters.CLASS_NAME + "." + ProfileCounters.DUMP, 0);
+        writer.writePop(Segment.TEMP, 0);
+    }
+
+    // Class.profile:dump copies the counters to RAM from the address in
+    // its argument on and returns the address after them
+    private void compileCounterDump() {
+        int first = symbolTable.varCount(Kind.STATIC);
+
+        writer = new VMBuffer();
+        subroutines.add(writer);
+
+        writer.writeFunction(className + "." + ProfileCounters.CLASS_DUMP, 0);
+        for (int i = 0; i < counters.size(); i++) {
+            writer.writePush(Segment.ARG, 0);
+            writer.writePop(Segment.POINTER, 1);
+            writer.writePush(Segment.STATIC, first + 2 * i);
+            writer.writePop(Segment.THAT, 0);
+            writer.writePush(Segment.STATIC, first + 2 * i + 1);
+            writer.writePop(Segment.THAT, 1);
+            writer.writePush(Segment.ARG, 0);
+            writer.writePush(Segment.CONST, 2);
+            writer.writeArithmetic(Command.ADD);
+            writer.writePop(Segment.ARG, 0);
+        }
+        writer.writePush(Segment.ARG, 0);
+        writer.writeReturn();
     }
 
     private void compileExpression() {
+        startElement(NonTerminal.EXPRESSION);
+
         compileTerm();
         
         // op term
@@ -527,9 +955,13 @@ public class CompilationEngine {
                     break;
             }
         }
+
+        endElement(NonTerminal.EXPRESSION);
     }
 
     private void compileTerm() {
+        startElement(NonTerminal.TERM);
+
         switch (jackTokenizer.tokenType()) {
             case IDENTIFIER:
                 // compile identifier
@@ -545,15 +977,15 @@ public class CompilationEngine {
                         compileSymbol('[');
                         compileExpression();
                         compileSymbol(']');
-                        writer.writePush(symbolTable.kindOf(identifier), symbolTable.indexOf(identifier));
+                        pushVariable(resolveVariable(identifier));
                         writer.writeArithmetic(Command.ADD);
                         writer.writePop(Segment.POINTER, 1);
                         writer.writePush(Segment.THAT, 0);
                     } else {
-                        writer.writePush(symbolTable.kindOf(identifier), symbolTable.indexOf(identifier));
+                        pushVariable(resolveVariable(identifier));
                     }
                 } else {
-                    writer.writePush(symbolTable.kindOf(identifier), symbolTable.indexOf(identifier));
+                    pushVariable(resolveVariable(identifier));
                 }
                 break;
             case INT_CONST:
@@ -619,9 +1051,13 @@ public class CompilationEngine {
                 }
                 break;
         }
+
+        endElement(NonTerminal.TERM);
     }
 
     private int compileExpressionList() {
+        startElement(NonTerminal.EXPRESSION_LIST);
+
         int numExpressions = 0;
 
         if (currentTokenIsStartExpression()) {
@@ -639,16 +1075,82 @@ public class CompilationEngine {
             }
         }
 
+        endElement(NonTerminal.EXPRESSION_LIST);
+
         return numExpressions;
     }
 
+    // one symbol table lookup, timed as resolution when collecting stats
+    private int resolve(String name) {
+        if (stats == null)
+            return symbolTable.resolve(name);
+
+        long start = System.nanoTime();
+        int symbol = symbolTable.resolve(name);
+        stats.addLookup(System.nanoTime() - start);
+        return symbol;
+    }
+
+    // a name used as a variable must be declared
+    private int resolveVariable(String name) {
+        int symbol = resolve(name);
+
+        if (symbol == SymbolTable.NOT_FOUND)
+            throw new IllegalStateException("semantic error: " + name + " is not declared");
+
+        return symbol;
+    }
+
+    private void pushVariable(int symbol) {
+        writer.writePush(SymbolTable.getKind(symbol), SymbolTable.getIndex(symbol));
+    }
+
     private void advanceTokenizer() {
         if (!jackTokenizer.hasMoreTokens())
             throw new IllegalStateException("syntax error: expected additional tokens");
 
+        // every token is passed to the tree as it is consumed
+        if (tree != null)
+            writeToken();
+
+        // commands are charged to the line of the last token consumed
+        // before them, so a statement's code stays on its own line
+        if (writer != null && options.isSourceMap())
+            writer.setLine(jackTokenizer.getLine());
+
         jackTokenizer.advance();
     }
 
+    private void writeToken() {
+        switch (jackTokenizer.tokenType()) {
+            case KEYWORD:
+                tree.writeToken(TokenType.KEYWORD, jackTokenizer.keyWord());
+                break;
+            case SYMBOL:
+                tree.writeToken(TokenType.SYMBOL, jackTokenizer.symbol());
+                break;
+            case IDENTIFIER:
+                tree.writeToken(TokenType.IDENTIFIER, jackTokenizer.identifier());
+                break;
+            case INT_CONST:
+                tree.writeToken(TokenType.INT_CONST, jackTokenizer.intVal());
+                break;
+            case STRING_CONST:
+                tree.writeToken(TokenType.STRING_CONST, jackTokenizer.stringVal());
+                break;
+        }
+    }
+
+    private void startElement(NonTerminal element) {
+        if (tree != null)
+            tree.startElement(element);
+    }
+
+    private void endElement(NonTerminal element) {
+        if (tree != null)
+            tree.endElement(element);
+    }
+
     private boolean currentTokenIsStartExpression() {
         // check if current token is the start of an expression
         boolean isKeywordConstant = currentTokenKeywordConstant(), 
@@ -0,0 +1,309 @@
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Locale;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * Counts and phase times of compiling one class, collected for --stats and
+ * reported to Flight Recorder as jack.Compile and jack.Write events.
+ * Lexing and symbol lookups interleave with parsing, so their times are
+ * summed over every call and parsing is charged with the rest of the
+ * compile. Nothing is counted or timed unless the tokenizer, engine or
+ * writer is handed a CompileStats, which JackAnalyzer only does with
+ * --stats or while a recording has these events enabled.
+ */
+public class CompileStats {
+    public enum Phase {
+        READ, LEX, PARSE, RESOLVE, OPTIMIZE, WRITE;
+
+        public String getName() {
+            return name().toLowerCase();
+        }
+    }
+
+    private static final String[] OPCODES = {
+            "push", "pop", "arithmetic", "label", "goto", "if-goto", "call", "function", "return"};
+
+    private String source;
+    private int lines, tokens, lookups;
+    private long bytesWritten;
+    private long[] nanos = new long[Phase.values().length];
+    private int[] commands = new int[OPCODES.length];
+    private int[] arithmetic = new int[Command.values().length];
+
+    private CompileEvent compileEvent;
+    private WriteEvent writeEvent;
+    private long writeStart;
+
+    public CompileStats(String source) {
+        this.source = source;
+    }
+
+    // true while a Flight Recorder recording wants compile events; the first
+    // event created starts JFR up, which costs more than most builds
+    public static boolean isRecording() {
+        if (!FlightRecorder.isInitialized())
+            return false;
+
+        return new CompileEvent().isEnabled() || new WriteEvent().isEnabled();
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    public void addTime(Phase phase, long nanos) {
+        this.nanos[phase.ordinal()] += nanos;
+    }
+
+    public long getTime(Phase phase) {
+        return nanos[phase.ordinal()];
+    }
+
+    // nanoseconds charged to every phase so far
+    public long getTotalTime() {
+        long total = 0;
+        for (long phaseNanos : nanos)
+            total += phaseNanos;
+        return total;
+    }
+
+    public void addLine() {
+        lines++;
+    }
+
+    public void addToken(long nanos) {
+        tokens++;
+        addTime(Phase.LEX, nanos);
+    }
+
+    public void addLookup(long nanos) {
+        lookups++;
+        addTime(Phase.RESOLVE, nanos);
+    }
+
+    // count the commands of a finished subroutine by opcode
+    public void count(VMBuffer subroutine) {
+        for (int i = 0; i < subroutine.size(); i++) {
+            int kind = subroutine.getKind(i);
+            commands[kind]++;
+
+            if (kind == VMBuffer.ARITHMETIC)
+                arithmetic[subroutine.getCommand(i).ordinal()]++;
+        }
+    }
+
+    public void beginCompile() {
+        compileEvent = new CompileEvent();
+        compileEvent.begin();
+    }
+
+    public void endCompile() {
+        compileEvent.end();
+
+        if (compileEvent.shouldCommit()) {
+            compileEvent.source = source;
+            compileEvent.lines = lines;
+            compileEvent.tokens = tokens;
+            compileEvent.symbolLookups = lookups;
+            compileEvent.vmCommands = getCommandCount();
+            compileEvent.lexTime = getTime(Phase.LEX);
+            compileEvent.parseTime = getTime(Phase.PARSE);
+            compileEvent.resolveTime = getTime(Phase.RESOLVE);
+            compileEvent.optimizeTime = getTime(Phase.OPTIMIZE);
+            compileEvent.commit();
+        }
+
+        compileEvent = null;
+    }
+
+    public void beginWrite() {
+        writeEvent = new WriteEvent();
+        writeEvent.begin();
+        writeStart = System.nanoTime();
+    }
+
+    /**
+     * @param output file written, or null for a shared .asm file
+     * @param bytes size of what was written, 0 if unknown
+     */
+    public void endWrite(File output, long bytes) {
+        addTime(Phase.WRITE, System.nanoTime() - writeStart);
+        bytesWritten += bytes;
+        writeEvent.end();
+
+        if (writeEvent.shouldCommit()) {
+            writeEvent.source = source;
+            writeEvent.output = output == null ? "" : output.getPath();
+            writeEvent.bytes = bytes;
+            writeEvent.commit();
+        }
+
+        writeEvent = null;
+    }
+
+    private int getCommandCount() {
+        int count = 0;
+        for (int n : commands)
+            count += n;
+        return count;
+    }
+
+    // add the counts and times of other to these
+    public void add(CompileStats other) {
+        lines += other.lines;
+        tokens += other.tokens;
+        lookups += other.lookups;
+        bytesWritten += other.bytesWritten;
+
+        for (int i = 0; i < nanos.length; i++)
+            nanos[i] += other.nanos[i];
+        for (int i = 0; i < commands.length; i++)
+            commands[i] += other.commands[i];
+        for (int i = 0; i < arithmetic.length; i++)
+            arithmetic[i] += other.arithmetic[i];
+    }
+
+    /**
+     * write the statistics of a build as JSON
+     * @param classes one entry per compiled class, in report order
+     * @param buildNanos wall time of the whole build
+     * @param scanNanos time spent indexing declarations before compiling
+     */
+    public static void writeSummary(File file, Collection<CompileStats> classes,
+            long buildNanos, long scanNanos) {
+        CompileStats total = new CompileStats("total");
+        for (CompileStats stats : classes)
+            total.add(stats);
+
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(file))) {
+            writer.write("{\n");
+            writer.write("  \"buildMillis\": " + millis(buildNanos) + ",\n");
+            writer.write("  \"scanMillis\": " + millis(scanNanos) + ",\n");
+            writer.write("  \"files\": " + classes.size() + ",\n");
+            writer.write("  \"total\": " + total.toJson("  ") + ",\n");
+            writer.write("  \"classes\": [");
+
+            String separator = "\n    ";
+            for (CompileStats stats : classes) {
+                writer.write(separator + stats.toJson("    "));
+                separator = ",\n    ";
+            }
+
+            writer.write(classes.isEmpty() ? "]\n" : "\n  ]\n");
+            writer.write("}\n");
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot write to file \"" + file.getName() + "\"!");
+        }
+    }
+
+    private String toJson(String indent) {
+        StringBuilder json = new StringBuilder("{\n");
+        String inner = indent + "  ";
+
+        json.append(inner).append("\"source\": \"").append(escape(source)).append("\",\n");
+        json.append(inner).append("\"lines\": ").append(lines).append(",\n");
+        json.append(inner).append("\"tokens\": ").append(tokens).append(",\n");
+        json.append(inner).append("\"symbolLookups\": ").append(lookups).append(",\n");
+        json.append(inner).append("\"vmCommands\": ").append(getCommandCount()).append(",\n");
+        json.append(inner).append("\"bytesWritten\": ").append(bytesWritten).append(",\n");
+
+        json.append(inner).append("\"phaseMillis\": {");
+        for (Phase phase : Phase.values()) {
+            json.append(phase.ordinal() > 0 ? ", " : " ").append('"').append(phase.getName())
+                    .append("\": ").append(millis(getTime(phase)));
+        }
+        json.append(" },\n");
+
+        json.append(inner).append("\"commands\": {");
+        String separator = " ";
+        for (int i = 0; i < commands.length; i++) {
+            if (i == VMBuffer.ARITHMETIC) {
+                // arithmetic broken down by command
+                for (Command com : Command.values()) {
+                    json.append(separator).append('"').append(com.getMnemonic()).append("\": ")
+                            .append(arithmetic[com.ordinal()]);
+                    separator = ", ";
+                }
+                continue;
+            }
+            json.append(separator).append('"').append(OPCODES[i]).append("\": ").append(commands[i]);
+            separator = ", ";
+        }
+        json.append(" }\n");
+
+        return json.append(indent).append('}').toString();
+    }
+
+    private static String millis(long nanos) {
+        return String.format(Locale.ROOT, "%.3f", nanos / 1e6);
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+
+    @Name("jack.Compile")
+    @Label("Compile Class")
+    @Category({"Jack", "Compiler"})
+    @Description("Parsing and code generation of one class, with lexing and symbol lookups")
+    static class CompileEvent extends Event {
+        @Label("Source")
+        String source;
+
+        @Label("Lines")
+        int lines;
+
+        @Label("Tokens")
+        int tokens;
+
+        @Label("Symbol Lookups")
+        int symbolLookups;
+
+        @Label("VM Commands")
+        int vmCommands;
+
+        @Label("Lex Time")
+        @Timespan(Timespan.NANOSECONDS)
+        long lexTime;
+
+        @Label("Parse Time")
+        @Timespan(Timespan.NANOSECONDS)
+        long parseTime;
+
+        @Label("Resolve Time")
+        @Timespan(Timespan.NANOSECONDS)
+        long resolveTime;
+
+        @Label("Optimize Time")
+        @Timespan(Timespan.NANOSECONDS)
+        long optimizeTime;
+    }
+
+    @Name("jack.Write")
+    @Label("Write Output")
+    @Category({"Jack", "Compiler"})
+    @Description("Formatting and writing the VM code of one class")
+    static class WriteEvent extends Event {
+        @Label("Source")
+        String source;
+
+        @Label("Output")
+        String output;
+
+        @Label("Bytes")
+        @DataAmount
+        long bytes;
+    }
+}
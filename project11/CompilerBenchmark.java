@@ -0,0 +1,644 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Throughput benchmarks for each stage of the compiler, run over a
+ * directory of Jack sources held in memory:
+ *
+ *   tokenize     JackTokenizer alone, secondary metric tokens/s
+ *   analyzeXml   the project10 analyzer writing XML, given --project10
+ *   compileVm    parsing and code generation into a VMBuffer
+ *   symbolTable  SymbolTable define and lookup, secondary metric lookups/s
+ *   emitVm       VMWriter formatting into a discarding channel
+ *   endToEnd     a full JackAnalyzer build of a copy of the directory
+ *
+ * Like JMH, every benchmark runs in its own forked JVM by default, first
+ * for a number of warmup iterations and then for the measured ones, each a
+ * fixed amount of time. Scores are operations per second, one operation
+ * being a pass over every source, with a 99.9% confidence interval. Results
+ * can be written as JMH-compatible JSON for tracking over time.
+ */
+public class CompilerBenchmark {
+    public static void main(String[] args) {
+        CompilerBenchmark benchmark = new CompilerBenchmark();
+        int exitCode = benchmark.run(args);
+        System.exit(exitCode);
+    }
+
+    private static final List<String> BENCHMARKS = Arrays.asList(
+            "tokenize", "analyzeXml", "compileVm", "symbolTable", "emitVm", "endToEnd");
+
+    private static final String[] SECONDARY_UNITS = {
+            "tokens/s", "bytes/s", "commands/s", "lookups/s", "bytes/s", "files/s"};
+
+    // keeps results alive so the JIT cannot drop the measured work
+    private static volatile long sink;
+
+    private int warmupIterations = 5;
+    private int iterations = 10;
+    private long iterationMillis = 500;
+    private int forks = 1;
+    private File jsonFile;
+    private File project10Classes;
+    private String filter;
+    private String child;
+
+    private File directory;
+    private List<File> sourceFiles = new ArrayList<>();
+    private List<String> sources = new ArrayList<>();
+
+    // state prepared once per benchmark
+    private List<VMBuffer> compiled;
+    private String[] identifiers;
+    private File buildDirectory;
+    private Constructor<?> xmlTokenizer, xmlEngine;
+    private Method xmlCompileClass;
+    private File xmlOutput;
+
+    public int run(String[] args) {
+        try {
+            for (int i = 0; i < args.length; i++) {
+                if (args[i].equals("--warmup") && i + 1 < args.length) {
+                    warmupIterations = Integer.parseInt(args[++i]);
+                } else if (args[i].equals("--iterations") && i + 1 < args.length) {
+                    iterations = Integer.parseInt(args[++i]);
+                } else if (args[i].equals("--time") && i + 1 < args.length) {
+                    iterationMillis = Long.parseLong(args[++i]);
+                } else if (args[i].equals("--forks") && i + 1 < args.length) {
+                    forks = Integer.parseInt(args[++i]);
+                } else if (args[i].equals("--json") && i + 1 < args.length) {
+                    jsonFile = new File(args[++i]);
+                } else if (args[i].equals("--project10") && i + 1 < args.length) {
+                    project10Classes = new File(args[++i]);
+                } else if (args[i].equals("--filter") && i + 1 < args.length) {
+                    filter = args[++i];
+                } else if (args[i].equals("--run") && i + 1 < args.length) {
+                    child = args[++i];
+                } else if (directory == null && !args[i].startsWith("-")) {
+                    directory = new File(args[i]);
+                } else {
+                    printUsage();
+                    return -1;
+                }
+            }
+        } catch (NumberFormatException e) {
+            printUsage();
+            return -1;
+        }
+
+        if (directory == null || !directory.isDirectory() || iterations < 1 ||
+                warmupIterations < 0 || iterationMillis < 1 || forks < 0) {
+            printUsage();
+            return -1;
+        }
+
+        try {
+            loadSources();
+
+            if (child != null) {
+                // forked JVM, report every iteration to the parent
+                measure(child, System.out);
+                return 0;
+            }
+
+            List<Result> results = new ArrayList<>();
+            for (String name : BENCHMARKS) {
+                if (filter != null && !name.contains(filter))
+                    continue;
+                if (name.equals("analyzeXml") && project10Classes == null) {
+                    System.out.println("# " + name + " skipped, needs --project10 <classes>");
+                    continue;
+                }
+
+                results.add(runBenchmark(name));
+            }
+
+            printSummary(results);
+            if (jsonFile != null)
+                writeJson(results);
+        } catch (IOException | IllegalArgumentException | IllegalStateException e) {
+            System.err.println(e.getMessage());
+            return -1;
+        }
+
+        return 0;
+    }
+
+    private void loadSources() throws IOException {
+        File[] files = directory.listFiles();
+        Arrays.sort(files);
+
+        for (File f : files) {
+            if (f.isFile() && f.getName().toLowerCase().endsWith(".jack")) {
+                sourceFiles.add(f);
+                sources.add(new String(Files.readAllBytes(f.toPath()), Charset.defaultCharset()));
+            }
+        }
+
+        if (sources.isEmpty())
+            throw new IllegalArgumentException("No .jack files in \"" + directory.getName() + "\"!");
+    }
+
+    // run every fork of one benchmark and collect its measured iterations
+    private Result runBenchmark(String name) throws IOException {
+        Result result = new Result(name);
+        System.out.println("# Benchmark: " + name);
+
+        if (forks == 0) {
+            result.add(parseIterations(name, measureInProcess(name)));
+            return result;
+        }
+
+        for (int fork = 1; fork <= forks; fork++) {
+            System.out.println("# Fork: " + fork + " of " + forks);
+
+            List<String> command = new ArrayList<>(Arrays.asList(
+                    new File(System.getProperty("java.home"), "bin/java").getPath(),
+                    "-cp", System.getProperty("java.class.path"),
+                    "CompilerBenchmark", "--run", name,
+                    "--warmup", String.valueOf(warmupIterations),
+                    "--iterations", String.valueOf(iterations),
+                    "--time", String.valueOf(iterationMillis)));
+            if (project10Classes != null) {
+                command.add("--project10");
+                command.add(project10Classes.getPath());
+            }
+            command.add(directory.getPath());
+
+            Process process = new ProcessBuilder(command)
+                    .redirectError(ProcessBuilder.Redirect.INHERIT).start();
+
+            List<String> lines = new ArrayList<>();
+            try (BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(process.getInputStream()))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    System.out.println(line);
+                    lines.add(line);
+                }
+            }
+
+            try {
+                if (process.waitFor() != 0)
+                    throw new IllegalStateException("Benchmark " + name + " failed in fork " + fork + "!");
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while running " + name + "!");
+            }
+
+            result.add(parseIterations(name, lines));
+        }
+
+        return result;
+    }
+
+    private List<String> measureInProcess(String name) {
+        List<String> lines = new ArrayList<>();
+
+        measure(name, new PrintStream(new OutputStream() {
+            private StringBuilder line = new StringBuilder();
+
+            @Override
+            public void write(int b) {
+                if (b != '\n') {
+                    line.append((char) b);
+                    return;
+                }
+                System.out.println(line);
+                lines.add(line.toString());
+                line.setLength(0);
+            }
+        }, true));
+
+        return lines;
+    }
+
+    // measured iterations as {ops/s, secondary units/s}
+    private List<double[]> parseIterations(String name, List<String> lines) {
+        List<double[]> measured = new ArrayList<>();
+
+        for (String line : lines) {
+            String[] parts = line.trim().split("\\s+");
+            if (parts.length == 4 && parts[0].equals("Iteration")) {
+                measured.add(new double[] {Double.parseDouble(parts[2]),
+                        Double.parseDouble(parts[3])});
+            }
+        }
+
+        if (measured.size() != iterations)
+            throw new IllegalStateException("Benchmark " + name + " reported no results!");
+
+        return measured;
+    }
+
+    // the body of a fork: set up, warm up, then measure
+    private void measure(String name, PrintStream out) {
+        int benchmark = BENCHMARKS.indexOf(name);
+        if (benchmark < 0)
+            throw new IllegalArgumentException("Unknown benchmark \"" + name + "\"!");
+
+        setUp(benchmark);
+
+        for (int i = 1; i <= warmupIterations; i++) {
+            double[] score = iteration(benchmark);
+            out.println(String.format(Locale.ROOT, "Warmup %d %.3f %.3f", i, score[0], score[1]));
+        }
+        for (int i = 1; i <= iterations; i++) {
+            double[] score = iteration(benchmark);
+            out.println(String.format(Locale.ROOT, "Iteration %d %.3f %.3f", i, score[0], score[1]));
+        }
+    }
+
+    // repeat the operation for iterationMillis, return {ops/s, units/s}
+    private double[] iteration(int benchmark) {
+        long ops = 0, units = 0;
+        long start = System.nanoTime();
+        long end = start + iterationMillis * 1_000_000L;
+        long now;
+
+        do {
+            units += operation(benchmark);
+            ops++;
+            now = System.nanoTime();
+        } while (now < end);
+
+        double seconds = (now - start) / 1e9;
+        sink += units;
+        return new double[] {ops / seconds, units / seconds};
+    }
+
+    private void setUp(int benchmark) {
+        switch (BENCHMARKS.get(benchmark)) {
+            case "analyzeXml":
+                setUpProject10();
+                break;
+            case "symbolTable":
+                setUpIdentifiers();
+                break;
+            case "emitVm":
+                compiled = new ArrayList<>();
+                for (String source : sources)
+                    compiled.add(compile(source));
+                break;
+            case "endToEnd":
+                setUpBuildDirectory();
+                break;
+        }
+    }
+
+    // one pass over every source, returns the secondary work count
+    private long operation(int benchmark) {
+        switch (BENCHMARKS.get(benchmark)) {
+            case "tokenize":
+                return tokenize();
+            case "analyzeXml":
+                return analyzeXml();
+            case "compileVm":
+                long commands = 0;
+                for (String source : sources)
+                    commands += compile(source).size();
+                return commands;
+            case "symbolTable":
+                return lookUpSymbols();
+            case "emitVm":
+                return emit();
+            default:
+                return buildDirectory();
+        }
+    }
+
+    private long tokenize() {
+        long tokens = 0, check = 0;
+
+        for (String source : sources) {
+            JackTokenizer tokenizer = new JackTokenizer(source);
+            while (tokenizer.hasMoreTokens()) {
+                tokenizer.advance();
+                check += tokenizer.tokenType().ordinal();
+                tokens++;
+            }
+        }
+
+        sink += check;
+        return tokens;
+    }
+
+    private VMBuffer compile(String source) {
+        VMBuffer commands = new VMBuffer();
+        new CompilationEngine(new JackTokenizer(source), commands).compileClass();
+        return commands;
+    }
+
+    // every identifier of the sources in order, the lookups a compiler would make
+    private void setUpIdentifiers() {
+        List<String> names = new ArrayList<>();
+
+        for (String source : sources) {
+            JackTokenizer tokenizer = new JackTokenizer(source);
+            while (tokenizer.hasMoreTokens()) {
+                tokenizer.advance();
+                if (tokenizer.tokenType() == TokenType.IDENTIFIER)
+                    names.add(tokenizer.identifier());
+            }
+        }
+
+        identifiers = names.toArray(new String[0]);
+    }
+
+    // class level names first, then a fresh subroutine scope every 64 lookups
+    private long lookUpSymbols() {
+        String[] distinct = new LinkedHashSet<>(Arrays.asList(identifiers)).toArray(new String[0]);
+        SymbolTable symbolTable = new SymbolTable();
+        int classNames = Math.min(16, distinct.length);
+        long check = 0;
+
+        for (int i = 0; i < classNames; i++)
+            symbolTable.define(distinct[i], "int", i % 2 == 0 ? Kind.FIELD : Kind.STATIC);
+
+        int next = classNames;
+        for (int i = 0; i < identifiers.length; i++) {
+            if (i % 64 == 0) {
+                symbolTable.startSubroutine();
+                for (int j = 0; j < 6; j++) {
+                    symbolTable.define(distinct[next], "int", j < 2 ? Kind.ARG : Kind.VAR);
+                    next = next + 1 < distinct.length ? next + 1 : classNames;
+                }
+            }
+
+            int symbol = symbolTable.resolve(identifiers[i]);
+            if (symbol != SymbolTable.NOT_FOUND)
+                check += SymbolTable.getKind(symbol).ordinal() + SymbolTable.getIndex(symbol);
+        }
+
+        sink += check;
+        return identifiers.length;
+    }
+
+    private long emit() {
+        CountingChannel channel = new CountingChannel();
+        VMWriter writer = new VMWriter(channel, "benchmark");
+
+        for (VMBuffer commands : compiled)
+            commands.replay(writer);
+        writer.close();
+
+        return channel.bytes;
+    }
+
+    private void setUpBuildDirectory() {
+        try {
+            buildDirectory = Files.createTempDirectory("jackbench").toFile();
+            buildDirectory.deleteOnExit();
+
+            for (File f : sourceFiles) {
+                File copy = new File(buildDirectory, f.getName());
+                Files.copy(f.toPath(), copy.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                copy.deleteOnExit();
+                new File(buildDirectory, f.getName().replace(".jack", ".vm")).deleteOnExit();
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot create a build directory!");
+        }
+    }
+
+    private long buildDirectory() {
+        PrintStream discard = new PrintStream(OutputStream.nullOutputStream());
+        String[] args = {"--no-cache", "-j", "1", buildDirectory.getPath()};
+
+        if (new JackAnalyzer(null, discard, discard).run(args) != 0)
+            throw new IllegalStateException("Benchmark build failed!");
+
+        return sourceFiles.size();
+    }
+
+    // the project10 classes share names with these, so they get their own loader
+    private void setUpProject10() {
+        try {
+            URLClassLoader loader = new URLClassLoader(
+                    new URL[] {project10Classes.toURI().toURL()}, null);
+            Class<?> tokenizer = loader.loadClass("JackTokenizer");
+            Class<?> engine = loader.loadClass("CompilationEngine");
+
+            xmlTokenizer = tokenizer.getConstructor(File.class);
+            xmlEngine = engine.getConstructor(tokenizer, File.class);
+            xmlCompileClass = engine.getMethod("compileClass");
+
+            File devNull = new File("/dev/null");
+            if (devNull.exists()) {
+                xmlOutput = devNull;
+            } else {
+                xmlOutput = File.createTempFile("jackbench", ".xml");
+                xmlOutput.deleteOnExit();
+            }
+        } catch (IOException | ReflectiveOperationException e) {
+            throw new IllegalArgumentException("Cannot load the project10 analyzer from \"" +
+                    project10Classes.getPath() + "\"!");
+        }
+    }
+
+    private long analyzeXml() {
+        long bytes = 0;
+
+        try {
+            for (int i = 0; i < sourceFiles.size(); i++) {
+                Object tokenizer = xmlTokenizer.newInstance(sourceFiles.get(i));
+                xmlCompileClass.invoke(xmlEngine.newInstance(tokenizer, xmlOutput));
+                bytes += sources.get(i).length();
+            }
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("project10 analyzer failed: " + e.getCause());
+        }
+
+        return bytes;
+    }
+
+    private void printSummary(List<Result> results) {
+        System.out.println();
+        System.out.println(String.format(Locale.ROOT, "%-12s %5s %4s %14s   %12s  %-6s %16s",
+                "Benchmark", "Mode", "Cnt", "Score", "Error", "Units", "Secondary"));
+
+        for (Result result : results) {
+            double[] primary = result.statistics(0), secondary = result.statistics(1);
+            System.out.println(String.format(Locale.ROOT,
+                    "%-12s %5s %4d %14.3f +- %12.3f  %-6s %16.0f %s",
+                    result.name, "thrpt", result.size(), primary[0], primary[1], "ops/s",
+                    secondary[0], SECONDARY_UNITS[BENCHMARKS.indexOf(result.name)]));
+        }
+    }
+
+    // the layout of JMH's -rf json, so the same tools can read it
+    private void writeJson(List<Result> results) {
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(jsonFile))) {
+            writer.write("[\n");
+
+            for (int r = 0; r < results.size(); r++) {
+                Result result = results.get(r);
+                double[] primary = result.statistics(0), secondary = result.statistics(1);
+
+                writer.write("    {\n");
+                writer.write("        \"jmhVersion\" : \"compatible\",\n");
+                writer.write("        \"benchmark\" : \"CompilerBenchmark." + result.name + "\",\n");
+                writer.write("        \"mode\" : \"thrpt\",\n");
+                writer.write("        \"threads\" : 1,\n");
+                writer.write("        \"forks\" : " + forks + ",\n");
+                writer.write("        \"jvm\" : \"" + escape(System.getProperty("java.home")) + "\",\n");
+                writer.write("        \"jdkVersion\" : \"" + System.getProperty("java.version") + "\",\n");
+                writer.write("        \"vmName\" : \"" + System.getProperty("java.vm.name") + "\",\n");
+                writer.write("        \"vmVersion\" : \"" + System.getProperty("java.vm.version") + "\",\n");
+                writer.write("        \"warmupIterations\" : " + warmupIterations + ",\n");
+                writer.write("        \"warmupTime\" : \"" + iterationMillis + " ms\",\n");
+                writer.write("        \"measurementIterations\" : " + iterations + ",\n");
+                writer.write("        \"measurementTime\" : \"" + iterationMillis + " ms\",\n");
+                writer.write("        \"params\" : {\n");
+                writer.write("            \"sources\" : \"" + escape(directory.getPath()) + "\"\n");
+                writer.write("        },\n");
+                writer.write("        \"primaryMetric\" : " +
+                        metric(primary, "ops/s", result.rawData(0)) + ",\n");
+                writer.write("        \"secondaryMetrics\" : {\n");
+                writer.write("            \"" + SECONDARY_UNITS[BENCHMARKS.indexOf(result.name)]
+                        .replace("/s", "") + "\" : " +
+                        metric(secondary, SECONDARY_UNITS[BENCHMARKS.indexOf(result.name)],
+                                result.rawData(1)) + "\n");
+                writer.write("        }\n");
+                writer.write(r + 1 < results.size() ? "    },\n" : "    }\n");
+            }
+
+            writer.write("]\n");
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot write to file \"" + jsonFile.getName() + "\"!");
+        }
+
+        System.out.println("Results written to " + jsonFile.getPath());
+    }
+
+    private String metric(double[] statistics, String unit, String rawData) {
+        return String.format(Locale.ROOT, "{ \"score\" : %.6f, \"scoreError\" : %.6f, " +
+                "\"scoreConfidence\" : [ %.6f, %.6f ], \"scoreUnit\" : \"%s\", \"rawData\" : %s }",
+                statistics[0], statistics[1], statistics[0] - statistics[1],
+                statistics[0] + statistics[1], unit, rawData);
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+
+    private void printUsage() {
+        System.err.println("Usage:\n" +
+                           "  java CompilerBenchmark [options] <directory of .jack files>\n" +
+                           "    --warmup <n>           warmup iterations per fork, default 5\n" +
+                           "    --iterations <n>       measured iterations per fork, default 10\n" +
+                           "    --time <ms>            length of every iteration, default 500\n" +
+                           "    --forks <n>            JVMs per benchmark, 0 runs in this one, default 1\n" +
+                           "    --filter <text>        only benchmarks whose name contains text\n" +
+                           "    --project10 <classes>  compiled project10 classes for analyzeXml\n" +
+                           "    --json <file>          write results in JMH's JSON format");
+    }
+
+    // measured iterations of every fork of one benchmark
+    private static class Result {
+        private String name;
+        private List<List<double[]>> forkIterations = new ArrayList<>();
+
+        Result(String name) {
+            this.name = name;
+        }
+
+        void add(List<double[]> iterations) {
+            forkIterations.add(iterations);
+        }
+
+        int size() {
+            int size = 0;
+            for (List<double[]> iterations : forkIterations)
+                size += iterations.size();
+            return size;
+        }
+
+        // mean and half width of the 99.9% confidence interval of metric
+        double[] statistics(int metric) {
+            int n = size();
+            double sum = 0, squares = 0;
+
+            for (List<double[]> iterations : forkIterations) {
+                for (double[] score : iterations)
+                    sum += score[metric];
+            }
+            double mean = sum / n;
+
+            for (List<double[]> iterations : forkIterations) {
+                for (double[] score : iterations)
+                    squares += (score[metric] - mean) * (score[metric] - mean);
+            }
+
+            if (n < 2)
+                return new double[] {mean, Double.NaN};
+
+            double deviation = Math.sqrt(squares / (n - 1));
+            return new double[] {mean, studentT(n - 1) * deviation / Math.sqrt(n)};
+        }
+
+        String rawData(int metric) {
+            StringBuilder raw = new StringBuilder("[ ");
+
+            for (int f = 0; f < forkIterations.size(); f++) {
+                raw.append(f > 0 ? ", [ " : "[ ");
+                List<double[]> iterations = forkIterations.get(f);
+                for (int i = 0; i < iterations.size(); i++) {
+                    raw.append(i > 0 ? ", " : "")
+                            .append(String.format(Locale.ROOT, "%.6f", iterations.get(i)[metric]));
+                }
+                raw.append(" ]");
+            }
+
+            return raw.append(" ]").toString();
+        }
+
+        // two-sided 99.9% quantile of Student's t by the Cornish-Fisher expansion
+        private static double studentT(int df) {
+            double z = 3.2905267, v = df;
+            double z3 = z * z * z, z5 = z3 * z * z, z7 = z5 * z * z;
+
+            return z + (z3 + z) / (4 * v) + (5 * z5 + 16 * z3 + 3 * z) / (96 * v * v) +
+                    (3 * z7 + 19 * z5 + 17 * z3 - 15 * z) / (384 * v * v * v);
+        }
+    }
+
+    // counts and drops everything written to it
+    private static class CountingChannel implements WritableByteChannel {
+        private long bytes;
+
+        public int write(ByteBuffer source) {
+            int length = source.remaining();
+            source.position(source.limit());
+            bytes += length;
+            return length;
+        }
+
+        public boolean isOpen() {
+            return true;
+        }
+
+        public void close() {
+        }
+    }
+}
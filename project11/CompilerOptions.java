@@ -0,0 +1,88 @@
+import java.io.File;
+
+// settings shared by every CompilationEngine in one build
+public class CompilerOptions {
+    private ExecutionProfile profile;
+    private String profileHash;
+    private boolean binary;
+    private boolean sourceMap;
+    private boolean instrument;
+    private boolean intrinsics = true;
+    private boolean propagation = true;
+    private ClassIndex classIndex;
+
+    // execution profile used to lay out branches and inline hot calls
+    public void setProfile(File file) {
+        profile = ExecutionProfile.load(file);
+        profileHash = BuildCache.hash(file);
+    }
+
+    public ExecutionProfile getProfile() {
+        return profile;
+    }
+
+    // write .vmb files with VMBinaryWriter instead of .vm text
+    public void setBinary(boolean binary) {
+        this.binary = binary;
+    }
+
+    public boolean isBinary() {
+        return binary;
+    }
+
+    // write an X.map file mapping each VM command back to its Jack line
+    public void setSourceMap(boolean sourceMap) {
+        this.sourceMap = sourceMap;
+    }
+
+    public boolean isSourceMap() {
+        return sourceMap;
+    }
+
+    // count subroutine entries, loop iterations and if branches in static
+    // words the generated Profile.dump writes out, see ProfileCounters
+    public void setInstrument(boolean instrument) {
+        this.instrument = instrument;
+    }
+
+    public boolean isInstrument() {
+        return instrument;
+    }
+
+    // write OS calls like Memory.peek as inline VM code, see Intrinsics
+    public void setIntrinsics(boolean intrinsics) {
+        this.intrinsics = intrinsics;
+    }
+
+    public boolean isIntrinsics() {
+        return intrinsics;
+    }
+
+    // substitute and fold constants and copies of variables within each
+    // subroutine, see ConstantPropagation
+    public void setPropagation(boolean propagation) {
+        this.propagation = propagation;
+    }
+
+    public boolean isPropagation() {
+        return propagation;
+    }
+
+    // signatures of the other classes in the build, null to skip call checks
+    public void setClassIndex(ClassIndex classIndex) {
+        this.classIndex = classIndex;
+    }
+
+    public ClassIndex getClassIndex() {
+        return classIndex;
+    }
+
+    // names the profile by content so BuildCache notices when it changes
+    @Override
+    public String toString() {
+        return "profile=" + (profileHash == null ? "none" : profileHash) +
+                " binary=" + binary + " sourceMap=" + sourceMap +
+                " instrument=" + instrument + " intrinsics=" + intrinsics +
+                " propagation=" + propagation;
+    }
+}
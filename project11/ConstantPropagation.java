@@ -0,0 +1,429 @@
+import java.util.Arrays;
+
+/**
+ * Follows which locals and arguments of a subroutine hold a known constant
+ * or a copy of another one, across statements and through the joins of if
+ * and while, and writes the constant or the original variable where they
+ * are read. Arithmetic on constants is folded, as are Math.multiply and
+ * Math.divide when the OS provides them, and if-goto on a constant becomes
+ * a goto or nothing, so let n = 16; ... let m = n * 4; leaves push constant
+ * 64 behind.
+ *
+ * The pass works on the VM code of one subroutine. Its basic blocks run
+ * from label to jump; the state on entry to each is the meet of the states
+ * its predecessors leave, found by running the blocks until nothing
+ * changes, and a second run writes the code. Locals start as 0, which the
+ * function command guarantees. Calls and writes through this and that do
+ * not reach the caller's frame, so only pops to local and argument change
+ * what is known.
+ */
+public class ConstantPropagation {
+    // a state is a 16-bit constant, COPY + variable for the current value
+    // of another variable, or UNKNOWN; variables number the locals first
+    // and then the arguments
+    private static final int UNKNOWN = -1;
+    private static final int COPY = 0x10000;
+
+    private boolean foldMath;
+    private VMBuffer code;
+    private int locals, variables;
+
+    // first command of each block, the end of the last one after them, and
+    // the block its last command jumps to or -1
+    private int[] blockStarts = new int[16];
+    private int[] targets = new int[16];
+    private int blocks;
+
+    // variables words per block, valid once the block is reached
+    private int[] entries = new int[0];
+    private boolean[] reached = new boolean[0];
+    private int[] state = new int[0];
+
+    // operand stack of the block being run: state of each value, and the
+    // output commands that computed it if they may be replaced, else -1
+    private int[] values = new int[8];
+    private int[] starts = new int[8];
+    private int[] ends = new int[8];
+    private int depth;
+
+    /**
+     * @param foldMath whether calls to Math.multiply and Math.divide reach
+     *        the OS and may be computed at compile time
+     */
+    public ConstantPropagation(boolean foldMath) {
+        this.foldMath = foldMath;
+    }
+
+    // rewrite a subroutine, which starts with its function command, in place
+    public void optimize(VMBuffer subroutine) {
+        code = subroutine;
+        if (code.size() == 0 || code.getKind(0) != VMBuffer.FUNCTION)
+            return;
+
+        locals = code.getIndex(0);
+        variables = locals;
+        for (int i = 0; i < code.size(); i++) {
+            if (code.isAccess(i, Segment.ARG))
+                variables = Math.max(variables, locals + code.getIndex(i) + 1);
+        }
+        if (state.length < variables)
+            state = new int[variables];
+
+        findBlocks();
+        analyze();
+
+        // the new code never gets ahead of the old, so it is written over
+        // the commands already read
+        code.truncate(0);
+
+        for (int block = 0; block < blocks; block++) {
+            if (reached[block])
+                System.arraycopy(entries, block * variables, state, 0, variables);
+            else
+                Arrays.fill(state, 0, variables, UNKNOWN);
+
+            run(block, code);
+        }
+    }
+
+    // a block starts at every label and after every jump and return
+    private void findBlocks() {
+        blocks = 0;
+
+        for (int i = 0; i < code.size(); i++) {
+            int previous = i > 0 ? code.getKind(i - 1) : VMBuffer.RETURN;
+            boolean start = code.getKind(i) == VMBuffer.LABEL || previous == VMBuffer.GOTO ||
+                    previous == VMBuffer.IF_GOTO || previous == VMBuffer.RETURN;
+
+            if (start && (blocks == 0 || blockStarts[blocks - 1] != i))
+                addBlockStart(i);
+        }
+
+        addBlockStart(code.size());
+        blocks--;
+
+        // every label starts a block, so jumps find theirs among the starts
+        for (int block = 0; block < blocks; block++) {
+            int last = blockStarts[block + 1] - 1;
+            targets[block] = -1;
+
+            if (code.getKind(last) != VMBuffer.GOTO && code.getKind(last) != VMBuffer.IF_GOTO)
+                continue;
+
+            for (int target = 0; target < blocks; target++) {
+                int first = blockStarts[target];
+                if (code.getKind(first) == VMBuffer.LABEL &&
+                        code.getName(first).equals(code.getName(last))) {
+                    targets[block] = target;
+                    break;
+                }
+            }
+        }
+    }
+
+    private void addBlockStart(int i) {
+        if (blocks == blockStarts.length) {
+            blockStarts = Arrays.copyOf(blockStarts, blocks * 2);
+            targets = Arrays.copyOf(targets, blocks * 2);
+        }
+        blockStarts[blocks++] = i;
+    }
+
+    // state on entry to every block, iterated until no block learns more
+    private void analyze() {
+        if (entries.length < blocks * variables)
+            entries = new int[blocks * variables];
+        if (reached.length < blocks)
+            reached = new boolean[blocks];
+        Arrays.fill(reached, false);
+
+        // locals are zeroed by the function command, arguments could be anything
+        for (int v = 0; v < variables; v++)
+            entries[v] = v < locals ? 0 : UNKNOWN;
+        reached[0] = true;
+
+        boolean again = true;
+        while (again) {
+            again = false;
+
+            for (int block = 0; block < blocks; block++) {
+                if (!reached[block])
+                    continue;
+
+                System.arraycopy(entries, block * variables, state, 0, variables);
+                run(block, null);
+
+                int last = blockStarts[block + 1] - 1;
+                int kind = code.getKind(last);
+
+                if (targets[block] >= 0)
+                    again |= merge(targets[block]);
+                if (kind != VMBuffer.GOTO && kind != VMBuffer.RETURN && block + 1 < blocks)
+                    again |= merge(block + 1);
+            }
+        }
+    }
+
+    // meet the current state into the entry of a block, true if it changed
+    private boolean merge(int block) {
+        int base = block * variables;
+
+        if (!reached[block]) {
+            System.arraycopy(state, 0, entries, base, variables);
+            reached[block] = true;
+            return true;
+        }
+
+        boolean grew = false;
+        for (int v = 0; v < variables; v++) {
+            if (entries[base + v] != state[v] && entries[base + v] != UNKNOWN) {
+                entries[base + v] = UNKNOWN;
+                grew = true;
+            }
+        }
+        return grew;
+    }
+
+    // the effect of a block on state, writing its new code if out is not null
+    private void run(int block, VMBuffer out) {
+        depth = 0;
+
+        for (int i = blockStarts[block]; i < blockStarts[block + 1]; i++) {
+            if (out != null)
+                out.setLine(code.getLine(i));
+
+            switch (code.getKind(i)) {
+                case VMBuffer.PUSH:
+                    push(i, out);
+                    break;
+                case VMBuffer.POP:
+                    pop(i, out);
+                    break;
+                case VMBuffer.ARITHMETIC:
+                    Command command = code.getCommand(i);
+                    int n = command == Command.NEG || command == Command.NOT ? 1 : 2;
+                    int k = take(n);
+                    int result = UNKNOWN;
+
+                    if (isConstant(values[k]) && (n == 1 || isConstant(values[k + 1])))
+                        result = fold(command, (short) values[k], (short) values[k + n - 1]);
+
+                    writeResult(i, k, n, result, out);
+                    break;
+                case VMBuffer.CALL:
+                    call(i, out);
+                    break;
+                case VMBuffer.IF_GOTO:
+                    k = take(1);
+
+                    // a constant condition either always or never jumps
+                    if (isConstant(values[k]) && isReplaceable(k, 1, out)) {
+                        out.truncate(starts[k]);
+                        if (values[k] != 0)
+                            out.writeGoto(code.getName(i));
+                    } else if (out != null) {
+                        code.replay(i, out);
+                    }
+                    break;
+                case VMBuffer.RETURN:
+                    take(1);
+                    if (out != null)
+                        code.replay(i, out);
+                    break;
+                default:
+                    if (out != null)
+                        code.replay(i, out);
+                    break;
+            }
+        }
+    }
+
+    private void push(int i, VMBuffer out) {
+        int start = out != null ? out.size() : -1;
+        int variable = variable(i);
+
+        if (code.getSegment(i) == Segment.CONST) {
+            if (out != null)
+                code.replay(i, out);
+            pushValue(code.getIndex(i) & 0xFFFF, start, out);
+        } else if (variable >= 0 && isConstant(state[variable]) &&
+                (out == null || (short) state[variable] >= 0 || out.size() < i)) {
+            // a negative constant takes two commands, which only fit once
+            // the code has shrunk
+            if (out != null)
+                writeConstant((short) state[variable], out);
+            pushValue(state[variable], start, out);
+        } else if (variable >= 0 && state[variable] >= COPY) {
+            if (out != null)
+                writeVariable(state[variable] - COPY, out);
+            pushValue(state[variable], -1, out);
+        } else if (variable >= 0 && isConstant(state[variable])) {
+            code.replay(i, out);
+            pushValue(state[variable], -1, out);
+        } else {
+            if (out != null)
+                code.replay(i, out);
+            pushValue(variable >= 0 ? COPY + variable : UNKNOWN, -1, out);
+        }
+    }
+
+    private void pop(int i, VMBuffer out) {
+        int value = values[take(1)];
+        int variable = variable(i);
+
+        if (out != null)
+            code.replay(i, out);
+
+        // let x = x changes nothing
+        if (variable < 0 || value == COPY + variable)
+            return;
+
+        // copies of the old value are copies no more
+        for (int v = 0; v < variables; v++) {
+            if (state[v] == COPY + variable)
+                state[v] = UNKNOWN;
+        }
+        for (int k = 0; k < depth; k++) {
+            if (values[k] == COPY + variable)
+                values[k] = UNKNOWN;
+        }
+
+        state[variable] = value;
+    }
+
+    private void call(int i, VMBuffer out) {
+        int n = code.getIndex(i);
+        int k = take(n);
+        int result = UNKNOWN;
+
+        if (foldMath && n == 2 && isConstant(values[k]) && isConstant(values[k + 1])) {
+            short x = (short) values[k], y = (short) values[k + 1];
+
+            if (code.getName(i).equals("Math.multiply")) {
+                // the OS product wraps like this one
+                result = x * y & 0xFFFF;
+            } else if (code.getName(i).equals("Math.divide") && y != 0 &&
+                    x != Short.MIN_VALUE && y != Short.MIN_VALUE) {
+                // the OS divides magnitudes, rounding towards zero like Java
+                result = x / y & 0xFFFF;
+            }
+        }
+
+        writeResult(i, k, n, result, out);
+    }
+
+    // push the result of command i on operands k on, replacing the command
+    // and the operands with the constant if all of them can go
+    private void writeResult(int i, int k, int n, int result, VMBuffer out) {
+        if (isConstant(result) && isReplaceable(k, n, out)) {
+            out.truncate(starts[k]);
+            int start = out.size();
+            writeConstant((short) result, out);
+            pushValue(result, start, out);
+            return;
+        }
+
+        if (out != null)
+            code.replay(i, out);
+        pushValue(result, -1, out);
+    }
+
+    // whether the code of operands k to k + n - 1 is all that was written
+    // since the first of them, and nothing else depends on it
+    private boolean isReplaceable(int k, int n, VMBuffer out) {
+        if (out == null)
+            return false;
+
+        for (int j = k; j < k + n; j++) {
+            if (starts[j] < 0 || (j > k && starts[j] != ends[j - 1]))
+                return false;
+        }
+        return n == 0 || ends[k + n - 1] == out.size();
+    }
+
+    // ADD through NOT on 16-bit values, the true of comparisons is -1
+    private static int fold(Command command, short x, short y) {
+        int result;
+
+        switch (command) {
+            case ADD: result = x + y; break;
+            case SUB: result = x - y; break;
+            case NEG: result = -x; break;
+            case EQ: result = x == y ? -1 : 0; break;
+            case GT: result = x > y ? -1 : 0; break;
+            case LT: result = x < y ? -1 : 0; break;
+            case AND: result = x & y; break;
+            case OR: result = x | y; break;
+            default: result = ~x; break;
+        }
+
+        return result & 0xFFFF;
+    }
+
+    // push constant only takes 0 to 32767
+    private static void writeConstant(short value, VMBuffer out) {
+        if (value >= 0) {
+            out.writePush(Segment.CONST, value);
+        } else if (value == Short.MIN_VALUE) {
+            out.writePush(Segment.CONST, Short.MAX_VALUE);
+            out.writeArithmetic(Command.NOT);
+        } else {
+            out.writePush(Segment.CONST, -value);
+            out.writeArithmetic(Command.NEG);
+        }
+    }
+
+    private void writeVariable(int variable, VMBuffer out) {
+        if (variable < locals)
+            out.writePush(Segment.LOCAL, variable);
+        else
+            out.writePush(Segment.ARG, variable - locals);
+    }
+
+    // variable number of a local or argument access, otherwise -1
+    private int variable(int i) {
+        if (code.isAccess(i, Segment.LOCAL))
+            return code.getIndex(i);
+        if (code.isAccess(i, Segment.ARG))
+            return locals + code.getIndex(i);
+        return -1;
+    }
+
+    private static boolean isConstant(int value) {
+        return value >= 0 && value < COPY;
+    }
+
+    // remove the top n values and return where they start; values pushed
+    // before the block began are unknown and stay where they are
+    private int take(int n) {
+        if (depth < n) {
+            int missing = n - depth;
+            ensureStack(n);
+            System.arraycopy(values, 0, values, missing, depth);
+            System.arraycopy(starts, 0, starts, missing, depth);
+            System.arraycopy(ends, 0, ends, missing, depth);
+            Arrays.fill(values, 0, missing, UNKNOWN);
+            Arrays.fill(starts, 0, missing, -1);
+            depth = n;
+        }
+
+        depth -= n;
+        return depth;
+    }
+
+    private void pushValue(int value, int start, VMBuffer out) {
+        ensureStack(depth + 1);
+        values[depth] = value;
+        starts[depth] = start;
+        ends[depth] = out != null ? out.size() : -1;
+        depth++;
+    }
+
+    private void ensureStack(int size) {
+        if (size > values.length) {
+            values = Arrays.copyOf(values, size * 2);
+            starts = Arrays.copyOf(starts, size * 2);
+            ends = Arrays.copyOf(ends, size * 2);
+        }
+    }
+}
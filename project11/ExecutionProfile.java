@@ -0,0 +1,139 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Execution counts recorded by VMInterpreter --profile-out and read back by
+ * the compiler with --profile. The file is plain text, one record per line:
+ *
+ *   function FUNCTION CALLS INSTRUCTIONS
+ *   site CALLER CALLEE OCCURRENCE COUNT
+ *   label FUNCTION LABEL COUNT
+ *   branch FUNCTION LABEL TAKEN NOT_TAKEN
+ *
+ * where functions are named Class.subroutine. A site is the n-th call to
+ * callee inside caller, counting from 0 in source order, which is the
+ * order of the VM code as long as the profile is recorded from a build
+ * compiled without --profile. A label count is how many times
+ * control passed the label, by falling through or by jumping to it. Branch
+ * counts add up every if-goto to the label. Lines starting with # are
+ * comments.
+ */
+public class ExecutionProfile {
+    // counts at or above this make a call site or branch hot
+    public static final long HOT_COUNT = 100;
+
+    private Map<String, long[]> functions = new LinkedHashMap<>();
+    private Map<String, Long> sites = new LinkedHashMap<>();
+    private Map<String, Long> labels = new LinkedHashMap<>();
+    private Map<String, long[]> branches = new LinkedHashMap<>();
+
+    public static ExecutionProfile load(File file) {
+        ExecutionProfile profile = new ExecutionProfile();
+
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            String line;
+            int lineNumber = 0;
+
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                line = line.trim();
+
+                if (line.isEmpty() || line.startsWith("#"))
+                    continue;
+
+                String[] parts = line.split("\\s+");
+
+                try {
+                    if (parts[0].equals("function") && parts.length == 4) {
+                        profile.addFunction(parts[1], Long.parseLong(parts[2]),
+                                Long.parseLong(parts[3]));
+                    } else if (parts[0].equals("site") && parts.length == 5) {
+                        profile.addSite(parts[1], parts[2], Integer.parseInt(parts[3]),
+                                Long.parseLong(parts[4]));
+                    } else if (parts[0].equals("label") && parts.length == 4) {
+                        profile.addLabel(parts[1], parts[2], Long.parseLong(parts[3]));
+                    } else if (parts[0].equals("branch") && parts.length == 5) {
+                        profile.addBranch(parts[1], parts[2], Long.parseLong(parts[3]),
+                                Long.parseLong(parts[4]));
+                    } else {
+                        throw new NumberFormatException();
+                    }
+                } catch (NumberFormatException e) {
+                    throw new IllegalStateException(file.getName() + ":" + lineNumber +
+                            ": invalid profile record");
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Cannot read profile \"" + file.getName() + "\"!");
+        }
+
+        return profile;
+    }
+
+    public void write(File file) {
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(file))) {
+            writer.write("# Jack execution profile\n");
+
+            for (Map.Entry<String, long[]> entry : functions.entrySet()) {
+                writer.write("function " + entry.getKey() + " " + entry.getValue()[0] + " " +
+                        entry.getValue()[1] + "\n");
+            }
+            for (Map.Entry<String, Long> entry : sites.entrySet())
+                writer.write("site " + entry.getKey() + " " + entry.getValue() + "\n");
+            for (Map.Entry<String, Long> entry : labels.entrySet())
+                writer.write("label " + entry.getKey() + " " + entry.getValue() + "\n");
+            for (Map.Entry<String, long[]> entry : branches.entrySet()) {
+                writer.write("branch " + entry.getKey() + " " + entry.getValue()[0] + " " +
+                        entry.getValue()[1] + "\n");
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot write to file \"" + file.getName() + "\"!");
+        }
+    }
+
+    public void addFunction(String function, long calls, long instructions) {
+        functions.put(function, new long[] {calls, instructions});
+    }
+
+    public void addSite(String caller, String callee, int occurrence, long count) {
+        sites.merge(caller + " " + callee + " " + occurrence, count, Long::sum);
+    }
+
+    public void addLabel(String function, String label, long count) {
+        labels.merge(function + " " + label, count, Long::sum);
+    }
+
+    public void addBranch(String function, String label, long taken, long notTaken) {
+        long[] counts = branches.computeIfAbsent(function + " " + label, key -> new long[2]);
+        counts[0] += taken;
+        counts[1] += notTaken;
+    }
+
+    // number of calls to function, or -1 if it was not recorded
+    public long getCallCount(String function) {
+        long[] counts = functions.get(function);
+        return counts == null ? -1 : counts[0];
+    }
+
+    // number of times the occurrence-th call to callee in caller ran, or -1
+    public long getSiteCount(String caller, String callee, int occurrence) {
+        Long count = sites.get(caller + " " + callee + " " + occurrence);
+        return count == null ? -1 : count;
+    }
+
+    // number of times control passed label in function, or -1
+    public long getLabelCount(String function, String label) {
+        Long count = labels.get(function + " " + label);
+        return count == null ? -1 : count;
+    }
+
+    public boolean isHot(long count) {
+        return count >= HOT_COUNT;
+    }
+}
@@ -0,0 +1,216 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Two pass assembler for the Hack machine language, used to measure and run
+ * the assembly produced by AsmWriter.
+ */
+public class HackAssembler {
+    private static final Map<String, Integer> COMP_MAP = new HashMap<>();
+    private static final Map<String, Integer> JUMP_MAP = new HashMap<>();
+
+    static {
+        String[][] comps = {
+            {"0", "0101010"}, {"1", "0111111"}, {"-1", "0111010"},
+            {"D", "0001100"}, {"A", "0110000"}, {"!D", "0001101"},
+            {"!A", "0110001"}, {"-D", "0001111"}, {"-A", "0110011"},
+            {"D+1", "0011111"}, {"A+1", "0110111"}, {"D-1", "0001110"},
+            {"A-1", "0110010"}, {"D+A", "0000010"}, {"D-A", "0010011"},
+            {"A-D", "0000111"}, {"D&A", "0000000"}, {"D|A", "0010101"},
+            {"M", "1110000"}, {"!M", "1110001"}, {"-M", "1110011"},
+            {"M+1", "1110111"}, {"M-1", "1110010"}, {"D+M", "1000010"},
+            {"D-M", "1010011"}, {"M-D", "1000111"}, {"D&M", "1000000"},
+            {"D|M", "1010101"},
+            // commuted forms
+            {"A+D", "0000010"}, {"M+D", "1000010"}, {"A&D", "0000000"},
+            {"M&D", "1000000"}, {"A|D", "0010101"}, {"M|D", "1010101"}
+        };
+        for (String[] comp : comps)
+            COMP_MAP.put(comp[0], Integer.parseInt(comp[1], 2));
+
+        String[] jumps = {"", "JGT", "JEQ", "JGE", "JLT", "JNE", "JLE", "JMP"};
+        for (int i = 0; i < jumps.length; i++)
+            JUMP_MAP.put(jumps[i], i);
+    }
+
+    private Map<String, Integer> symbols;
+    private int nextVariable;
+
+    public HackAssembler() {
+        symbols = new HashMap<>();
+        for (int i = 0; i < 16; i++)
+            symbols.put("R" + i, i);
+        symbols.put("SP", 0);
+        symbols.put("LCL", 1);
+        symbols.put("ARG", 2);
+        symbols.put("THIS", 3);
+        symbols.put("THAT", 4);
+        symbols.put("SCREEN", 16384);
+        symbols.put("KBD", 24576);
+        nextVariable = 16;
+    }
+
+    public static void main(String[] args) {
+        if (args.length != 1 || !args[0].toLowerCase().endsWith(".asm")) {
+            System.err.println("Usage:\n" +
+                               "  java HackAssembler <filename.asm>");
+            System.exit(-1);
+        }
+
+        File asmFile = new File(args[0]);
+        String name = asmFile.getName();
+        File hackFile = new File(asmFile.getParentFile(),
+                name.substring(0, name.length() - 4) + ".hack");
+
+        try {
+            short[] program = new HackAssembler().assemble(asmFile);
+
+            try (BufferedWriter writer = new BufferedWriter(new FileWriter(hackFile))) {
+                for (short instruction : program) {
+                    String bits = Integer.toBinaryString(instruction & 0xFFFF);
+                    writer.write("0000000000000000".substring(bits.length()) + bits + "\n");
+                }
+            }
+            System.out.println("Assembled " + program.length + " instructions to " +
+                    hackFile.getPath());
+        } catch (IOException | IllegalArgumentException | IllegalStateException e) {
+            System.err.println(e.getMessage());
+            System.exit(-1);
+        }
+    }
+
+    public short[] assemble(File asmFile) {
+        try (BufferedReader reader = new BufferedReader(new FileReader(asmFile))) {
+            return assemble(reader);
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to read \"" + asmFile.getName() + "\"!");
+        }
+    }
+
+    public short[] assemble(BufferedReader reader) throws IOException {
+        List<String> instructions = new ArrayList<>();
+
+        // first pass: strip comments and bind labels
+        String line;
+        while ((line = reader.readLine()) != null) {
+            int comment = line.indexOf("//");
+            if (comment >= 0)
+                line = line.substring(0, comment);
+            line = line.replace(" ", "").replace("\t", "");
+
+            if (line.isEmpty())
+                continue;
+
+            if (line.startsWith("(")) {
+                String label = line.substring(1, line.length() - 1);
+                if (symbols.containsKey(label))
+                    throw new IllegalStateException("Duplicate label: " + label);
+                symbols.put(label, instructions.size());
+            } else {
+                instructions.add(line);
+            }
+        }
+
+        checkUndefined(instructions);
+
+        // second pass: encode
+        short[] program = new short[instructions.size()];
+        for (int i = 0; i < program.length; i++)
+            program[i] = (short) encode(instructions.get(i));
+
+        return program;
+    }
+
+    // an undefined symbol becomes a variable, but one that is never read or
+    // written through M is a label nobody defined, typically a function of
+    // an OS that is missing from the program
+    private void checkUndefined(List<String> instructions) {
+        Set<String> variables = new HashSet<>();
+        Set<String> undefined = new TreeSet<>();
+
+        for (int i = 0; i < instructions.size(); i++) {
+            String instruction = instructions.get(i);
+            if (!instruction.startsWith("@") || Character.isDigit(instruction.charAt(1)))
+                continue;
+
+            String symbol = instruction.substring(1);
+            if (symbols.containsKey(symbol))
+                continue;
+
+            if (i + 1 < instructions.size() && usesMemory(instructions.get(i + 1)))
+                variables.add(symbol);
+            else
+                undefined.add(symbol);
+        }
+
+        undefined.removeAll(variables);
+        if (!undefined.isEmpty())
+            throw new IllegalStateException("Undefined labels: " + String.join(", ", undefined));
+    }
+
+    // a C-instruction that reads or writes M
+    private static boolean usesMemory(String instruction) {
+        if (instruction.startsWith("@"))
+            return false;
+
+        int semicolon = instruction.indexOf(';');
+        return (semicolon >= 0 ? instruction.substring(0, semicolon) : instruction).indexOf('M') >= 0;
+    }
+
+    // address of a label or variable, or -1 if it is not defined
+    public int addressOf(String symbol) {
+        Integer address = symbols.get(symbol);
+        return address == null ? -1 : address;
+    }
+
+    private int encode(String instruction) {
+        if (instruction.startsWith("@")) {
+            String value = instruction.substring(1);
+
+            if (Character.isDigit(value.charAt(0)))
+                return Integer.parseInt(value) & 0x7FFF;
+
+            Integer address = symbols.get(value);
+            if (address == null) {
+                address = nextVariable++;
+                symbols.put(value, address);
+            }
+            return address;
+        }
+
+        String dest = "", comp = instruction, jump = "";
+
+        int equals = comp.indexOf('=');
+        if (equals >= 0) {
+            dest = comp.substring(0, equals);
+            comp = comp.substring(equals + 1);
+        }
+
+        int semicolon = comp.indexOf(';');
+        if (semicolon >= 0) {
+            jump = comp.substring(semicolon + 1);
+            comp = comp.substring(0, semicolon);
+        }
+
+        Integer compBits = COMP_MAP.get(comp), jumpBits = JUMP_MAP.get(jump);
+        if (compBits == null || jumpBits == null)
+            throw new IllegalStateException("Invalid instruction: " + instruction);
+
+        int destBits = (dest.indexOf('A') >= 0 ? 4 : 0) |
+                (dest.indexOf('D') >= 0 ? 2 : 0) |
+                (dest.indexOf('M') >= 0 ? 1 : 0);
+
+        return 0xE000 | compBits << 6 | destBits << 3 | jumpBits;
+    }
+}
@@ -0,0 +1,84 @@
+/**
+ * Headless Hack CPU that runs an assembled program and counts the clock
+ * cycles it takes.
+ */
+public class HackEmulator {
+    private short[] rom;
+    private short[] ram;
+    private boolean[] haltAt;
+    private long cycles;
+
+    public HackEmulator(short[] program) {
+        rom = program;
+        ram = new short[32768];
+        haltAt = new boolean[program.length + 1];
+        // running off the end of the program stops the machine
+        haltAt[program.length] = true;
+    }
+
+    // stop when the program counter reaches the given address
+    public void addHaltAddress(int address) {
+        if (address >= 0 && address < haltAt.length)
+            haltAt[address] = true;
+    }
+
+    /**
+     * runs from address 0 until a halt address is reached
+     * @param maxCycles upper bound on the number of cycles to run
+     * @return true if the program halted before running out of cycles
+     */
+    public boolean run(long maxCycles) {
+        int pc = 0, a = 0, d = 0;
+        cycles = 0;
+
+        while (!haltAt[pc]) {
+            if (cycles >= maxCycles)
+                return false;
+            cycles++;
+
+            int instruction = rom[pc] & 0xFFFF;
+
+            // A instruction
+            if ((instruction & 0x8000) == 0) {
+                a = instruction;
+                pc++;
+                continue;
+            }
+
+            // C instruction: x is D, y is A or M
+            int x = d;
+            int y = (instruction & 0x1000) != 0 ? ram[a & 0x7FFF] : a;
+
+            if ((instruction & 0x0800) != 0) x = 0;
+            if ((instruction & 0x0400) != 0) x = ~x;
+            if ((instruction & 0x0200) != 0) y = 0;
+            if ((instruction & 0x0100) != 0) y = ~y;
+            int out = (instruction & 0x0080) != 0 ? x + y : x & y;
+            if ((instruction & 0x0040) != 0) out = ~out;
+            out = (short) out;
+
+            boolean jump = ((instruction & 0x4) != 0 && out < 0) ||
+                    ((instruction & 0x2) != 0 && out == 0) ||
+                    ((instruction & 0x1) != 0 && out > 0);
+            int target = a & 0x7FFF;
+
+            if ((instruction & 0x08) != 0) ram[a & 0x7FFF] = (short) out;
+            if ((instruction & 0x20) != 0) a = out;
+            if ((instruction & 0x10) != 0) d = out;
+
+            pc = jump ? target : pc + 1;
+            if (pc >= rom.length)
+                pc = rom.length;
+        }
+
+        return true;
+    }
+
+    public long getCycles() {
+        return cycles;
+    }
+
+    public int peek(int address) {
+        return ram[address];
+    }
+}
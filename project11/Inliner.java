@@ -0,0 +1,176 @@
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Replaces hot calls between subroutines of the same class with a copy of
+ * the callee's VM code. Arguments and locals of the callee move into extra
+ * locals of the caller, shared by every inlined site in that caller, and
+ * THIS is saved and restored around callees that touch it. Only sites the
+ * profile marks hot are inlined, so cold code keeps its smaller call form.
+ */
+public class Inliner {
+    // callees larger than this many commands are never copied
+    private static final int MAX_INLINE_SIZE = 40;
+
+    private ExecutionProfile profile;
+
+    public Inliner(ExecutionProfile profile) {
+        this.profile = profile;
+    }
+
+    /**
+     * @param subroutines one buffer per subroutine, each starting with its function command
+     * @return the subroutines with hot calls inlined
+     */
+    public List<VMBuffer> inline(List<VMBuffer> subroutines) {
+        Map<String, VMBuffer> byName = new HashMap<>();
+        for (VMBuffer subroutine : subroutines)
+            byName.put(subroutine.getName(0), subroutine);
+
+        List<VMBuffer> result = new ArrayList<>();
+        for (VMBuffer subroutine : subroutines)
+            result.add(inlineCalls(subroutine, byName));
+
+        return result;
+    }
+
+    private VMBuffer inlineCalls(VMBuffer caller, Map<String, VMBuffer> byName) {
+        String callerName = caller.getName(0);
+        boolean[] inlineAt = new boolean[caller.size()];
+        boolean any = false;
+
+        // the profile numbers sites in program order, which is source order
+        // in the build it was recorded from; else-first ifs have moved calls
+        // since, so count them in the order the parser wrote them
+        List<Integer> calls = new ArrayList<>();
+        for (int i = 0; i < caller.size(); i++) {
+            if (caller.getKind(i) == VMBuffer.CALL)
+                calls.add(i);
+        }
+        calls.sort(Comparator.comparingInt(caller::getSite));
+
+        Map<String, Integer> occurrences = new HashMap<>();
+        for (int i : calls) {
+            String calleeName = caller.getName(i);
+            int occurrence = occurrences.merge(calleeName, 1, Integer::sum) - 1;
+            VMBuffer callee = byName.get(calleeName);
+
+            if (callee == null || callee == caller || callee.size() > MAX_INLINE_SIZE)
+                continue;
+
+            if (profile.isHot(profile.getSiteCount(callerName, calleeName, occurrence))) {
+                inlineAt[i] = true;
+                any = true;
+            }
+        }
+
+        if (!any)
+            return caller;
+
+        VMBuffer result = new VMBuffer();
+        int base = caller.getIndex(0), extraLocals = 0, site = 0;
+
+        for (int i = 0; i < caller.size(); i++) {
+            if (inlineAt[i]) {
+                VMBuffer callee = byName.get(caller.getName(i));
+                result.setLine(caller.getLine(i));
+                extraLocals = Math.max(extraLocals,
+                        copyBody(callee, caller.getIndex(i), base, site++, result));
+            } else {
+                caller.replay(i, result);
+            }
+        }
+
+        // the caller's function command reserves the extra locals
+        result.setIndex(0, base + extraLocals);
+
+        return result;
+    }
+
+    // copy callee into out at a call site with its arguments on the stack,
+    // and return how many locals starting at base it used; the copied body
+    // keeps the callee's source lines, the rest gets the call site's
+    private int copyBody(VMBuffer callee, int nArgs, int base, int site, VMBuffer out) {
+        int callLine = out.getLine();
+        int nLocals = callee.getIndex(0);
+        int localBase = base + nArgs, saveSlot = localBase + nLocals;
+        String prefix = "INLINE_" + site + "_", endLabel = prefix + "END";
+
+        boolean usesThis = false;
+        for (int i = 0; i < callee.size(); i++) {
+            if (callee.isAccess(i, Segment.THIS) ||
+                    (callee.isAccess(i, Segment.POINTER) && callee.getIndex(i) == 0)) {
+                usesThis = true;
+            }
+        }
+
+        // arguments come off the stack last first
+        for (int i = nArgs - 1; i >= 0; i--)
+            out.writePop(Segment.LOCAL, base + i);
+
+        if (usesThis) {
+            out.writePush(Segment.POINTER, 0);
+            out.writePop(Segment.LOCAL, saveSlot);
+        }
+
+        // locals start at zero as they would after a function command
+        for (int i = 0; i < nLocals; i++) {
+            out.writePush(Segment.CONST, 0);
+            out.writePop(Segment.LOCAL, localBase + i);
+        }
+
+        for (int i = 1; i < callee.size(); i++) {
+            out.setLine(callee.getLine(i));
+
+            switch (callee.getKind(i)) {
+                case VMBuffer.PUSH: case VMBuffer.POP:
+                    Segment seg = callee.getSegment(i);
+                    int index = callee.getIndex(i);
+
+                    if (seg == Segment.ARG) {
+                        seg = Segment.LOCAL;
+                        index += base;
+                    } else if (seg == Segment.LOCAL) {
+                        index += localBase;
+                    }
+
+                    if (callee.getKind(i) == VMBuffer.PUSH) {
+                        out.writePush(seg, index);
+                    } else {
+                        out.writePop(seg, index);
+                    }
+                    break;
+                case VMBuffer.LABEL:
+                    out.writeLabel(prefix + callee.getName(i));
+                    break;
+                case VMBuffer.GOTO:
+                    out.writeGoto(prefix + callee.getName(i));
+                    break;
+                case VMBuffer.IF_GOTO:
+                    out.writeIf(prefix + callee.getName(i));
+                    break;
+                case VMBuffer.RETURN:
+                    // the return value stays on the stack
+                    if (i != callee.size() - 1)
+                        out.writeGoto(endLabel);
+                    break;
+                default:
+                    callee.replay(i, out);
+                    break;
+            }
+        }
+
+        out.setLine(callLine);
+        out.writeLabel(endLabel);
+
+        if (usesThis) {
+            out.writePush(Segment.LOCAL, saveSlot);
+            out.writePop(Segment.POINTER, 0);
+        }
+
+        return nArgs + nLocals + (usesThis ? 1 : 0);
+    }
+}
@@ -0,0 +1,97 @@
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Inline VM code for OS functions whose real work is a few commands,
+ * written by CompilationEngine in place of the call when the build has no
+ * class of that name to shadow the OS. The arguments are already on the
+ * stack as they would be for the call, and each sequence leaves the value
+ * the call would have returned, so nothing around it changes.
+ *
+ * Only temp 0, temp 1 and pointer 1 are used, and only after every
+ * argument is evaluated. The compiler never keeps anything in them across
+ * an expression, so intrinsics nest freely.
+ */
+public class Intrinsics {
+    // function to number of arguments
+    private static final Map<String, Integer> TABLE = new HashMap<>();
+
+    static {
+        TABLE.put("Memory.peek", 1);
+        TABLE.put("Memory.poke", 2);
+        TABLE.put("Math.abs", 1);
+        TABLE.put("Math.min", 2);
+        TABLE.put("Math.max", 2);
+        TABLE.put("Array.new", 1);
+    }
+
+    /**
+     * @param function Class.subroutine being called
+     * @param constant value of the only argument if it is a constant, otherwise -1
+     * @return whether the call was written inline, if not nothing was written
+     */
+    public static boolean write(String function, int nArgs, int constant, VMEmitter out) {
+        Integer arguments = TABLE.get(function);
+
+        if (arguments == null || arguments != nArgs)
+            return false;
+
+        switch (function) {
+            case "Memory.peek":
+                out.writePop(Segment.POINTER, 1);
+                out.writePush(Segment.THAT, 0);
+                return true;
+            case "Memory.poke":
+                out.writePop(Segment.TEMP, 0);
+                out.writePop(Segment.POINTER, 1);
+                out.writePush(Segment.TEMP, 0);
+                out.writePop(Segment.THAT, 0);
+                // the void return value
+                out.writePush(Segment.CONST, 0);
+                return true;
+            case "Math.abs":
+                // x - ((x + x) & (x < 0)), which like the OS leaves -32768 as it is
+                out.writePop(Segment.TEMP, 0);
+                out.writePush(Segment.TEMP, 0);
+                out.writePush(Segment.TEMP, 0);
+                out.writePush(Segment.TEMP, 0);
+                out.writeArithmetic(Command.ADD);
+                out.writePush(Segment.TEMP, 0);
+                out.writePush(Segment.CONST, 0);
+                out.writeArithmetic(Command.LT);
+                out.writeArithmetic(Command.AND);
+                out.writeArithmetic(Command.SUB);
+                return true;
+            case "Math.min":
+                writeSelect(Command.LT, out);
+                return true;
+            case "Math.max":
+                writeSelect(Command.GT, out);
+                return true;
+            case "Array.new":
+                // the OS only adds a size check, which a positive constant passes
+                if (constant <= 0)
+                    return false;
+                out.writeCall("Memory.alloc", 1);
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    // y + ((x - y) & (x compare y)) is x when the comparison holds and y
+    // otherwise, without a branch; the sum wraps back to x exactly
+    private static void writeSelect(Command compare, VMEmitter out) {
+        out.writePop(Segment.TEMP, 1);
+        out.writePop(Segment.TEMP, 0);
+        out.writePush(Segment.TEMP, 1);
+        out.writePush(Segment.TEMP, 0);
+        out.writePush(Segment.TEMP, 1);
+        out.writeArithmetic(Command.SUB);
+        out.writePush(Segment.TEMP, 0);
+        out.writePush(Segment.TEMP, 1);
+        out.writeArithmetic(compare);
+        out.writeArithmetic(Command.AND);
+        out.writeArithmetic(Command.ADD);
+    }
+}
@@ -1,4 +1,15 @@
 import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
 
 public class JackAnalyzer {
     public static void main(String[] args) {
@@ -7,27 +18,133 @@ public class JackAnalyzer {
         System.exit(exitCode);
     }
 
-    private CompilationEngine compEngine;
+    private AsmWriter asmWriter;
+    private CompilerOptions options = new CompilerOptions();
+    private int jobs = ParallelBuild.defaultJobs();
+    private boolean virtualThreads;
+    private boolean useCache = true;
+    private boolean xml;
+    private boolean tokens;
+    private boolean indent;
+    private BuildCache cache;
+    private ProfileCounters profileCounters;
+    private Map<File, Map<String, String>> dependencies = new ConcurrentHashMap<>();
+    private File statsFile;
+    private boolean collectStats;
+    private Map<File, CompileStats> stats = new ConcurrentHashMap<>();
+    private long scanNanos;
+    private File workingDirectory;
+    private PrintStream out = System.out;
+    private PrintStream err = System.err;
+
+    public JackAnalyzer() {
+    }
+
+    /**
+     * an analyzer for one build inside a long-running process
+     * @param workingDirectory directory relative paths in the arguments start from
+     * @param out receives progress messages
+     * @param err receives diagnostics and usage
+     */
+    public JackAnalyzer(File workingDirectory, PrintStream out, PrintStream err) {
+        this.workingDirectory = workingDirectory;
+        this.out = out;
+        this.err = err;
+    }
 
     public int run(String[] args) {
-        // check for argument length
-        if (args.length != 1) {
+        String path = null;
+        boolean assembly = false;
+
+        File profileFile = null;
+
+        // parse options and the file or directory argument
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--asm")) {
+                assembly = true;
+            } else if (args[i].equals("--binary")) {
+                options.setBinary(true);
+            } else if (args[i].equals("--source-map")) {
+                options.setSourceMap(true);
+            } else if (args[i].equals("--no-intrinsics")) {
+                options.setIntrinsics(false);
+            } else if (args[i].equals("--no-propagation")) {
+                options.setPropagation(false);
+            } else if (args[i].equals("--instrument")) {
+                options.setInstrument(true);
+                profileCounters = new ProfileCounters();
+            } else if (args[i].equals("--profile") && i + 1 < args.length) {
+                profileFile = resolve(args[++i]);
+            } else if (args[i].equals("-j") && i + 1 < args.length) {
+                jobs = parseJobs(args[++i]);
+                if (jobs < 1) {
+                    printUsage();
+                    return -1;
+                }
+            } else if (args[i].equals("--virtual-threads")) {
+                virtualThreads = true;
+            } else if (args[i].equals("--no-cache")) {
+                useCache = false;
+            } else if (args[i].equals("--xml")) {
+                xml = true;
+            } else if (args[i].equals("--tokens")) {
+                tokens = true;
+            } else if (args[i].equals("--indent")) {
+                indent = true;
+            } else if (args[i].equals("--stats") && i + 1 < args.length) {
+                statsFile = resolve(args[++i]);
+            } else if (args[i].startsWith("-") || path != null) {
+                printUsage();
+                return -1;
+            } else {
+                path = args[i];
+            }
+        }
+
+        if (path == null) {
             printUsage();
             return -1;
         }
 
-        File fileOrDirectory = new File(args[0]);
+        File fileOrDirectory = resolve(path);
+
+        // a recording can ask for the events without --stats
+        collectStats = statsFile != null || CompileStats.isRecording();
+        long buildStart = System.nanoTime();
 
         // analyze file or directory of files
         try {
+            if (profileFile != null)
+                options.setProfile(profileFile);
+
+            if (assembly)
+                openAsmWriter(fileOrDirectory);
+
             if (fileOrDirectory.isDirectory()) {
                 analyzeFiles(fileOrDirectory);
             } else {
                 analyzeFile(fileOrDirectory);
             }
+
+            if (profileCounters != null) {
+                writeProfileClass(fileOrDirectory);
+            } else if (fileOrDirectory.isDirectory()) {
+                removeProfileClass(fileOrDirectory);
+            }
+
+            if (asmWriter != null) {
+                asmWriter.close();
+                out.println("ROM size: " + asmWriter.getRomSize() + " instructions");
+            }
+
+            if (statsFile != null) {
+                CompileStats.writeSummary(statsFile, new TreeMap<>(stats).values(),
+                        System.nanoTime() - buildStart, scanNanos);
+                out.println("Statistics written to " + statsFile.getPath());
+            }
         } catch (IllegalArgumentException | IllegalStateException e) {
-            System.err.println(e.getMessage());
-            e.printStackTrace();
+            err.println(e.getMessage());
+            e.printStackTrace(err);
             return -1;
         }
         return 0;
@@ -41,28 +158,357 @@ public class JackAnalyzer {
             throw new IllegalArgumentException("Filename must end with .jack!");
 
         // compile file
-        JackTokenizer jackTokenizer = new JackTokenizer(file);
-        String outputFilename = filename.substring(0, 
-                lowerFilename.lastIndexOf(".jack")) + ".vm";
-        File outputFile = new File(file.getParentFile(), outputFilename);
+        CompileStats fileStats = newStats(file);
+        JackTokenizer jackTokenizer = openSource(file, fileStats);
 
-        System.out.println("Compiling to " + outputFile.getPath());
-        
-        compEngine = new CompilationEngine(jackTokenizer, outputFile);
-        compEngine.compileClass();
+        if (asmWriter != null) {
+            CompilationEngine compEngine = new CompilationEngine(jackTokenizer, asmWriter, options);
+            compEngine.setStats(fileStats);
+            compile(compEngine, file);
+            return;
+        }
+
+        File outputFile = getOutputFile(file);
+        out.println("Compiling to " + outputFile.getPath());
+
+        CompilationEngine compEngine = new CompilationEngine(jackTokenizer, outputFile, options);
+        compEngine.setStats(fileStats);
+        compile(compEngine, file);
     }
 
     private void analyzeFiles(File directory) {
         // iterate over directory non-recursively
+        List<File> sources = new ArrayList<>();
         for (File f : directory.listFiles()) {
             if (f.isFile() && f.getName().toLowerCase().endsWith(".jack")) {
-                analyzeFile(f);
+                sources.add(f);
             }
         }
+
+        // a fixed order keeps output and messages the same between runs
+        sources.sort(Comparator.comparing(File::getName));
+
+        // the shared .asm file always needs every class, XML files are only
+        // written for classes that compile and Profile.dump names every class
+        // with counters
+        if (useCache && asmWriter == null && !xml && !tokens && profileCounters == null)
+            cache = new BuildCache(directory, options);
+
+        // calls between classes are checked against every declaration
+        long scanStart = System.nanoTime();
+        options.setClassIndex(ClassIndex.scan(sources, cache));
+        scanNanos = System.nanoTime() - scanStart;
+
+        if (cache != null)
+            sources = getChangedSources(sources);
+
+        try {
+            if (jobs > 1 && sources.size() > 1) {
+                analyzeFilesParallel(sources);
+            } else {
+                analyzeFilesPipelined(sources);
+            }
+        } finally {
+            if (cache != null)
+                cache.save();
+        }
+    }
+
+    // sources whose output is missing or was built from something else
+    private List<File> getChangedSources(List<File> sources) {
+        List<File> changed = new ArrayList<>();
+
+        for (File f : sources) {
+            if (!cache.isUpToDate(f, getOutputFile(f))) {
+                changed.add(f);
+                continue;
+            }
+
+            String dependency = cache.getChangedDependency(f, options.getClassIndex());
+            if (dependency != null) {
+                out.println(f.getName() + " relies on changed " + dependency);
+                changed.add(f);
+            }
+        }
+
+        if (changed.size() < sources.size()) {
+            out.println((sources.size() - changed.size()) + " of " + sources.size() +
+                    " files up to date");
+        }
+
+        return changed;
+    }
+
+    // sources are read ahead and outputs written behind while compiling
+    private void analyzeFilesPipelined(List<File> sources) {
+        try (BuildPipeline pipeline = new BuildPipeline(sources)) {
+            for (File f : sources) {
+                // reading is charged with the time spent waiting for the reader
+                CompileStats fileStats = newStats(f);
+                long readStart = fileStats != null ? System.nanoTime() : 0;
+                JackTokenizer jackTokenizer = new JackTokenizer(pipeline.nextSource());
+                if (fileStats != null) {
+                    fileStats.addTime(CompileStats.Phase.READ, System.nanoTime() - readStart);
+                    jackTokenizer.setStats(fileStats);
+                }
+
+                if (asmWriter != null) {
+                    CompilationEngine compEngine = new CompilationEngine(jackTokenizer, asmWriter,
+                            options);
+                    compEngine.setStats(fileStats);
+                    compile(compEngine, f);
+                    continue;
+                }
+
+                File outputFile = getOutputFile(f);
+                out.println("Compiling to " + outputFile.getPath());
+
+                VMBuffer commands = new VMBuffer();
+                CompilationEngine compEngine = new CompilationEngine(jackTokenizer, commands,
+                        options);
+                compEngine.setStats(fileStats);
+                compile(compEngine, f);
+                dependencies.put(f, compEngine.getDependencies());
+                pipeline.write(outputFile, commands, fileStats);
+            }
+        }
+
+        // every output is written once the pipeline closes without error
+        if (cache != null) {
+            for (File f : sources)
+                cache.record(f, getOutputFile(f), dependencies.get(f));
+        }
+    }
+
+    // classes compile and write concurrently, messages follow file order
+    private void analyzeFilesParallel(List<File> sources) {
+        int failures = 0;
+
+        try (ParallelBuild build = new ParallelBuild(jobs, virtualThreads)) {
+            List<Future<VMBuffer>> results = build.submit(sources, this::compileToBuffer);
+
+            for (int i = 0; i < sources.size(); i++) {
+                File f = sources.get(i);
+
+                try {
+                    VMBuffer commands = ParallelBuild.await(results.get(i));
+
+                    if (asmWriter != null) {
+                        commands.replay(asmWriter);
+                    } else {
+                        out.println("Compiling to " + getOutputFile(f).getPath());
+                        if (cache != null)
+                            cache.record(f, getOutputFile(f), dependencies.get(f));
+                    }
+                } catch (IllegalArgumentException | IllegalStateException e) {
+                    err.println(f.getName() + ": " + e.getMessage());
+                    failures++;
+                }
+            }
+        }
+
+        if (failures > 0) {
+            throw new IllegalStateException(failures + " of " + sources.size() +
+                    " files failed to compile!");
+        }
+    }
+
+    // runs on a build thread, classes for the shared .asm file are written
+    // by the caller in file order
+    private VMBuffer compileToBuffer(File file) {
+        CompileStats fileStats = newStats(file);
+        VMBuffer commands = new VMBuffer();
+        CompilationEngine compEngine = new CompilationEngine(openSource(file, fileStats),
+                commands, options);
+        compEngine.setStats(fileStats);
+        compile(compEngine, file);
+        dependencies.put(file, compEngine.getDependencies());
+
+        if (asmWriter == null)
+            BuildPipeline.writeAtomically(getOutputFile(file), commands, fileStats);
+
+        return commands;
+    }
+
+    // one parse of the class writes its VM code and any XML files and
+    // source map asked for
+    private void compile(CompilationEngine compEngine, File source) {
+        ParseTreeEmitter tree = openParseTrees(source);
+        compEngine.setParseTree(tree);
+
+        try {
+            compEngine.compileClass();
+        } finally {
+            if (tree != null)
+                tree.close();
+        }
+
+        if (profileCounters != null) {
+            profileCounters.add(compEngine.getClassName(), compEngine.getStaticCount(),
+                    compEngine.getCounters());
+        }
+
+        // the shared .asm file has no command numbers to map
+        if (options.isSourceMap() && asmWriter == null) {
+            compEngine.getSourceMap(source.getName()).write(
+                    SourceMap.fileFor(getOutputFile(source)));
+        }
+    }
+
+    // Profile.dump for the counters of every class compiled, and the
+    // Profile.layout naming them, next to the sources
+    private void writeProfileClass(File fileOrDirectory) {
+        File directory = fileOrDirectory.isDirectory() ? fileOrDirectory :
+                fileOrDirectory.getAbsoluteFile().getParentFile();
+
+        // fails before any file is opened if the counters do not fit
+        VMBuffer dump = new VMBuffer();
+        profileCounters.writeDumpClass(dump);
+
+        if (asmWriter != null) {
+            dump.replay(asmWriter);
+        } else {
+            File outputFile = new File(directory, ProfileCounters.CLASS_NAME +
+                    (options.isBinary() ? ".vmb" : ".vm"));
+            out.println("Compiling to " + outputFile.getPath());
+
+            VMEmitter writer = options.isBinary() ? new VMBinaryWriter(outputFile) :
+                    new VMWriter(outputFile);
+            dump.replay(writer);
+            writer.close();
+        }
+
+        profileCounters.writeLayout(new File(directory, ProfileCounters.LAYOUT_FILE));
+
+        int base = profileCounters.getBase();
+        out.println(profileCounters.size() + " profile counters at RAM[" + base + ".." +
+                (base + 2 * profileCounters.size()) + "], read them with ProfileReport");
+    }
+
+    // an earlier --instrument build left a Profile.dump calling dumps the
+    // classes no longer have; its layout file marks it as generated
+    private void removeProfileClass(File directory) {
+        File layoutFile = new File(directory, ProfileCounters.LAYOUT_FILE);
+        if (!layoutFile.isFile())
+            return;
+
+        new File(directory, ProfileCounters.CLASS_NAME + ".vm").delete();
+        new File(directory, ProfileCounters.CLASS_NAME + ".vmb").delete();
+        layoutFile.delete();
+    }
+
+    // X.xml parse tree and XT.xml token list next to X.jack, null for neither
+    private ParseTreeEmitter openParseTrees(File source) {
+        ParseTreeEmitter tree = null;
+
+        if (xml)
+            tree = new XMLWriter(getSiblingFile(source, ".xml"), indent);
+
+        if (tokens) {
+            XMLWriter tokenWriter = new XMLWriter(getSiblingFile(source, "T.xml"), indent, true);
+            tree = tree == null ? tokenWriter : new ParseTreeTee(tree, tokenWriter);
+        }
+
+        return tree;
+    }
+
+    // statistics for file, or null when nobody asked for them
+    private CompileStats newStats(File file) {
+        if (!collectStats)
+            return null;
+
+        CompileStats fileStats = new CompileStats(file.getName());
+        stats.put(file, fileStats);
+        return fileStats;
+    }
+
+    // with stats the source is read up front, so reading is timed apart from lexing
+    private JackTokenizer openSource(File file, CompileStats fileStats) {
+        if (fileStats == null)
+            return new JackTokenizer(file);
+
+        long start = System.nanoTime();
+        String source;
+        try {
+            source = new String(Files.readAllBytes(file.toPath()), Charset.defaultCharset());
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Cannot read file \"" + file.getName() + "\"!");
+        }
+        fileStats.addTime(CompileStats.Phase.READ, System.nanoTime() - start);
+
+        JackTokenizer jackTokenizer = new JackTokenizer(source);
+        jackTokenizer.setStats(fileStats);
+        return jackTokenizer;
+    }
+
+    // .vm or .vmb file next to the .jack file
+    private File getOutputFile(File file) {
+        return getSiblingFile(file, options.isBinary() ? ".vmb" : ".vm");
+    }
+
+    // file named like the .jack file with suffix in place of .jack
+    private static File getSiblingFile(File file, String suffix) {
+        String filename = file.getName();
+        String outputFilename = filename.substring(0,
+                filename.toLowerCase().lastIndexOf(".jack")) + suffix;
+
+        return new File(file.getParentFile(), outputFilename);
+    }
+
+    // one .asm file for the whole program, bootstrapped when compiling a directory
+    private void openAsmWriter(File fileOrDirectory) {
+        File outputFile;
+
+        if (fileOrDirectory.isDirectory()) {
+            outputFile = AsmWriter.fileForDirectory(fileOrDirectory);
+        } else {
+            String filename = fileOrDirectory.getName();
+            int extension = filename.lastIndexOf('.');
+            outputFile = new File(fileOrDirectory.getParentFile(),
+                    (extension > 0 ? filename.substring(0, extension) : filename) + ".asm");
+        }
+
+        out.println("Compiling to " + outputFile.getPath());
+
+        asmWriter = new AsmWriter(outputFile, true, true);
+        if (fileOrDirectory.isDirectory())
+            asmWriter.writeInit();
+    }
+
+    private File resolve(String path) {
+        File file = new File(path);
+        return file.isAbsolute() || workingDirectory == null ? file : new File(workingDirectory, path);
+    }
+
+    // job count, or -1 if the argument is not a number
+    private int parseJobs(String value) {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
     }
 
     private void printUsage() {
-        System.err.println("Usage:\n" +
-                           "  java JackAnalyzer (<filename>|<directory>)");
+        err.println("Usage:\n" +
+                           "  java JackAnalyzer [options] (<filename>|<directory>)\n" +
+                           "    --asm             compile straight to one Hack .asm file\n" +
+                           "    --binary          write compact .vmb files instead of .vm text\n" +
+                           "    --source-map      write X.map with the Jack line of each VM command\n" +
+                           "    --no-intrinsics   always call Memory.peek, Math.min and the like,\n" +
+                           "                      even when no class in the build replaces them\n" +
+                           "    --no-propagation  compile each statement on its own, without\n" +
+                           "                      carrying known values of variables across\n" +
+                           "    --instrument      count subroutine entries, loop iterations and\n" +
+                           "                      branches, see ProfileReport\n" +
+                           "    -j <n>            compile n files at a time, default one per core\n" +
+                           "    --virtual-threads run each file on a virtual thread (Java 21+)\n" +
+                           "    --no-cache        recompile every file, ignoring .jackcache\n" +
+                           "    --xml             also write the parse tree of X.jack to X.xml\n" +
+                           "    --tokens          also write the tokens of X.jack to XT.xml\n" +
+                           "    --indent          lay out the XML like the comparison files\n" +
+                           "    --stats <file>    write per-class phase times and counts as JSON\n" +
+                           "    --profile <file>  use counts from VMInterpreter --profile-out to\n" +
+                           "                      lay out branches and inline hot calls");
     }
 }
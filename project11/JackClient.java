@@ -0,0 +1,84 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+
+/**
+ * Runs one build on a JackServer listening on a Unix domain socket. Takes
+ * the same arguments as JackAnalyzer, prints the server's messages the way
+ * JackAnalyzer would and exits with the build's exit code.
+ */
+public class JackClient {
+    public static void main(String[] args) {
+        JackClient jackClient = new JackClient();
+        int exitCode = jackClient.run(args);
+        System.exit(exitCode);
+    }
+
+    public int run(String[] args) {
+        Path socket = JackServer.getDefaultSocket();
+        int first = 0;
+
+        if (args.length >= 2 && args[0].equals("--socket")) {
+            socket = Path.of(args[1]);
+            first = 2;
+        }
+
+        if (args.length == first) {
+            printUsage();
+            return -1;
+        }
+
+        // tabs and line breaks would split the request
+        StringBuilder request = new StringBuilder("compile\t")
+                .append(new File("").getAbsolutePath());
+        for (int i = first; i < args.length; i++) {
+            if (args[i].contains("\t") || args[i].contains("\n")) {
+                System.err.println("Arguments cannot contain tabs or line breaks!");
+                return -1;
+            }
+            request.append('\t').append(args[i]);
+        }
+
+        try (SocketChannel channel = SocketChannel.open(StandardProtocolFamily.UNIX)) {
+            channel.connect(UnixDomainSocketAddress.of(socket));
+
+            PrintStream out = new PrintStream(Channels.newOutputStream(channel), true,
+                    StandardCharsets.UTF_8);
+            out.println(request);
+
+            BufferedReader in = new BufferedReader(new InputStreamReader(
+                    Channels.newInputStream(channel), StandardCharsets.UTF_8));
+            String line;
+
+            while ((line = in.readLine()) != null) {
+                if (line.startsWith("out ")) {
+                    System.out.println(line.substring(4));
+                } else if (line.startsWith("err ")) {
+                    System.err.println(line.substring(4));
+                } else if (line.startsWith("exit ")) {
+                    return Integer.parseInt(line.substring(5));
+                }
+            }
+
+            System.err.println("JackServer closed the connection!");
+        } catch (IOException e) {
+            System.err.println("Cannot connect to JackServer at \"" + socket + "\"!");
+        }
+
+        return -1;
+    }
+
+    private void printUsage() {
+        System.err.println("Usage:\n" +
+                           "  java JackClient [--socket <path>] <JackAnalyzer arguments>\n" +
+                           "    default socket " + JackServer.getDefaultSocket());
+    }
+}
@@ -0,0 +1,303 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Writes a directory of synthetic Jack classes of any size, for measuring
+ * how the compilers scale. The output is a valid program for both the
+ * project10 and project11 analyzers, including the project11 call checks,
+ * and the same settings and seed always give the same sources.
+ *
+ * Every class GenN declares static variables and functions taking two int
+ * arguments and returning an int. Their bodies mix let, if, while and do
+ * statements, with calls to functions of any generated class. Expressions
+ * nest to the configured depth on one side, so their length grows
+ * linearly with it. A Main class calls the first function.
+ */
+public class JackGenerator {
+    public static void main(String[] args) {
+        JackGenerator jackGenerator = new JackGenerator();
+        int exitCode = jackGenerator.run(args);
+        System.exit(exitCode);
+    }
+
+    private static final String[] STEMS = {
+            "value", "count", "index", "total", "item", "next", "size", "step"};
+    private static final String[] WORDS = {
+            "the", "snake", "grows", "when", "it", "eats", "score", "level",
+            "game", "over", "press", "any", "key", "to", "start", "again"};
+    private static final char[] OPERATORS = {'+', '-', '*', '/', '&', '|', '<', '>', '='};
+
+    private int classes = 10;
+    private int subroutines = 10;
+    private int statements = 20;
+    private int depth = 3;
+    private int identifiers = 8;
+    private double stringDensity = 0.1;
+    private long seed = 1;
+
+    private Random random;
+
+    public int run(String[] args) {
+        String path = null;
+
+        try {
+            for (int i = 0; i < args.length; i++) {
+                if (args[i].equals("--seed") && i + 1 < args.length) {
+                    setSeed(Long.parseLong(args[++i]));
+                } else if (args[i].equals("--strings") && i + 1 < args.length) {
+                    setStringDensity(Double.parseDouble(args[++i]));
+                } else if (args[i].startsWith("--") && i + 1 < args.length) {
+                    set(args[i].substring(2), Integer.parseInt(args[++i]));
+                } else if (path == null && !args[i].startsWith("-")) {
+                    path = args[i];
+                } else {
+                    printUsage();
+                    return -1;
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            printUsage();
+            return -1;
+        }
+
+        if (path == null) {
+            printUsage();
+            return -1;
+        }
+
+        try {
+            List<File> files = generate(new File(path));
+            System.out.println("Generated " + files.size() + " classes in " + path);
+        } catch (IllegalStateException e) {
+            System.err.println(e.getMessage());
+            return -1;
+        }
+
+        return 0;
+    }
+
+    /**
+     * set a size knob by name
+     * @param knob classes, subroutines, statements, depth or identifiers
+     */
+    public void set(String knob, int value) {
+        if (value < (knob.equals("depth") ? 0 : 1))
+            throw new IllegalArgumentException("Size of " + knob + " out of range!");
+
+        switch (knob) {
+            case "classes":
+                classes = value;
+                break;
+            case "subroutines":
+                subroutines = value;
+                break;
+            case "statements":
+                statements = value;
+                break;
+            case "depth":
+                depth = value;
+                break;
+            case "identifiers":
+                identifiers = value;
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown size \"" + knob + "\"!");
+        }
+    }
+
+    // chance of each statement using a string literal, from 0 to 1
+    public void setStringDensity(double stringDensity) {
+        if (stringDensity < 0 || stringDensity > 1)
+            throw new IllegalArgumentException("String density out of range!");
+        this.stringDensity = stringDensity;
+    }
+
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    // write every class into directory, replacing sources of the same names
+    public List<File> generate(File directory) {
+        List<File> files = new ArrayList<>();
+        random = new Random(seed);
+
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new IllegalStateException("Cannot create directory \"" + directory.getName() + "\"!");
+
+        for (int i = 0; i < classes; i++)
+            files.add(write(directory, "Gen" + i, generateClass(i)));
+        files.add(write(directory, "Main", "class Main {\n" +
+                "    function void main() {\n" +
+                "        do Gen0.f0(1, 2);\n" +
+                "        return;\n" +
+                "    }\n" +
+                "}\n"));
+
+        return files;
+    }
+
+    private File write(File directory, String className, String source) {
+        File file = new File(directory, className + ".jack");
+
+        try {
+            Files.write(file.toPath(), source.getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot write to file \"" + file.getName() + "\"!");
+        }
+
+        return file;
+    }
+
+    private String generateClass(int index) {
+        StringBuilder source = new StringBuilder();
+
+        source.append("// generated by JackGenerator, seed ").append(seed).append('\n');
+        source.append("class Gen").append(index).append(" {\n");
+        source.append("    static int ").append(names("shared", identifiers)).append(";\n");
+
+        for (int i = 0; i < subroutines; i++) {
+            source.append('\n');
+            source.append("    function int f").append(i).append("(int a0, int a1) {\n");
+            source.append("        var int ").append(localNames()).append(";\n");
+            source.append("        var Array list;\n");
+            source.append("        var String text;\n");
+            source.append("        let list = Array.new(16);\n");
+
+            for (int j = 0; j < statements; j++)
+                statement(source, "        ");
+
+            source.append("        return ").append(expression(depth)).append(";\n");
+            source.append("    }\n");
+        }
+
+        return source.append("}\n").toString();
+    }
+
+    private void statement(StringBuilder source, String indent) {
+        if (random.nextDouble() < stringDensity) {
+            if (random.nextBoolean()) {
+                source.append(indent).append("let text = ").append(string()).append(";\n");
+            } else {
+                source.append(indent).append("do Output.printString(").append(string()).append(");\n");
+            }
+            return;
+        }
+
+        int kind = random.nextInt(20);
+
+        if (kind < 8) {
+            source.append(indent).append("let ").append(local()).append(" = ")
+                    .append(expression(depth)).append(";\n");
+        } else if (kind < 10) {
+            source.append(indent).append("let list[").append(random.nextInt(16)).append("] = ")
+                    .append(expression(depth)).append(";\n");
+        } else if (kind < 13) {
+            source.append(indent).append("if (").append(expression(depth)).append(") {\n");
+            source.append(indent).append("    let ").append(local()).append(" = ")
+                    .append(expression(depth)).append(";\n");
+            source.append(indent).append("} else {\n");
+            source.append(indent).append("    let ").append(shared()).append(" = ")
+                    .append(expression(depth)).append(";\n");
+            source.append(indent).append("}\n");
+        } else if (kind < 16) {
+            String counter = local();
+            source.append(indent).append("while (").append(counter).append(" < ")
+                    .append(random.nextInt(100)).append(") {\n");
+            source.append(indent).append("    let ").append(counter).append(" = ")
+                    .append(counter).append(" + 1;\n");
+            source.append(indent).append("}\n");
+        } else {
+            source.append(indent).append("do ").append(call(depth)).append(";\n");
+        }
+    }
+
+    // nests on the right only, so the length is linear in depth
+    private String expression(int depth) {
+        if (depth == 0)
+            return term();
+
+        switch (random.nextInt(6)) {
+            case 0:
+                return call(depth);
+            case 1:
+                return "-(" + expression(depth - 1) + ")";
+            case 2:
+                return "list[" + expression(depth - 1) + "]";
+            default:
+                return "(" + term() + " " + OPERATORS[random.nextInt(OPERATORS.length)] + " " +
+                        expression(depth - 1) + ")";
+        }
+    }
+
+    private String call(int depth) {
+        return "Gen" + random.nextInt(classes) + ".f" + random.nextInt(subroutines) + "(" +
+                expression(Math.max(depth - 1, 0)) + ", " + term() + ")";
+    }
+
+    private String term() {
+        switch (random.nextInt(4)) {
+            case 0:
+                return String.valueOf(random.nextInt(1000));
+            case 1:
+                return shared();
+            case 2:
+                return "a" + random.nextInt(2);
+            default:
+                return local();
+        }
+    }
+
+    private String local() {
+        int i = random.nextInt(identifiers);
+        return STEMS[i % STEMS.length] + i;
+    }
+
+    private String localNames() {
+        StringBuilder names = new StringBuilder();
+
+        for (int i = 0; i < identifiers; i++)
+            names.append(i > 0 ? ", " : "").append(STEMS[i % STEMS.length]).append(i);
+
+        return names.toString();
+    }
+
+    private String shared() {
+        return "shared" + random.nextInt(identifiers);
+    }
+
+    private static String names(String stem, int count) {
+        StringBuilder names = new StringBuilder();
+
+        for (int i = 0; i < count; i++)
+            names.append(i > 0 ? ", " : "").append(stem).append(i);
+
+        return names.toString();
+    }
+
+    private String string() {
+        StringBuilder string = new StringBuilder("\"");
+        int words = 1 + random.nextInt(6);
+
+        for (int i = 0; i < words; i++)
+            string.append(i > 0 ? " " : "").append(WORDS[random.nextInt(WORDS.length)]);
+
+        return string.append('"').toString();
+    }
+
+    private void printUsage() {
+        System.err.println("Usage:\n" +
+                           "  java JackGenerator [options] <output directory>\n" +
+                           "    --classes <n>         generated classes, default 10\n" +
+                           "    --subroutines <n>     functions per class, default 10\n" +
+                           "    --statements <n>      statements per function, default 20\n" +
+                           "    --depth <n>           nesting of every expression, default 3\n" +
+                           "    --identifiers <n>     static and local variables, default 8\n" +
+                           "    --strings <fraction>  share of statements using a string, default 0.1\n" +
+                           "    --seed <n>            random seed, default 1");
+    }
+}
@@ -0,0 +1,241 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Arrays;
+import java.util.Set;
+
+/**
+ * Keeps a warmed-up compiler resident and runs JackAnalyzer builds on
+ * request, so small builds do not pay for JVM startup and JIT warm-up each
+ * time. Requests come one per line on stdin, or on any number of
+ * connections to a Unix domain socket, with fields separated by tabs:
+ *
+ *   compile WORKING_DIRECTORY ARGUMENT...
+ *   shutdown
+ *
+ * where the arguments are those of JackAnalyzer and relative paths start
+ * from the working directory. Every request is answered with its progress
+ * and diagnostic lines, as they happen, followed by the exit code:
+ *
+ *   out MESSAGE
+ *   err MESSAGE
+ *   exit CODE
+ */
+public class JackServer {
+    public static void main(String[] args) {
+        JackServer jackServer = new JackServer();
+        int exitCode = jackServer.run(args);
+        System.exit(exitCode);
+    }
+
+    private static final Set<PosixFilePermission> OWNER_ONLY_DIRECTORY =
+            PosixFilePermissions.fromString("rwx------");
+    private static final Set<PosixFilePermission> OWNER_ONLY_SOCKET =
+            PosixFilePermissions.fromString("rw-------");
+
+    private volatile boolean shutdown;
+    private ServerSocketChannel server;
+
+    // socket used by JackServer --socket and JackClient when no path is given,
+    // in a directory of its own per user so other users cannot reach it
+    public static Path getDefaultSocket() {
+        return Path.of(System.getProperty("java.io.tmpdir"),
+                "jackserver-" + System.getProperty("user.name"), "jackserver.sock");
+    }
+
+    public int run(String[] args) {
+        if (args.length == 0) {
+            serve(System.in, System.out);
+            return 0;
+        }
+
+        if (!args[0].equals("--socket") || args.length > 2) {
+            printUsage();
+            return -1;
+        }
+
+        Path socket = args.length == 2 ? Path.of(args[1]) : getDefaultSocket();
+
+        if (isAnswered(socket)) {
+            System.err.println("A server is already listening on \"" + socket + "\"!");
+            return -1;
+        }
+
+        try {
+            if (args.length == 1)
+                createPrivateDirectory(socket.getParent());
+            listen(socket);
+        } catch (IOException e) {
+            if (!shutdown) {
+                System.err.println("Cannot listen on \"" + socket + "\"!");
+                return -1;
+            }
+        }
+
+        return 0;
+    }
+
+    // whether a running server accepts connections on the socket
+    private static boolean isAnswered(Path socket) {
+        try (SocketChannel channel = SocketChannel.open(UnixDomainSocketAddress.of(socket))) {
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    // create the directory, or take over one left behind, accessible to its owner only;
+    // fails if another user owns it
+    private static void createPrivateDirectory(Path directory) throws IOException {
+        Files.createDirectories(directory);
+
+        try {
+            Files.setPosixFilePermissions(directory, OWNER_ONLY_DIRECTORY);
+        } catch (UnsupportedOperationException ignored) {
+            // no POSIX permissions to set, the socket file is still restricted below
+        }
+    }
+
+    // serve every connection on its own thread until a shutdown request
+    private void listen(Path socket) throws IOException {
+        // nothing answered on it, so a socket file there was left by a server that died
+        Files.deleteIfExists(socket);
+
+        server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        server.bind(UnixDomainSocketAddress.of(socket));
+
+        try {
+            Files.setPosixFilePermissions(socket, OWNER_ONLY_SOCKET);
+        } catch (UnsupportedOperationException ignored) {}
+
+        System.out.println("Listening on " + socket);
+
+        try {
+            while (!shutdown) {
+                SocketChannel connection = server.accept();
+
+                new Thread(() -> {
+                    try (SocketChannel channel = connection) {
+                        serve(Channels.newInputStream(channel), Channels.newOutputStream(channel));
+                    } catch (IOException ignored) {}
+                }, "connection").start();
+            }
+        } finally {
+            server.close();
+            Files.deleteIfExists(socket);
+        }
+    }
+
+    // answer requests read from in until it ends
+    private void serve(InputStream in, OutputStream outStream) {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        PrintStream response = new PrintStream(outStream, true, StandardCharsets.UTF_8);
+        String line;
+
+        try {
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty())
+                    continue;
+
+                String[] fields = line.split("\t", -1);
+
+                if (fields[0].equals("shutdown")) {
+                    response.println("exit 0");
+                    shutdown();
+                    return;
+                } else if (fields[0].equals("compile") && fields.length >= 2) {
+                    response.println("exit " + compile(new File(fields[1]),
+                            Arrays.copyOfRange(fields, 2, fields.length), response));
+                } else {
+                    response.println("err unknown request \"" + fields[0] + "\"");
+                    response.println("exit -1");
+                }
+            }
+        } catch (IOException ignored) {
+            // client went away
+        }
+    }
+
+    private int compile(File workingDirectory, String[] args, PrintStream response) {
+        PrintStream out = new PrintStream(new LineStream("out ", response), true,
+                StandardCharsets.UTF_8);
+        PrintStream err = new PrintStream(new LineStream("err ", response), true,
+                StandardCharsets.UTF_8);
+
+        try {
+            return new JackAnalyzer(workingDirectory, out, err).run(args);
+        } catch (RuntimeException e) {
+            // one broken build must not take the server down
+            err.println("internal error: " + e);
+            return -1;
+        } finally {
+            out.flush();
+            err.flush();
+        }
+    }
+
+    private void shutdown() {
+        shutdown = true;
+
+        try {
+            if (server != null)
+                server.close();
+        } catch (IOException ignored) {}
+    }
+
+    private void printUsage() {
+        System.err.println("Usage:\n" +
+                           "  java JackServer                    serve requests on stdin and stdout\n" +
+                           "  java JackServer --socket [<path>]  serve requests on a Unix domain socket,\n" +
+                           "                                     default " + getDefaultSocket());
+    }
+
+    // prefixes every line written to it and passes whole lines on
+    private static class LineStream extends OutputStream {
+        private byte[] prefix;
+        private PrintStream target;
+        private byte[] line = new byte[256];
+        private int length;
+
+        LineStream(String prefix, PrintStream target) {
+            this.prefix = prefix.getBytes(StandardCharsets.UTF_8);
+            this.target = target;
+        }
+
+        @Override
+        public void write(int b) {
+            if (b == '\n') {
+                // out and err of one build share the response
+                synchronized (target) {
+                    target.write(prefix, 0, prefix.length);
+                    target.write(line, 0, length);
+                    target.write('\n');
+                    target.flush();
+                }
+                length = 0;
+                return;
+            }
+
+            if (b == '\r')
+                return;
+
+            if (length == line.length)
+                line = Arrays.copyOf(line, length * 2);
+            line[length++] = (byte) b;
+        }
+    }
+}
@@ -3,18 +3,31 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.StringReader;
+import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.Queue;
 
 public class JackTokenizer {
+    // a position packs the line above the column, which saturates at MAX_COLUMN
+    private static final int COLUMN_BITS = 10;
+    private static final int MAX_COLUMN = (1 << COLUMN_BITS) - 1;
+
     private BufferedReader reader;
     private Queue<String> tokens;
     private boolean insideMultiLineComment;
+    private int lineNumber;
+
+    // position of each queued token, in queue order
+    private int[] positions = new int[256];
+    private int nextPosition, positionCount;
 
     private String token;
+    private int position;
     private TokenType tokenType;
     private Keyword keyword;
     private int intValue; 
+    private CompileStats stats;
     
     public JackTokenizer(File jackFile) {
         try {
@@ -25,18 +38,49 @@ public class JackTokenizer {
         tokens = new LinkedList<>();
     }
 
+    // tokenize source already read into memory
+    public JackTokenizer(String source) {
+        reader = new BufferedReader(new StringReader(source));
+        tokens = new LinkedList<>();
+    }
+
+    // count lines and tokens and time lexing into stats
+    public void setStats(CompileStats stats) {
+        this.stats = stats;
+    }
+
     public boolean hasMoreTokens() {
-        if (tokens.isEmpty()) 
+        if (tokens.isEmpty()) {
+            long start = stats != null ? System.nanoTime() : 0;
+            nextPosition = 0;
+            positionCount = 0;
+
             while(tokenizeLine());
+
+            if (stats != null)
+                stats.addTime(CompileStats.Phase.LEX, System.nanoTime() - start);
+        }
         
         return !tokens.isEmpty();
     }
 
     public void advance() {
+        if (stats == null) {
+            nextToken();
+            return;
+        }
+
+        long start = System.nanoTime();
+        nextToken();
+        stats.addToken(System.nanoTime() - start);
+    }
+
+    private void nextToken() {
         if (tokens.isEmpty())
             throw new IllegalStateException("Call hasMoreTokens before advancing!");
 
         token = tokens.poll();
+        position = positions[nextPosition++];
         char firstChar = token.charAt(0);
 
         // check if string constant
@@ -77,6 +121,16 @@ public class JackTokenizer {
         tokenType = null;
     }
 
+    // line of the current token, counting from 1
+    public int getLine() {
+        return position >>> COLUMN_BITS;
+    }
+
+    // column of the current token's first character, counting from 1
+    public int getColumn() {
+        return position & MAX_COLUMN;
+    }
+
     public TokenType tokenType() {
         return tokenType;
     } 
@@ -123,6 +177,7 @@ public class JackTokenizer {
 
         StringBuilder currentToken = new StringBuilder();
         boolean insideQuotes = false;
+        int tokenStart = 0;
 
         for (int i = 0; i < line.length(); i++) {
             char currentChar = line.charAt(i);
@@ -149,12 +204,15 @@ public class JackTokenizer {
 
                 // add to queue if starting quotes or ending quotes
                 if (currentToken.length() > 0 || !insideQuotes) {
-                    tokens.offer(currentToken.toString());
+                    offer(currentToken.toString(), tokenStart);
                     currentToken.setLength(0);
                 }
 
                 // add quotes to start of string constant token
-                if (insideQuotes) currentToken.append(currentChar);
+                if (insideQuotes) {
+                    tokenStart = i;
+                    currentToken.append(currentChar);
+                }
 
                 continue;
             }
@@ -167,15 +225,15 @@ public class JackTokenizer {
 
             // skip whitespace and add to tokens queue
             if (Character.isWhitespace(currentChar)) {
-                appendToken(currentToken);
+                appendToken(currentToken, tokenStart);
                 continue;
             }
 
             // if symbol add to queue and add symbol to queue
             if (Symbol.isSymbol(currentChar)) {
-                appendToken(currentToken);
+                appendToken(currentToken, tokenStart);
 
-                tokens.offer("" + currentChar);
+                offer("" + currentChar, i);
 
                 continue;
             }
@@ -184,27 +242,42 @@ public class JackTokenizer {
             if (!Character.isLetterOrDigit(currentChar) && currentChar != '_')
                 throw new IllegalStateException("Invalid character: '" + currentChar + "'!");
 
+            if (currentToken.length() == 0)
+                tokenStart = i;
             currentToken.append(currentChar);
         }
 
-        appendToken(currentToken);
+        appendToken(currentToken, tokenStart);
 
         return true;
     }
 
     private String readLine() {
         try {
-            return reader.readLine();
+            String line = reader.readLine();
+            lineNumber++;
+            if (stats != null && line != null)
+                stats.addLine();
+            return line;
         } catch (IOException e) {
             throw new IllegalStateException("Failed to read file!");
         }
     }
 
     // append token to list of tokens
-    private void appendToken(StringBuilder builder) {
+    private void appendToken(StringBuilder builder, int column) {
         if (builder.length() > 0) {
-            tokens.offer(builder.toString());
+            offer(builder.toString(), column);
             builder.setLength(0);
         }
     }
+
+    // queue token with its position on the line being read, column from 0
+    private void offer(String token, int column) {
+        if (positionCount == positions.length)
+            positions = Arrays.copyOf(positions, positionCount * 2);
+
+        positions[positionCount++] = lineNumber << COLUMN_BITS | Math.min(column + 1, MAX_COLUMN);
+        tokens.offer(token);
+    }
 }
\ No newline at end of file
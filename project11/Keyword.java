@@ -43,13 +43,12 @@ public enum Keyword {
     }
 
     public static Keyword getValueByMnemonic(String mnemonic) {
-        if (MNEMONIC_MAP.size() != values().length)
-            initMnemonicMap();
-
         return MNEMONIC_MAP.get(mnemonic);
     }
 
-    private static void initMnemonicMap() {
+    // complete before the first lookup, as every compile thread's tokenizer
+    // reads it without locking
+    static {
         for (Keyword keyword : values())
             MNEMONIC_MAP.put(keyword.getMnemonic(), keyword);
     }
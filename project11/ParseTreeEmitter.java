@@ -0,0 +1,16 @@
+// backend that receives the parse tree from the compilation engine, in pre-order
+public interface ParseTreeEmitter {
+    void startElement(NonTerminal element);
+
+    void endElement(NonTerminal element);
+
+    void writeToken(TokenType type, String text);
+
+    void writeToken(TokenType type, char text);
+
+    void writeToken(TokenType type, Keyword text);
+
+    void writeToken(TokenType type, int text);
+
+    void close();
+}
@@ -0,0 +1,49 @@
+// passes the parse tree on to two emitters, so one parse feeds several outputs
+public class ParseTreeTee implements ParseTreeEmitter {
+    private ParseTreeEmitter first;
+    private ParseTreeEmitter second;
+
+    public ParseTreeTee(ParseTreeEmitter first, ParseTreeEmitter second) {
+        this.first = first;
+        this.second = second;
+    }
+
+    public void startElement(NonTerminal element) {
+        first.startElement(element);
+        second.startElement(element);
+    }
+
+    public void endElement(NonTerminal element) {
+        first.endElement(element);
+        second.endElement(element);
+    }
+
+    public void writeToken(TokenType type, String text) {
+        first.writeToken(type, text);
+        second.writeToken(type, text);
+    }
+
+    public void writeToken(TokenType type, char text) {
+        first.writeToken(type, text);
+        second.writeToken(type, text);
+    }
+
+    public void writeToken(TokenType type, Keyword text) {
+        first.writeToken(type, text);
+        second.writeToken(type, text);
+    }
+
+    public void writeToken(TokenType type, int text) {
+        first.writeToken(type, text);
+        second.writeToken(type, text);
+    }
+
+    // closes both, even if the first fails
+    public void close() {
+        try {
+            first.close();
+        } finally {
+            second.close();
+        }
+    }
+}
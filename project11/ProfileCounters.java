@@ -0,0 +1,158 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Counters compiled into a build by JackAnalyzer --instrument. Every class
+ * keeps its counters in static words after its own statics, two words per
+ * counter with the low word first, and gets a Class.profile:dump function
+ * that copies them to RAM. The generated Profile.dump calls each of those
+ * in turn, so after it has run the counters sit at the end of the heap:
+ *
+ *   RAM[base]            number of counters
+ *   RAM[base + 1 + 2i]   low word of counter i
+ *   RAM[base + 2 + 2i]   high word of counter i
+ *
+ * Profile.layout names the counters for ProfileReport:
+ *
+ *   base ADDRESS
+ *   counter FUNCTION POINT
+ *
+ * where the point is "entry" or the label of the loop or if branch.
+ */
+public class ProfileCounters {
+    public static final String CLASS_NAME = "Profile";
+    public static final String DUMP = "dump";
+    // per class function; the colon is legal in VM names but not in Jack
+    // identifiers, so no subroutine clashes
+    public static final String CLASS_DUMP = "profile:dump";
+    public static final String LAYOUT_FILE = "Profile.layout";
+    public static final String ENTRY = "entry";
+
+    // RAM 16 to 255 holds the statics of every class
+    public static final int STATIC_WORDS = 240;
+    private static final int HEAP_END = 16384;
+
+    // counter names by class, in the order the counters are dumped
+    private Map<String, List<String>> classes = new TreeMap<>();
+    private int staticWords;
+    // read from a layout, otherwise the counters end where the heap does
+    private int base = -1;
+
+    /**
+     * @param className class whose Class.profile:dump writes the counters
+     * @param statics static words of the class, its counters included
+     * @param points "Class.subroutine POINT" of every counter in static order
+     */
+    public synchronized void add(String className, int statics, List<String> points) {
+        if (className.equals(CLASS_NAME))
+            throw new IllegalStateException("Class " + CLASS_NAME + " is reserved by --instrument!");
+
+        staticWords += statics;
+        if (!points.isEmpty())
+            classes.put(className, new ArrayList<>(points));
+    }
+
+    // number of counters over all classes
+    public int size() {
+        int size = 0;
+        for (List<String> points : classes.values())
+            size += points.size();
+        return size;
+    }
+
+    // RAM address of the counter count, the counters follow it
+    public int getBase() {
+        return base >= 0 ? base : HEAP_END - 1 - 2 * size();
+    }
+
+    // "Class.subroutine POINT" of every counter in dump order
+    public List<String> getCounters() {
+        List<String> counters = new ArrayList<>();
+        for (List<String> points : classes.values())
+            counters.addAll(points);
+        return counters;
+    }
+
+    // Profile.dump, which writes the header and has every class dump its counters
+    public void writeDumpClass(VMEmitter out) {
+        if (staticWords > STATIC_WORDS) {
+            throw new IllegalStateException("Statics and profile counters need " + staticWords +
+                    " words, only " + STATIC_WORDS + " fit!");
+        }
+
+        int base = getBase();
+
+        out.writeFunction(CLASS_NAME + "." + DUMP, 0);
+        out.writePush(Segment.CONST, base);
+        out.writePop(Segment.POINTER, 1);
+        out.writePush(Segment.CONST, size());
+        out.writePop(Segment.THAT, 0);
+
+        // each dump takes the address of its first word and returns the next free one
+        out.writePush(Segment.CONST, base + 1);
+        for (String className : classes.keySet())
+            out.writeCall(className + "." + CLASS_DUMP, 1);
+
+        out.writePop(Segment.TEMP, 0);
+        out.writePush(Segment.CONST, 0);
+        out.writeReturn();
+    }
+
+    public void writeLayout(File file) {
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(file))) {
+            writer.write("base " + getBase() + "\n");
+
+            for (String counter : getCounters())
+                writer.write("counter " + counter + "\n");
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot write to file \"" + file.getName() + "\"!");
+        }
+    }
+
+    // counters named by a Profile.layout file
+    public static ProfileCounters load(File file) {
+        ProfileCounters layout = new ProfileCounters();
+        boolean hasBase = false;
+
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            String line;
+            int lineNumber = 0;
+
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                String[] parts = line.trim().split(" ");
+
+                try {
+                    if (parts[0].equals("base") && parts.length == 2 && !hasBase) {
+                        layout.base = Integer.parseInt(parts[1]);
+                        hasBase = true;
+                    } else if (parts[0].equals("counter") && parts.length == 3 && hasBase) {
+                        String className = parts[1].substring(0, Math.max(parts[1].indexOf('.'), 0));
+                        layout.classes.computeIfAbsent(className, c -> new ArrayList<>())
+                                .add(parts[1] + " " + parts[2]);
+                    } else {
+                        throw new NumberFormatException();
+                    }
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException(file.getName() + ":" + lineNumber +
+                            ": format error: unexpected \"" + line + "\"");
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Cannot read file \"" + file.getName() + "\"!");
+        }
+
+        if (!hasBase)
+            throw new IllegalArgumentException(file.getName() + ": format error: no base");
+
+        return layout;
+    }
+}
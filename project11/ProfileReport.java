@@ -0,0 +1,164 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Reads the counters a program compiled with JackAnalyzer --instrument
+ * dumped to RAM and names them after Profile.layout. The RAM contents are
+ * lines of RAM[address] = value, as VMInterpreter --peek prints them, read
+ * from a file or standard input; other lines are skipped. With
+ * --profile-out the entry and branch counts are also written in the format
+ * JackAnalyzer --profile reads, so any emulator can drive the layout of
+ * branches.
+ */
+public class ProfileReport {
+    public static void main(String[] args) {
+        ProfileReport profileReport = new ProfileReport();
+        int exitCode = profileReport.run(args);
+        System.exit(exitCode);
+    }
+
+    private static final Pattern RAM_LINE = Pattern.compile("RAM\\[(\\d+)\\]\\s*=\\s*(-?\\d+)");
+
+    private Map<Integer, Integer> ram = new HashMap<>();
+
+    public int run(String[] args) {
+        File layoutFile = null, ramFile = null, profileFile = null;
+
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--profile-out") && i + 1 < args.length) {
+                profileFile = new File(args[++i]);
+            } else if (args[i].startsWith("-") || ramFile != null) {
+                printUsage();
+                return -1;
+            } else if (layoutFile == null) {
+                layoutFile = new File(args[i]);
+            } else {
+                ramFile = new File(args[i]);
+            }
+        }
+
+        if (layoutFile == null) {
+            printUsage();
+            return -1;
+        }
+
+        try {
+            ProfileCounters layout = ProfileCounters.load(layoutFile);
+            readRam(ramFile);
+
+            List<String> counters = layout.getCounters();
+            long[] counts = readCounters(layout.getBase(), counters.size());
+
+            printCounters(counters, counts);
+
+            if (profileFile != null) {
+                createProfile(counters, counts).write(profileFile);
+                System.out.println("Profile written to " + profileFile.getPath());
+            }
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            System.err.println(e.getMessage());
+            return -1;
+        }
+
+        return 0;
+    }
+
+    // every RAM[address] = value line of the file, or of standard input if null
+    private void readRam(File file) {
+        try (BufferedReader reader = new BufferedReader(file == null ?
+                new InputStreamReader(System.in) : new FileReader(file))) {
+            String line;
+
+            while ((line = reader.readLine()) != null) {
+                Matcher matcher = RAM_LINE.matcher(line);
+                if (matcher.find())
+                    ram.put(Integer.parseInt(matcher.group(1)), Integer.parseInt(matcher.group(2)));
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Cannot read file \"" +
+                    (file == null ? "standard input" : file.getName()) + "\"!");
+        }
+    }
+
+    // each counter is a low and a high 16-bit word after the count at base
+    private long[] readCounters(int base, int size) {
+        if (!ram.containsKey(base))
+            throw new IllegalStateException("RAM[" + base + "] is missing, peek from there on");
+        if (ram.get(base) != size) {
+            throw new IllegalStateException("RAM[" + base + "] holds " + ram.get(base) +
+                    " counters, the layout has " + size + ", was Profile.dump called?");
+        }
+
+        long[] counts = new long[size];
+        for (int i = 0; i < size; i++)
+            counts[i] = word(base + 1 + 2 * i) | word(base + 2 + 2 * i) << 16;
+
+        return counts;
+    }
+
+    private long word(int address) {
+        Integer value = ram.get(address);
+
+        if (value == null)
+            throw new IllegalStateException("RAM[" + address + "] is missing from the dump");
+
+        return value & 0xFFFF;
+    }
+
+    private void printCounters(List<String> counters, long[] counts) {
+        List<Integer> order = new ArrayList<>();
+        for (int i = 0; i < counters.size(); i++)
+            order.add(i);
+        order.sort(Comparator.comparingLong((Integer i) -> counts[i]).reversed());
+
+        System.out.println(String.format("%-32s %-20s %12s", "function", "point", "count"));
+
+        for (int i : order) {
+            String[] parts = counters.get(i).split(" ");
+            System.out.println(String.format("%-32s %-20s %12d", parts[0], parts[1], counts[i]));
+        }
+    }
+
+    // entries become call counts, and the two arms of an if become the
+    // label counts the compiler compares to lay out branches
+    private ExecutionProfile createProfile(List<String> counters, long[] counts) {
+        ExecutionProfile profile = new ExecutionProfile();
+
+        for (int i = 0; i < counters.size(); i++) {
+            String[] parts = counters.get(i).split(" ");
+            String function = parts[0], point = parts[1];
+
+            if (point.equals(ProfileCounters.ENTRY)) {
+                profile.addFunction(function, counts[i], 0);
+            } else if (point.startsWith("IF_TRUE_") || point.startsWith("ELSE_")) {
+                profile.addLabel(function, point, counts[i]);
+                String index = point.substring(point.lastIndexOf('_') + 1);
+                profile.addLabel(function, "IF_START_" + index, counts[i]);
+            }
+        }
+
+        return profile;
+    }
+
+    private void printUsage() {
+        System.err.println("Usage:\n" +
+                           "  java ProfileReport [--profile-out <file>] <Profile.layout> [<ram>]\n" +
+                           "    names the counters Profile.dump left in RAM, read as lines of\n" +
+                           "    RAM[address] = value from ram or standard input, for example\n" +
+                           "    java VMInterpreter --peek <from>:<to> dir | java ProfileReport\n" +
+                           "    dir/Profile.layout\n" +
+                           "    --profile-out <file>  also write entry and branch counts for the\n" +
+                           "                          compiler's --profile");
+    }
+}
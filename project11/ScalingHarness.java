@@ -0,0 +1,302 @@
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Compiles JackGenerator corpora of growing size and reports, for the
+ * project11 analyzer and optionally the project10 one, the time and peak
+ * heap of every build against the size of its input:
+ *
+ *   java ScalingHarness [options] statements 10,20,40,80,160
+ *
+ * Time is the median of the repeated builds. Peak heap is the highest use
+ * of the heap pools during a build that started right after a collection,
+ * so it includes garbage the build had not yet collected. The exponent
+ * column is the slope of log time against log input bytes since the
+ * previous size: about 1 for linear behavior, higher where something
+ * grows faster than the input.
+ */
+public class ScalingHarness {
+    public static void main(String[] args) {
+        ScalingHarness scalingHarness = new ScalingHarness();
+        int exitCode = scalingHarness.run(args);
+        System.exit(exitCode);
+    }
+
+    // exponents above this are marked in the report
+    private static final double NONLINEAR = 1.3;
+
+    private JackGenerator generator = new JackGenerator();
+    private String knob;
+    private int[] sizes;
+    private int repeat = 3;
+    private File project10Classes;
+    private File csvFile;
+
+    private Method project10Run;
+    private Object project10Analyzer;
+
+    public int run(String[] args) {
+        try {
+            for (int i = 0; i < args.length; i++) {
+                if (args[i].equals("--repeat") && i + 1 < args.length) {
+                    repeat = Integer.parseInt(args[++i]);
+                } else if (args[i].equals("--project10") && i + 1 < args.length) {
+                    project10Classes = new File(args[++i]);
+                } else if (args[i].equals("--csv") && i + 1 < args.length) {
+                    csvFile = new File(args[++i]);
+                } else if (args[i].equals("--seed") && i + 1 < args.length) {
+                    generator.setSeed(Long.parseLong(args[++i]));
+                } else if (args[i].equals("--strings") && i + 1 < args.length) {
+                    generator.setStringDensity(Double.parseDouble(args[++i]));
+                } else if (args[i].startsWith("--") && i + 1 < args.length) {
+                    generator.set(args[i].substring(2), Integer.parseInt(args[++i]));
+                } else if (knob == null && !args[i].startsWith("-")) {
+                    knob = args[i];
+                } else if (sizes == null && !args[i].startsWith("-")) {
+                    sizes = Arrays.stream(args[i].split(",")).mapToInt(Integer::parseInt).toArray();
+                } else {
+                    printUsage();
+                    return -1;
+                }
+            }
+
+            if (sizes == null || repeat < 1) {
+                printUsage();
+                return -1;
+            }
+
+            // reject an unknown knob before generating anything
+            for (int size : sizes)
+                generator.set(knob, size);
+        } catch (IllegalArgumentException e) {
+            printUsage();
+            return -1;
+        }
+
+        try {
+            if (project10Classes != null)
+                loadProject10();
+
+            List<double[]> rows = sweep();
+            if (csvFile != null)
+                writeCsv(rows);
+        } catch (IOException | IllegalArgumentException | IllegalStateException e) {
+            System.err.println(e.getMessage());
+            return -1;
+        }
+
+        return 0;
+    }
+
+    // one row per size: size, classes, bytes, tokens, then ms and heap MB per analyzer
+    private List<double[]> sweep() throws IOException {
+        List<double[]> rows = new ArrayList<>();
+        File root = Files.createTempDirectory("jackscale").toFile();
+
+        System.out.println(String.format(Locale.ROOT, "%11s %10s %9s | %9s %8s %7s %5s | %9s %8s %7s %5s",
+                knob, "bytes", "tokens", "p11 ms", "ns/byte", "heap MB", "exp",
+                "p10 ms", "ns/byte", "heap MB", "exp"));
+
+        try {
+            for (int s = 0; s < sizes.length; s++) {
+                File directory = new File(root, String.valueOf(sizes[s]));
+                generator.set(knob, sizes[s]);
+                List<File> sources = generator.generate(directory);
+
+                long bytes = 0, tokens = 0;
+                for (File source : sources) {
+                    bytes += source.length();
+                    tokens += countTokens(source);
+                }
+
+                // the first build of a session also pays for class loading and JIT
+                if (s == 0) {
+                    measure(directory, false);
+                    if (project10Classes != null)
+                        measure(directory, true);
+                }
+
+                double[] project11 = measure(directory, false);
+                double[] project10 = project10Classes != null ? measure(directory, true) :
+                        new double[] {Double.NaN, Double.NaN};
+                rows.add(new double[] {sizes[s], sources.size(), bytes, tokens,
+                        project11[0], project11[1], project10[0], project10[1]});
+
+                printRow(rows);
+                delete(directory);
+            }
+        } finally {
+            root.delete();
+        }
+
+        return rows;
+    }
+
+    private void printRow(List<double[]> rows) {
+        double[] row = rows.get(rows.size() - 1);
+        double[] previous = rows.size() > 1 ? rows.get(rows.size() - 2) : null;
+
+        System.out.println(String.format(Locale.ROOT, "%11d %10d %9d | %s | %s",
+                (int) row[0], (long) row[2], (long) row[3],
+                columns(row, previous, 4), columns(row, previous, 6)));
+    }
+
+    private String columns(double[] row, double[] previous, int column) {
+        if (Double.isNaN(row[column]))
+            return String.format("%9s %8s %7s %5s", "-", "-", "-", "-");
+
+        double millis = row[column];
+        String exponent = "";
+        if (previous != null && previous[2] != row[2] && !Double.isNaN(previous[column])) {
+            double slope = Math.log(millis / previous[column]) / Math.log(row[2] / previous[2]);
+            exponent = String.format(Locale.ROOT, "%.2f", slope) + (slope > NONLINEAR ? "*" : "");
+        }
+
+        return String.format(Locale.ROOT, "%9.1f %8.1f %7.1f %5s",
+                millis, millis * 1e6 / row[2], row[column + 1], exponent);
+    }
+
+    // median milliseconds and highest peak heap MB of repeated builds
+    private double[] measure(File directory, boolean project10) {
+        double[] millis = new double[repeat];
+        long peak = 0;
+
+        for (int i = 0; i < repeat; i++) {
+            System.gc();
+            resetPeakHeap();
+
+            long start = System.nanoTime();
+            build(directory, project10);
+            millis[i] = (System.nanoTime() - start) / 1e6;
+
+            peak = Math.max(peak, getPeakHeap());
+        }
+
+        Arrays.sort(millis);
+        return new double[] {millis[repeat / 2], peak / (1024.0 * 1024.0)};
+    }
+
+    private void build(File directory, boolean project10) {
+        String[] args = {"-j", "1", directory.getPath()};
+        int exitCode;
+
+        try {
+            if (project10) {
+                // project10 reports failures on System.err itself
+                exitCode = (Integer) project10Run.invoke(project10Analyzer, (Object) args);
+            } else {
+                PrintStream discard = new PrintStream(OutputStream.nullOutputStream());
+                exitCode = new JackAnalyzer(null, discard, System.err).run(
+                        new String[] {"--no-cache", "-j", "1", directory.getPath()});
+            }
+        } catch (StackOverflowError e) {
+            throw new IllegalStateException("Stack overflow compiling " + knob + " " +
+                    directory.getName() + ", try a larger -Xss!");
+        } catch (InvocationTargetException e) {
+            if (e.getCause() instanceof StackOverflowError)
+                throw new IllegalStateException("Stack overflow in project10 compiling " + knob +
+                        " " + directory.getName() + ", try a larger -Xss!");
+            throw new IllegalStateException("project10 analyzer failed: " + e.getCause());
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException("Cannot run the project10 analyzer!");
+        }
+
+        if (exitCode != 0)
+            throw new IllegalStateException("Build of " + knob + " " + directory.getName() + " failed!");
+    }
+
+    // the project10 classes share names with these, so they get their own loader
+    private void loadProject10() {
+        try {
+            URLClassLoader loader = new URLClassLoader(
+                    new URL[] {project10Classes.toURI().toURL()}, null);
+            Class<?> analyzer = loader.loadClass("JackAnalyzer");
+
+            project10Analyzer = analyzer.getConstructor().newInstance();
+            project10Run = analyzer.getMethod("run", String[].class);
+        } catch (IOException | ReflectiveOperationException e) {
+            throw new IllegalArgumentException("Cannot load the project10 analyzer from \"" +
+                    project10Classes.getPath() + "\"!");
+        }
+    }
+
+    private static long countTokens(File source) {
+        JackTokenizer tokenizer = new JackTokenizer(source);
+        long tokens = 0;
+
+        while (tokenizer.hasMoreTokens()) {
+            tokenizer.advance();
+            tokens++;
+        }
+
+        return tokens;
+    }
+
+    private static void resetPeakHeap() {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP)
+                pool.resetPeakUsage();
+        }
+    }
+
+    private static long getPeakHeap() {
+        long peak = 0;
+
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP)
+                peak += pool.getPeakUsage().getUsed();
+        }
+
+        return peak;
+    }
+
+    private static void delete(File directory) {
+        for (File f : directory.listFiles())
+            f.delete();
+        directory.delete();
+    }
+
+    private void writeCsv(List<double[]> rows) {
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(csvFile))) {
+            writer.write(knob + ",classes,bytes,tokens,project11Millis,project11HeapMB," +
+                    "project10Millis,project10HeapMB\n");
+
+            for (double[] row : rows) {
+                writer.write(String.format(Locale.ROOT, "%d,%d,%d,%d,%.3f,%.3f,%s,%s\n",
+                        (int) row[0], (int) row[1], (long) row[2], (long) row[3], row[4], row[5],
+                        Double.isNaN(row[6]) ? "" : String.format(Locale.ROOT, "%.3f", row[6]),
+                        Double.isNaN(row[7]) ? "" : String.format(Locale.ROOT, "%.3f", row[7])));
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot write to file \"" + csvFile.getName() + "\"!");
+        }
+
+        System.out.println("Results written to " + csvFile.getPath());
+    }
+
+    private void printUsage() {
+        System.err.println("Usage:\n" +
+                           "  java ScalingHarness [options] <size> <n,n,...>\n" +
+                           "    size is classes, subroutines, statements, depth or identifiers;\n" +
+                           "    the others, --strings and --seed take JackGenerator's options\n" +
+                           "    --repeat <n>           builds per size, default 3\n" +
+                           "    --project10 <classes>  also measure the compiled project10 analyzer\n" +
+                           "    --csv <file>           write the results as CSV");
+    }
+}
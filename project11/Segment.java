@@ -1,3 +1,6 @@
+import java.util.HashMap;
+import java.util.Map;
+
 public enum Segment {
     CONST("constant"),
     ARG("argument"),
@@ -8,6 +11,8 @@ public enum Segment {
     POINTER("pointer"),
     TEMP("temp");
 
+    private static final Map<String, Segment> MNEMONIC_MAP = new HashMap<>();
+
     private String mnemonic;
 
     Segment(String mne) {
@@ -18,4 +23,13 @@ public enum Segment {
     public String getMnemonic() {
         return mnemonic;
     }
+
+    public static Segment getValueByMnemonic(String mnemonic) {
+        return MNEMONIC_MAP.get(mnemonic);
+    }
+
+    static {
+        for (Segment value : values())
+            MNEMONIC_MAP.put(value.getMnemonic(), value);
+    }
 }
@@ -0,0 +1,228 @@
+import java.util.Arrays;
+
+/**
+ * Turns the condition of an if or while statement into conditional jumps
+ * when it joins comparisons and boolean constants with & and |. Jack's &
+ * and | are bitwise, but on operands that are always true (-1) or false
+ * (0) they agree with the logical operators, so the second operand can be
+ * skipped once the first decides the outcome, provided skipping it is
+ * not observable: it makes no calls and writes nothing but temp and
+ * pointer 1.
+ *
+ * The condition arrives as the VM code compileExpression wrote for its
+ * value. Replaying that postfix code on a stack of operand ranges rebuilds
+ * the expression tree, so the parser needs no second form of expressions.
+ */
+public class ShortCircuit {
+    // what a node of the tree computes
+    private static final int VALUE = 0;
+    private static final int ONE = 1;
+    private static final int TRUE = 2;
+    private static final int FALSE = 3;
+    private static final int COMPARE = 4;
+    private static final int NOT = 5;
+    private static final int AND = 6;
+    private static final int OR = 7;
+
+    // per node: kind, first and past the last command, operands
+    private int[] kinds = new int[8];
+    private int[] starts = new int[8];
+    private int[] ends = new int[8];
+    private int[] lefts = new int[8];
+    private int[] rights = new int[8];
+    private int nodes;
+
+    private int[] stack = new int[8];
+    private int depth;
+
+    // commands before i that may not be skipped
+    private int[] effects = new int[0];
+
+    private VMBuffer code;
+    private int labelIndex;
+
+    /**
+     * write a jump to label taken when the condition is true, or when it is
+     * false if jumpIf is false
+     * @return false if the condition has no & or | that can be skipped, in
+     *         which case nothing was written
+     */
+    public boolean writeJump(VMBuffer condition, boolean jumpIf, String label, VMEmitter out) {
+        code = condition;
+
+        if (!build())
+            return false;
+
+        int root = stack[0];
+        while (kinds[root] == NOT)
+            root = lefts[root];
+
+        if (!canSkip(root))
+            return false;
+
+        writeJump(stack[0], jumpIf, label, out);
+        return true;
+    }
+
+    // replay the stack effect of every command, false if one is not understood
+    private boolean build() {
+        int size = code.size();
+        nodes = 0;
+        depth = 0;
+
+        if (effects.length <= size)
+            effects = new int[size * 2 + 1];
+
+        // where the operands of pops that push nothing began
+        int pending = Integer.MAX_VALUE;
+
+        for (int i = 0; i < size; i++) {
+            int kind = VALUE, start = Math.min(pending, i), left = -1, right = -1;
+            boolean effect = false;
+
+            switch (code.getKind(i)) {
+                case VMBuffer.PUSH:
+                    // a constant only stands alone if no popped operands belong to it
+                    if (code.getSegment(i) == Segment.CONST && code.getIndex(i) <= 1 &&
+                            pending == Integer.MAX_VALUE)
+                        kind = code.getIndex(i) == 0 ? FALSE : ONE;
+                    break;
+                case VMBuffer.POP:
+                    if (depth == 0)
+                        return false;
+                    pending = Math.min(pending, starts[stack[--depth]]);
+                    effects[i + 1] = effects[i] + (code.getSegment(i) == Segment.TEMP ||
+                            code.isAccess(i, Segment.POINTER) && code.getIndex(i) == 1 ? 0 : 1);
+                    continue;
+                case VMBuffer.ARITHMETIC:
+                    Command command = code.getCommand(i);
+
+                    if (command == Command.NEG || command == Command.NOT) {
+                        if (depth < 1)
+                            return false;
+                        left = stack[--depth];
+
+                        // operands of not and & and | must cover all of their commands
+                        boolean whole = pending == Integer.MAX_VALUE;
+
+                        if (command == Command.NOT && isBoolean(left) && whole)
+                            kind = NOT;
+                        else if (command == Command.NEG && kinds[left] == ONE && whole)
+                            kind = TRUE;
+                    } else {
+                        if (depth < 2)
+                            return false;
+                        right = stack[--depth];
+                        left = stack[--depth];
+                        boolean operands = isBoolean(left) && isBoolean(right) &&
+                                pending == Integer.MAX_VALUE;
+
+                        if (command == Command.LT || command == Command.GT || command == Command.EQ)
+                            kind = COMPARE;
+                        else if (command == Command.AND && operands)
+                            kind = AND;
+                        else if (command == Command.OR && operands)
+                            kind = OR;
+                    }
+                    start = Math.min(pending, starts[left]);
+                    break;
+                case VMBuffer.CALL:
+                    int nArgs = code.getIndex(i);
+                    if (depth < nArgs)
+                        return false;
+                    depth -= nArgs;
+                    if (nArgs > 0)
+                        start = Math.min(pending, starts[stack[depth]]);
+                    effect = true;
+                    break;
+                default:
+                    // labels and jumps are not part of expressions
+                    return false;
+            }
+
+            effects[i + 1] = effects[i] + (effect ? 1 : 0);
+            pending = Integer.MAX_VALUE;
+            push(addNode(kind, start, i + 1, left, right));
+        }
+
+        return depth == 1 && pending == Integer.MAX_VALUE;
+    }
+
+    private void writeJump(int node, boolean jumpIf, String label, VMEmitter out) {
+        int left = lefts[node], right = rights[node];
+
+        switch (kinds[node]) {
+            case TRUE:
+            case FALSE:
+                if (jumpIf == (kinds[node] == TRUE))
+                    out.writeGoto(label);
+                return;
+            case NOT:
+                writeJump(left, !jumpIf, label, out);
+                return;
+            case AND:
+            case OR:
+                if (!canSkip(node))
+                    break;
+
+                // & jumps on false and | on true as soon as the left operand does
+                boolean decides = kinds[node] == OR;
+                if (jumpIf == decides) {
+                    writeJump(left, jumpIf, label, out);
+                    writeJump(right, jumpIf, label, out);
+                } else {
+                    String skip = "SHORT_CIRCUIT_" + labelIndex++;
+                    writeJump(left, decides, skip, out);
+                    writeJump(right, jumpIf, label, out);
+                    out.writeLabel(skip);
+                }
+                return;
+            default:
+                break;
+        }
+
+        // any other operand is evaluated and tested as a whole
+        for (int i = starts[node]; i < ends[node]; i++)
+            code.replay(i, out);
+        if (!jumpIf)
+            out.writeArithmetic(Command.NOT);
+        out.writeIf(label);
+    }
+
+    // & or | whose right operand can go unevaluated
+    private boolean canSkip(int node) {
+        if (kinds[node] != AND && kinds[node] != OR)
+            return false;
+
+        int right = rights[node];
+        return effects[ends[right]] == effects[starts[right]];
+    }
+
+    // always -1 or 0
+    private boolean isBoolean(int node) {
+        return kinds[node] != VALUE && kinds[node] != ONE;
+    }
+
+    private int addNode(int kind, int start, int end, int left, int right) {
+        if (nodes == kinds.length) {
+            kinds = Arrays.copyOf(kinds, nodes * 2);
+            starts = Arrays.copyOf(starts, nodes * 2);
+            ends = Arrays.copyOf(ends, nodes * 2);
+            lefts = Arrays.copyOf(lefts, nodes * 2);
+            rights = Arrays.copyOf(rights, nodes * 2);
+        }
+
+        kinds[nodes] = kind;
+        starts[nodes] = start;
+        ends[nodes] = end;
+        lefts[nodes] = left;
+        rights[nodes] = right;
+        return nodes++;
+    }
+
+    private void push(int node) {
+        if (depth == stack.length)
+            stack = Arrays.copyOf(stack, depth * 2);
+        stack[depth++] = node;
+    }
+}
@@ -0,0 +1,163 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Maps every command of a compiled class, counted from 0 in the order of
+ * its .vm or .vmb file with labels included, to the Jack file, line and
+ * subroutine it came from. JackAnalyzer --source-map writes X.map next to
+ * X.vm as text:
+ *
+ *   source X.jack
+ *   function FIRST_COMMAND NAME
+ *   FIRST_COMMAND LINE
+ *   end COMMAND_COUNT
+ *
+ * A function line starts the commands of a subroutine and the numbered
+ * lines that follow give the source line from their first command up to
+ * the next entry, so a run of commands from one line takes one entry.
+ */
+public class SourceMap {
+    public static final String EXTENSION = ".map";
+
+    private String source;
+    private int[] lines = new int[256];
+    private int size;
+    private List<String> functionNames = new ArrayList<>();
+    private List<Integer> functionStarts = new ArrayList<>();
+
+    public SourceMap(String source) {
+        this.source = source;
+    }
+
+    // X.map for X.vm or X.vmb
+    public static File fileFor(File vmFile) {
+        String filename = vmFile.getName();
+        int extension = filename.lastIndexOf('.');
+
+        return new File(vmFile.getParentFile(),
+                (extension > 0 ? filename.substring(0, extension) : filename) + EXTENSION);
+    }
+
+    // append the commands of one subroutine, which starts with its function command
+    public void add(VMBuffer subroutine) {
+        functionNames.add(subroutine.getName(0));
+        functionStarts.add(size);
+
+        for (int i = 0; i < subroutine.size(); i++)
+            addLine(subroutine.getLine(i));
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    // number of commands mapped
+    public int size() {
+        return size;
+    }
+
+    // source line of a command, 0 if unknown
+    public int getLine(int command) {
+        return command < size ? lines[command] : 0;
+    }
+
+    // subroutine a command belongs to, or null before the first one
+    public String getFunction(int command) {
+        String function = null;
+
+        for (int i = 0; i < functionStarts.size() && functionStarts.get(i) <= command; i++)
+            function = functionNames.get(i);
+
+        return function;
+    }
+
+    public void write(File file) {
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(file))) {
+            writer.write("source " + source + "\n");
+
+            int function = 0, lastLine = -1;
+            for (int i = 0; i < size; i++) {
+                if (function < functionStarts.size() && functionStarts.get(function) == i) {
+                    writer.write("function " + i + " " + functionNames.get(function++) + "\n");
+                    lastLine = -1;
+                }
+
+                if (lines[i] != lastLine) {
+                    writer.write(i + " " + lines[i] + "\n");
+                    lastLine = lines[i];
+                }
+            }
+
+            writer.write("end " + size + "\n");
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot write to file \"" + file.getName() + "\"!");
+        }
+    }
+
+    public static SourceMap load(File file) {
+        SourceMap map = null;
+
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            String line;
+            int lineNumber = 0, lastLine = 0;
+            boolean ended = false;
+
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                String[] parts = line.trim().split(" ", 3);
+
+                try {
+                    if (parts[0].equals("source") && parts.length == 2 && map == null) {
+                        map = new SourceMap(parts[1]);
+                    } else if (map == null || ended) {
+                        throw new NumberFormatException();
+                    } else if (parts[0].equals("end") && parts.length == 2) {
+                        map.fill(Integer.parseInt(parts[1]), lastLine);
+                        ended = true;
+                    } else if (parts[0].equals("function") && parts.length == 3) {
+                        map.fill(Integer.parseInt(parts[1]), lastLine);
+                        map.functionStarts.add(map.size);
+                        map.functionNames.add(parts[2]);
+                    } else if (parts.length == 2) {
+                        map.fill(Integer.parseInt(parts[0]), lastLine);
+                        lastLine = Integer.parseInt(parts[1]);
+                    } else {
+                        throw new NumberFormatException();
+                    }
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException(file.getName() + ":" + lineNumber +
+                            ": format error: unexpected \"" + line + "\"");
+                }
+            }
+
+            if (!ended)
+                throw new IllegalArgumentException(file.getName() + ": format error: no end");
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Cannot read file \"" + file.getName() + "\"!");
+        }
+
+        return map;
+    }
+
+    // extend the current run of lines up to, not including, command
+    private void fill(int command, int line) {
+        if (command < size)
+            throw new NumberFormatException();
+
+        while (size < command)
+            addLine(line);
+    }
+
+    private void addLine(int line) {
+        if (size == lines.length)
+            lines = Arrays.copyOf(lines, size * 2);
+        lines[size++] = line;
+    }
+}
@@ -1,22 +1,94 @@
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
+/**
+ * Variables in scope while compiling a class, kept in flat arrays rather
+ * than an object per entry. Symbols are numbered in the order they are
+ * defined and found through an open-addressing table of those numbers.
+ *
+ * Scopes form a stack: the class scope at the bottom, the subroutine scope
+ * above it and any nested block scopes above that. A name defined in an
+ * inner scope hides the same name outside it until its scope is left.
+ * Leaving a scope only pops the stack. Symbols remember which scope they
+ * were defined in, and a table slot whose symbols have all gone out of
+ * scope counts as empty and is reused, so startSubroutine() costs the same
+ * however many locals there were. Out of scope symbols are dropped when
+ * the table is next rebuilt.
+ *
+ * resolve() finds a name with one probe sequence and returns a handle that
+ * packs its kind, index and type, read with getKind(), getIndex() and
+ * getType().
+ */
 public class SymbolTable {
-    private Map<String, SymbolEntry> classScope;
-    private Map<String, SymbolEntry> subScope;
+    // resolve() result for names that are not in scope
+    public static final int NOT_FOUND = -1;
+
+    // handle layout: kind in bits 0-1, index in 2-17, type id in 18-30
+    private static final int KIND_BITS = 2;
+    private static final int INDEX_BITS = 16;
+    private static final int MAX_INDEX = (1 << INDEX_BITS) - 1;
+    private static final int MAX_TYPES = 1 << (31 - KIND_BITS - INDEX_BITS);
+
+    private static final Kind[] KINDS = Kind.values();
+
+    // by symbol number: name and its hash, handle, the symbol it hides or
+    // -1, and the depth and instance of the scope it was defined in
+    private String[] names = new String[32];
+    private int[] hashes = new int[32];
+    private int[] handles = new int[32];
+    private int[] hidden = new int[32];
+    private int[] depths = new int[32];
+    private int[] instances = new int[32];
+    private int symbolCount;
+
+    // open-addressing table of symbol number + 1, 0 is empty; every slot
+    // holds one name, its newest symbol first and older ones through hidden
+    private int[] slots = new int[64];
+    private int usedSlots;
+
+    // instance of the scope open at each depth, the class scope is depth 0
+    private int[] openInstances = new int[8];
+    private int scopeDepth = 1;
+    private int nextInstance = 1;
+
+    private String[] types = new String[16];
+    private Map<String, Integer> typeIds = new HashMap<>();
+    private int typeCount;
+
     private int numStatic, numField, numArg, numVar;
 
     public SymbolTable() {
-        classScope = new HashMap<>();
-        subScope = new HashMap<>();
+        pushScope();
     }
 
+    // leave the subroutine and any block scopes, then open a new subroutine scope
     public void startSubroutine() {
-        subScope.clear();
+        scopeDepth = 1;
+        pushScope();
         numArg = 0;
         numVar = 0;
     }
 
+    /**
+     * open a scope inside the current one; ARG and VAR indices keep counting
+     * across nested scopes so every local still has its own slot
+     */
+    public void pushScope() {
+        if (scopeDepth == openInstances.length)
+            openInstances = Arrays.copyOf(openInstances, scopeDepth * 2);
+
+        openInstances[scopeDepth++] = nextInstance++;
+    }
+
+    // forget the symbols of the innermost scope opened by pushScope()
+    public void popScope() {
+        if (scopeDepth <= 2)
+            throw new IllegalStateException("No nested scope to leave!");
+
+        scopeDepth--;
+    }
+
     /**
      * defines a new identifier for a given name, type, and kind
      * @param name
@@ -27,13 +99,25 @@ public class SymbolTable {
         int currentIndex = varCount(kind);
         incrementVarCount(kind);
 
-        SymbolEntry newEntry = new SymbolEntry(type, kind, currentIndex);
+        if (currentIndex > MAX_INDEX)
+            throw new IllegalStateException("semantic error: too many variables of kind " + kind);
 
-        if (kind == Kind.STATIC || kind == Kind.FIELD) {
-            classScope.put(name, newEntry);
-        } else {
-            subScope.put(name, newEntry);
-        }
+        // slots of closed scopes count too, they lengthen every probe
+        if (symbolCount == names.length || (usedSlots + 1) * 2 > slots.length)
+            rebuild();
+
+        // class variables live in the class scope whatever is open
+        int depth = kind == Kind.STATIC || kind == Kind.FIELD ? 0 : scopeDepth - 1;
+        int symbol = symbolCount++;
+
+        names[symbol] = name;
+        hashes[symbol] = hash(name);
+        handles[symbol] = kind.ordinal() | currentIndex << KIND_BITS |
+                typeId(type) << (KIND_BITS + INDEX_BITS);
+        depths[symbol] = depth;
+        instances[symbol] = openInstances[depth];
+
+        insert(symbol);
     }
 
     public int varCount(Kind kind) {
@@ -57,35 +141,58 @@ public class SymbolTable {
     }
 
     /**
-     * returns kind of identifier named name
-     * @param name
-     * @return STATIC, FIELD, ARG, VAR, or null
+     * look name up in the innermost scope that defines it
+     * @return handle of the symbol, or NOT_FOUND
      */
-    public Kind kindOf(String name) {
-        SymbolEntry entry = find(name);
+    public int resolve(String name) {
+        int hash = hash(name);
+        int mask = slots.length - 1;
 
-        if (entry == null)
-            return null;
+        // a name can also have a slot left by a scope that closed, so one
+        // with nothing in scope is passed over rather than ending the search
+        for (int slot = hash & mask; slots[slot] != 0; slot = (slot + 1) & mask) {
+            int symbol = slots[slot] - 1;
 
-        return entry.getKind();
+            if (hashes[symbol] == hash && names[symbol].equals(name)) {
+                symbol = visible(slot);
+                if (symbol >= 0)
+                    return handles[symbol];
+            }
+        }
+
+        return NOT_FOUND;
     }
 
-    public String typeOf(String name) {
-        SymbolEntry entry = find(name);
+    // kind of a resolved symbol, null for NOT_FOUND
+    public static Kind getKind(int handle) {
+        return handle == NOT_FOUND ? null : KINDS[handle & ((1 << KIND_BITS) - 1)];
+    }
 
-        if (entry == null)
-            return null;
+    // index of a resolved symbol in its segment, 0 for NOT_FOUND
+    public static int getIndex(int handle) {
+        return handle == NOT_FOUND ? 0 : (handle >>> KIND_BITS) & MAX_INDEX;
+    }
 
-        return entry.getType();
+    // declared type of a resolved symbol, null for NOT_FOUND
+    public String getType(int handle) {
+        return handle == NOT_FOUND ? null : types[handle >>> (KIND_BITS + INDEX_BITS)];
     }
 
-    public int indexOf(String name) {
-        SymbolEntry entry = find(name);
+    /**
+     * returns kind of identifier named name
+     * @param name
+     * @return STATIC, FIELD, ARG, VAR, or null
+     */
+    public Kind kindOf(String name) {
+        return getKind(resolve(name));
+    }
 
-        if (entry == null)
-            return 0;
+    public String typeOf(String name) {
+        return getType(resolve(name));
+    }
 
-        return entry.getIndex();
+    public int indexOf(String name) {
+        return getIndex(resolve(name));
     }
 
     private void incrementVarCount(Kind kind) {
@@ -104,42 +211,115 @@ public class SymbolTable {
         }
     }
 
+    private boolean inScope(int symbol) {
+        int depth = depths[symbol];
+        return depth < scopeDepth && openInstances[depth] == instances[symbol];
+    }
+
     /**
-     * find the symbol entry in either the class or subroutine scope 
-     * @param name
-     * @return SymbolEntry
+     * the symbol a slot stands for: the newest one in scope among the
+     * symbol it holds and those that symbol hides
+     * @return symbol number, or -1 if they are all out of scope
      */
-    private SymbolEntry find(String name) {
-        SymbolEntry entry = classScope.get(name);
+    private int visible(int slot) {
+        int symbol = slots[slot] - 1;
 
-        if (entry == null) {
-            entry = subScope.get(name);
-        }
+        while (symbol >= 0 && !inScope(symbol))
+            symbol = hidden[symbol];
 
-        return entry;
+        return symbol;
     }
 
-    private class SymbolEntry {
-        private String type;
-        private Kind kind;
-        private int index;
+    // enter symbol in the table, hiding a visible symbol of the same name
+    private void insert(int symbol) {
+        String name = names[symbol];
+        int mask = slots.length - 1;
+        int slot = hashes[symbol] & mask;
+
+        hidden[symbol] = -1;
+
+        while (slots[slot] != 0) {
+            int visible = visible(slot);
+
+            // slot only holds symbols that went out of scope; taking it
+            // still hides any outer definition further along
+            if (visible < 0)
+                break;
 
-        public SymbolEntry(String t, Kind k, int i) {
-            type = t;
-            kind = k;
-            index = i;
+            if (names[visible].equals(name)) {
+                hidden[symbol] = visible;
+                break;
+            }
+
+            slot = (slot + 1) & mask;
         }
 
-        public String getType() {
-            return type;
+        if (slots[slot] == 0)
+            usedSlots++;
+        slots[slot] = symbol + 1;
+    }
+
+    // drop symbols out of scope, make room for more and refill the table
+    // oldest first, so inner definitions hide outer ones again
+    private void rebuild() {
+        int count = 0;
+
+        for (int symbol = 0; symbol < symbolCount; symbol++) {
+            if (!inScope(symbol))
+                continue;
+
+            names[count] = names[symbol];
+            hashes[count] = hashes[symbol];
+            handles[count] = handles[symbol];
+            depths[count] = depths[symbol];
+            instances[count] = instances[symbol];
+            count++;
         }
 
-        public Kind getKind() {
-            return kind;
+        Arrays.fill(names, count, symbolCount, null);
+        symbolCount = count;
+
+        if (count * 2 >= names.length) {
+            int size = names.length * 2;
+            names = Arrays.copyOf(names, size);
+            hashes = Arrays.copyOf(hashes, size);
+            handles = Arrays.copyOf(handles, size);
+            hidden = Arrays.copyOf(hidden, size);
+            depths = Arrays.copyOf(depths, size);
+            instances = Arrays.copyOf(instances, size);
         }
 
-        public int getIndex() {
-            return index;
+        // at most a quarter full after the rebuild
+        int size = slots.length;
+        while ((count + 1) * 4 > size)
+            size *= 2;
+
+        slots = new int[size];
+        usedSlots = 0;
+        for (int symbol = 0; symbol < count; symbol++)
+            insert(symbol);
+    }
+
+    private int typeId(String type) {
+        Integer id = typeIds.get(type);
+
+        if (id == null) {
+            if (typeCount == MAX_TYPES)
+                throw new IllegalStateException("semantic error: too many variable types");
+            if (typeCount == types.length)
+                types = Arrays.copyOf(types, typeCount * 2);
+
+            id = typeCount;
+            types[typeCount++] = type;
+            typeIds.put(type, id);
         }
+
+        return id;
+    }
+
+    // spread String's hash so similar names do not share a run of slots
+    private static int hash(String name) {
+        int h = name.hashCode();
+        return h ^ (h >>> 16);
     }
 }
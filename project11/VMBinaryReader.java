@@ -0,0 +1,135 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+/**
+ * Reads a .vmb file written by VMBinaryWriter and replays every command
+ * into a VMEmitter, the binary counterpart of VMParser.
+ */
+public class VMBinaryReader {
+    private static final Segment[] SEGMENTS = Segment.values();
+    private static final Command[] COMMANDS = Command.values();
+
+    private File vmFile;
+    private byte[] data;
+    private int position;
+    private String[] strings;
+
+    public VMBinaryReader(File file) {
+        vmFile = file;
+        try {
+            data = Files.readAllBytes(file.toPath());
+        } catch (IOException e) {
+            throw new IllegalArgumentException("File not found or is directory!");
+        }
+    }
+
+    public void parse(VMEmitter emitter) {
+        readHeader();
+
+        int end = readVarint();
+        end += position;
+        if (end < position || end > data.length)
+            throw formatError("code length past end of file");
+
+        while (position < end) {
+            int opcode = data[position++] & 0xFF;
+
+            if (opcode < VMBinaryWriter.POP) {
+                emitter.writePush(SEGMENTS[opcode - VMBinaryWriter.PUSH], readVarint());
+            } else if (opcode < VMBinaryWriter.ARITHMETIC) {
+                emitter.writePop(SEGMENTS[opcode - VMBinaryWriter.POP], readVarint());
+            } else if (opcode < VMBinaryWriter.LABEL) {
+                emitter.writeArithmetic(COMMANDS[opcode - VMBinaryWriter.ARITHMETIC]);
+            } else {
+                switch (opcode) {
+                    case VMBinaryWriter.LABEL:
+                        emitter.writeLabel(readString());
+                        break;
+                    case VMBinaryWriter.GOTO:
+                        emitter.writeGoto(readString());
+                        break;
+                    case VMBinaryWriter.IF_GOTO:
+                        emitter.writeIf(readString());
+                        break;
+                    case VMBinaryWriter.CALL:
+                        String callee = readString();
+                        emitter.writeCall(callee, readVarint());
+                        break;
+                    case VMBinaryWriter.FUNCTION:
+                        String function = readString();
+                        emitter.writeFunction(function, readVarint());
+                        break;
+                    case VMBinaryWriter.RETURN:
+                        emitter.writeReturn();
+                        break;
+                    default:
+                        throw formatError("unknown opcode " + opcode);
+                }
+            }
+        }
+    }
+
+    // magic, version and string table
+    private void readHeader() {
+        byte[] magic = VMBinaryWriter.MAGIC;
+
+        if (data.length < magic.length + 1)
+            throw formatError("not a binary VM file");
+        for (int i = 0; i < magic.length; i++) {
+            if (data[i] != magic[i])
+                throw formatError("not a binary VM file");
+        }
+
+        position = magic.length;
+        int version = data[position++];
+        if (version != VMBinaryWriter.VERSION)
+            throw formatError("unsupported version " + version);
+
+        int count = readVarint();
+        if (count < 0 || count > data.length)
+            throw formatError("invalid string table");
+
+        strings = new String[count];
+        for (int i = 0; i < count; i++) {
+            int length = readVarint();
+            if (length < 0 || position + length > data.length)
+                throw formatError("string past end of file");
+
+            strings[i] = new String(data, position, length, StandardCharsets.UTF_8);
+            position += length;
+        }
+    }
+
+    private String readString() {
+        int index = readVarint();
+
+        if (index < 0 || index >= strings.length)
+            throw formatError("string index " + index + " out of range");
+
+        return strings[index];
+    }
+
+    private int readVarint() {
+        int value = 0;
+
+        for (int shift = 0; shift < 35; shift += 7) {
+            if (position == data.length)
+                throw formatError("unexpected end of file");
+
+            int b = data[position++];
+            value |= (b & 0x7F) << shift;
+
+            if ((b & 0x80) == 0)
+                return value;
+        }
+
+        throw formatError("varint too long");
+    }
+
+    private IllegalStateException formatError(String message) {
+        return new IllegalStateException(vmFile.getName() + ":" + position +
+                ": format error: " + message);
+    }
+}
@@ -0,0 +1,141 @@
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes VM commands in the compact .vmb format read by VMBinaryReader.
+ * The file is the magic bytes "JVMB", a version byte, the string table and
+ * the code:
+ *
+ *   strings:  count, then per string its UTF-8 length and bytes
+ *   code:     length in bytes, then one opcode byte per command followed
+ *             by its operands
+ *
+ * Every count, length and operand is an unsigned LEB128 varint. Push and
+ * pop opcodes are PUSH or POP plus the segment ordinal, arithmetic opcodes
+ * are ARITHMETIC plus the command ordinal. Labels and function names are
+ * operands holding their index in the string table.
+ */
+public class VMBinaryWriter implements VMEmitter {
+    public static final byte[] MAGIC = {'J', 'V', 'M', 'B'};
+    public static final int VERSION = 1;
+
+    // push and pop take an index, call and function a name and nArgs,
+    // label, goto and if-goto a name
+    public static final int PUSH = 0;
+    public static final int POP = 8;
+    public static final int ARITHMETIC = 16;
+    public static final int LABEL = 25;
+    public static final int GOTO = 26;
+    public static final int IF_GOTO = 27;
+    public static final int CALL = 28;
+    public static final int FUNCTION = 29;
+    public static final int RETURN = 30;
+
+    private File outputFile;
+    private ByteArrayOutputStream code = new ByteArrayOutputStream();
+    private List<String> strings = new ArrayList<>();
+    private Map<String, Integer> stringIndex = new HashMap<>();
+
+    public VMBinaryWriter(File file) {
+        outputFile = file;
+    }
+
+    public void writePush(Segment seg, int index) {
+        code.write(PUSH + seg.ordinal());
+        writeVarint(code, index);
+    }
+
+    public void writePop(Segment seg, int index) {
+        code.write(POP + seg.ordinal());
+        writeVarint(code, index);
+    }
+
+    public void writeArithmetic(Command com) {
+        code.write(ARITHMETIC + com.ordinal());
+    }
+
+    public void writeLabel(String label) {
+        code.write(LABEL);
+        writeVarint(code, indexOf(label));
+    }
+
+    public void writeGoto(String label) {
+        code.write(GOTO);
+        writeVarint(code, indexOf(label));
+    }
+
+    public void writeIf(String label) {
+        code.write(IF_GOTO);
+        writeVarint(code, indexOf(label));
+    }
+
+    public void writeCall(String name, int nArgs) {
+        code.write(CALL);
+        writeVarint(code, indexOf(name));
+        writeVarint(code, nArgs);
+    }
+
+    public void writeFunction(String name, int nArgs) {
+        code.write(FUNCTION);
+        writeVarint(code, indexOf(name));
+        writeVarint(code, nArgs);
+    }
+
+    public void writeReturn() {
+        code.write(RETURN);
+    }
+
+    // the string table is only complete once every command is known, so
+    // the whole file is written here
+    public void close() {
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        header.write(MAGIC, 0, MAGIC.length);
+        header.write(VERSION);
+
+        writeVarint(header, strings.size());
+        for (String string : strings) {
+            byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+            writeVarint(header, bytes.length);
+            header.write(bytes, 0, bytes.length);
+        }
+        writeVarint(header, code.size());
+
+        try (OutputStream out = new FileOutputStream(outputFile)) {
+            header.writeTo(out);
+            code.writeTo(out);
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot write to file \"" +
+                    outputFile.getName() + "\"!");
+        }
+    }
+
+    // index of the string in the table, added on first use
+    private int indexOf(String string) {
+        Integer index = stringIndex.get(string);
+
+        if (index == null) {
+            index = strings.size();
+            strings.add(string);
+            stringIndex.put(string, index);
+        }
+
+        return index;
+    }
+
+    // negative values take the full five bytes
+    private static void writeVarint(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+}
@@ -0,0 +1,224 @@
+import java.util.Arrays;
+
+/**
+ * Records VM commands in memory so they can be inspected, rewritten and
+ * replayed into another VMEmitter later. Once a source line is set, each
+ * command also keeps the Jack line it was compiled from, which replaying
+ * into another buffer carries over.
+ */
+public class VMBuffer implements VMEmitter {
+    public static final int PUSH = 0;
+    public static final int POP = 1;
+    public static final int ARITHMETIC = 2;
+    public static final int LABEL = 3;
+    public static final int GOTO = 4;
+    public static final int IF_GOTO = 5;
+    public static final int CALL = 6;
+    public static final int FUNCTION = 7;
+    public static final int RETURN = 8;
+
+    private static final Segment[] SEGMENTS = Segment.values();
+    private static final Command[] COMMANDS = Command.values();
+
+    // kind of command, segment or command ordinal or call site, index or
+    // nArgs, name
+    private int[] kinds = new int[64];
+    private int[] codes = new int[64];
+    private int[] values = new int[64];
+    private String[] names = new String[64];
+    // null until a line is set, so buffers without a source map pay nothing
+    private int[] lines;
+    private int size;
+    private int line;
+
+    public void writePush(Segment seg, int index) {
+        append(PUSH, seg.ordinal(), index, null);
+    }
+
+    public void writePop(Segment seg, int index) {
+        append(POP, seg.ordinal(), index, null);
+    }
+
+    public void writeArithmetic(Command com) {
+        append(ARITHMETIC, com.ordinal(), 0, null);
+    }
+
+    public void writeLabel(String label) {
+        append(LABEL, 0, 0, label);
+    }
+
+    public void writeGoto(String label) {
+        append(GOTO, 0, 0, label);
+    }
+
+    public void writeIf(String label) {
+        append(IF_GOTO, 0, 0, label);
+    }
+
+    public void writeCall(String name, int nArgs) {
+        append(CALL, 0, nArgs, name);
+    }
+
+    public void writeFunction(String name, int nArgs) {
+        append(FUNCTION, 0, nArgs, name);
+    }
+
+    public void writeReturn() {
+        append(RETURN, 0, 0, null);
+    }
+
+    // nothing to release, commands stay available for replay
+    public void close() {
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // source line of the commands written from now on, 0 if unknown
+    public void setLine(int line) {
+        if (lines == null) {
+            if (line == 0)
+                return;
+            lines = new int[kinds.length];
+        }
+        this.line = line;
+    }
+
+    public int getLine() {
+        return line;
+    }
+
+    // source line command i was compiled from, 0 if unknown
+    public int getLine(int i) {
+        return lines == null ? 0 : lines[i];
+    }
+
+    public int getKind(int i) {
+        return kinds[i];
+    }
+
+    public Segment getSegment(int i) {
+        return SEGMENTS[codes[i]];
+    }
+
+    public Command getCommand(int i) {
+        return COMMANDS[codes[i]];
+    }
+
+    // segment index of push and pop, nArgs of call and function
+    public int getIndex(int i) {
+        return values[i];
+    }
+
+    public void setIndex(int i, int value) {
+        values[i] = value;
+    }
+
+    // order of call i among the calls of its subroutine as the source has
+    // them, 0 unless set; replaying keeps it, so it survives code that is
+    // laid out in another order
+    public int getSite(int i) {
+        return codes[i];
+    }
+
+    public void setSite(int i, int site) {
+        codes[i] = site;
+    }
+
+    // label of label, goto and if-goto, function name of call and function
+    public String getName(int i) {
+        return names[i];
+    }
+
+    // true if command i is a push or pop of the given segment
+    public boolean isAccess(int i, Segment seg) {
+        return (kinds[i] == PUSH || kinds[i] == POP) && codes[i] == seg.ordinal();
+    }
+
+    // drop the commands from size on; what they held stays readable
+    // through the getters until it is written over
+    public void truncate(int size) {
+        this.size = size;
+    }
+
+    public void clear() {
+        size = 0;
+        Arrays.fill(names, null);
+    }
+
+    // write every command into the emitter
+    public void replay(VMEmitter emitter) {
+        for (int i = 0; i < size; i++)
+            replay(i, emitter);
+    }
+
+    // write command i into the emitter
+    public void replay(int i, VMEmitter emitter) {
+        if (emitter instanceof VMBuffer) {
+            VMBuffer buffer = (VMBuffer) emitter;
+            int saved = buffer.line, site = codes[i];
+
+            buffer.setLine(getLine(i));
+            replayCommand(i, buffer);
+            buffer.setLine(saved);
+            // read first, a buffer may replay into itself over older commands
+            if (kinds[i] == CALL)
+                buffer.codes[buffer.size - 1] = site;
+            return;
+        }
+
+        replayCommand(i, emitter);
+    }
+
+    private void replayCommand(int i, VMEmitter emitter) {
+        switch (kinds[i]) {
+            case PUSH:
+                emitter.writePush(SEGMENTS[codes[i]], values[i]);
+                break;
+            case POP:
+                emitter.writePop(SEGMENTS[codes[i]], values[i]);
+                break;
+            case ARITHMETIC:
+                emitter.writeArithmetic(COMMANDS[codes[i]]);
+                break;
+            case LABEL:
+                emitter.writeLabel(names[i]);
+                break;
+            case GOTO:
+                emitter.writeGoto(names[i]);
+                break;
+            case IF_GOTO:
+                emitter.writeIf(names[i]);
+                break;
+            case CALL:
+                emitter.writeCall(names[i], values[i]);
+                break;
+            case FUNCTION:
+                emitter.writeFunction(names[i], values[i]);
+                break;
+            case RETURN:
+                emitter.writeReturn();
+                break;
+        }
+    }
+
+    private void append(int kind, int code, int value, String name) {
+        if (size == kinds.length) {
+            kinds = Arrays.copyOf(kinds, size * 2);
+            codes = Arrays.copyOf(codes, size * 2);
+            values = Arrays.copyOf(values, size * 2);
+            names = Arrays.copyOf(names, size * 2);
+            if (lines != null)
+                lines = Arrays.copyOf(lines, size * 2);
+        }
+
+        kinds[size] = kind;
+        codes[size] = code;
+        values[size] = value;
+        names[size] = name;
+        if (lines != null)
+            lines[size] = line;
+        size++;
+    }
+}
@@ -0,0 +1,60 @@
+import java.io.File;
+
+/**
+ * Converts between the .vm text format and the .vmb binary format, writing
+ * the other format next to each input file.
+ */
+public class VMDump {
+    public static void main(String[] args) {
+        VMDump vmDump = new VMDump();
+        int exitCode = vmDump.run(args);
+        System.exit(exitCode);
+    }
+
+    public int run(String[] args) {
+        if (args.length == 0) {
+            printUsage();
+            return -1;
+        }
+
+        try {
+            for (String arg : args)
+                convert(new File(arg));
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            System.err.println(e.getMessage());
+            return -1;
+        }
+
+        return 0;
+    }
+
+    private void convert(File file) {
+        String filename = file.getName();
+        String lowerFilename = filename.toLowerCase();
+
+        if (!VMParser.isVMFile(file))
+            throw new IllegalArgumentException("Filename must end with .vm or .vmb!");
+
+        boolean binary = lowerFilename.endsWith(".vmb");
+        String base = filename.substring(0, lowerFilename.lastIndexOf(".vm"));
+        File outputFile = new File(file.getParentFile(), base + (binary ? ".vm" : ".vmb"));
+
+        System.out.println("Converting to " + outputFile.getPath() + " (" +
+                file.length() + " -> " + convert(file, outputFile, binary) + " bytes)");
+    }
+
+    // returns the size of the written file
+    private long convert(File file, File outputFile, boolean binary) {
+        VMEmitter emitter = binary ? new VMWriter(outputFile) : new VMBinaryWriter(outputFile);
+        VMParser.load(file, emitter);
+        emitter.close();
+
+        return outputFile.length();
+    }
+
+    private void printUsage() {
+        System.err.println("Usage:\n" +
+                           "  java VMDump (<filename.vm>|<filename.vmb>)...\n" +
+                           "    writes file.vmb for each file.vm and file.vm for each file.vmb");
+    }
+}
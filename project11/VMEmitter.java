@@ -0,0 +1,54 @@
+// backend that receives VM commands from the compilation engine
+public interface VMEmitter {
+    void writePush(Segment seg, int index);
+
+    void writePop(Segment seg, int index);
+
+    void writeArithmetic(Command com);
+
+    void writeLabel(String label);
+
+    void writeGoto(String label);
+
+    void writeIf(String label);
+
+    void writeCall(String name, int nArgs);
+
+    void writeFunction(String name, int nArgs);
+
+    void writeReturn();
+
+    void close();
+
+    // overloaded
+    default void writePush(Kind seg, int index) {
+        writePush(getSegmentFromKind(seg), index);
+    }
+
+    // overloaded
+    default void writePop(Kind seg, int index) {
+        writePop(getSegmentFromKind(seg), index);
+    }
+
+    // translate kind into segment
+    static Segment getSegmentFromKind(Kind kind) {
+        Segment result = null;
+
+        switch (kind) {
+            case ARG:
+                result = Segment.ARG;
+                break;
+            case FIELD:
+                result = Segment.THIS;
+                break;
+            case STATIC:
+                result = Segment.STATIC;
+                break;
+            case VAR:
+                result = Segment.LOCAL;
+                break;
+        }
+
+        return result;
+    }
+}
@@ -0,0 +1,552 @@
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs a VM program without the GUI emulator and counts executed
+ * instructions and calls per function. Memory is laid out as on the Hack
+ * platform and call frames are kept in RAM. Math, Memory, Array and Sys
+ * functions fall back to built-in versions when no loaded file defines them.
+ * Sys.halt and Sys.error always stop the run, since the OS versions spin
+ * forever and the profile would never be printed.
+ */
+public class VMInterpreter {
+    public static void main(String[] args) {
+        VMInterpreter vmInterpreter = new VMInterpreter();
+        int exitCode = vmInterpreter.run(args);
+        System.exit(exitCode);
+    }
+
+    private static final int SP = 0, LCL = 1, ARG = 2, THIS = 3, THAT = 4;
+    private static final int HEAP_BASE = 2048, HEAP_END = 16384;
+    // Jack lines printed by --line-profile
+    private static final int LINE_PROFILE_LIMIT = 20;
+    private static final List<String> NATIVES = Arrays.asList(
+            "Math.multiply", "Math.divide", "Math.abs", "Math.min", "Math.max",
+            "Math.sqrt", "Math.init", "Memory.peek", "Memory.poke", "Memory.alloc",
+            "Memory.deAlloc", "Memory.init", "Array.new", "Array.dispose",
+            "Sys.halt", "Sys.error", "Sys.wait");
+    private static final List<String> INTERCEPTED = Arrays.asList("Sys.halt", "Sys.error");
+
+    private VMProgram program;
+    private int[] ram = new int[32768];
+    private long[] executed;
+    private long[] taken;
+    private long[] calls;
+    private long[] nativeCalls = new long[NATIVES.size()];
+    private long steps;
+    private long maxSteps = Long.MAX_VALUE;
+    private int heapFree = HEAP_BASE;
+    private boolean halted;
+    // set when the program stopped through Sys.error
+    private String error;
+    private boolean loadSourceMaps;
+
+    public int run(String[] args) {
+        String path = null, entry = null;
+        File profileFile = null;
+        boolean lineProfile = false;
+        int peekFrom = -1, peekTo = -1;
+
+        // parse options and the file or directory argument
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--entry") && i + 1 < args.length) {
+                entry = args[++i];
+            } else if (args[i].equals("--max-steps") && i + 1 < args.length) {
+                maxSteps = Long.parseLong(args[++i]);
+            } else if (args[i].equals("--profile-out") && i + 1 < args.length) {
+                profileFile = new File(args[++i]);
+            } else if (args[i].equals("--line-profile")) {
+                lineProfile = true;
+                loadSourceMaps = true;
+            } else if (args[i].equals("--peek") && i + 1 < args.length) {
+                String[] range = args[++i].split(":");
+                peekFrom = Integer.parseInt(range[0]);
+                peekTo = range.length > 1 ? Integer.parseInt(range[1]) : peekFrom;
+            } else if (args[i].startsWith("-") || path != null) {
+                printUsage();
+                return -1;
+            } else {
+                path = args[i];
+            }
+        }
+
+        if (path == null) {
+            printUsage();
+            return -1;
+        }
+
+        try {
+            load(new File(path));
+
+            if (entry == null)
+                entry = program.findFunction("Sys.init") >= 0 ? "Sys.init" : "Main.main";
+
+            long start = System.nanoTime();
+            execute(entry);
+            long elapsed = System.nanoTime() - start;
+
+            // what ran so far is still worth reporting
+            if (!halted)
+                System.err.println("Program did not halt within " + maxSteps + " steps!");
+            else if (error != null)
+                System.err.println(error);
+
+            if (peekFrom >= 0) {
+                for (int address = peekFrom; address <= peekTo; address++)
+                    System.out.println("RAM[" + address + "] = " + ram[address]);
+            }
+
+            printProfile(elapsed);
+            if (lineProfile)
+                printLineProfile();
+
+            if (profileFile != null) {
+                createProfile().write(profileFile);
+                System.out.println("Profile written to " + profileFile.getPath());
+            }
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            System.err.println(e.getMessage());
+            return -1;
+        }
+
+        return halted && error == null ? 0 : -1;
+    }
+
+    // load a .vm or .vmb file or every such file in a directory
+    public void load(File fileOrDirectory) {
+        program = new VMProgram();
+
+        if (fileOrDirectory.isDirectory()) {
+            File[] files = fileOrDirectory.listFiles();
+            Arrays.sort(files);
+
+            for (File f : files) {
+                if (f.isFile() && VMParser.isVMFile(f))
+                    loadFile(f);
+            }
+        } else {
+            if (!VMParser.isVMFile(fileOrDirectory))
+                throw new IllegalArgumentException("Filename must end with .vm or .vmb!");
+
+            loadFile(fileOrDirectory);
+        }
+
+        List<String> missing = program.link(NATIVES, INTERCEPTED);
+        if (!missing.isEmpty())
+            throw new IllegalStateException("Undefined functions: " + String.join(", ", missing));
+
+        executed = new long[program.getSize()];
+        taken = new long[program.getSize()];
+        calls = new long[program.getFunctionCount()];
+    }
+
+    // with --line-profile, X.map is read when the compiler wrote one
+    private void loadFile(File file) {
+        File mapFile = SourceMap.fileFor(file);
+        program.setSourceMap(loadSourceMaps && mapFile.isFile() ? SourceMap.load(mapFile) : null);
+        VMParser.load(file, program);
+    }
+
+    // run the entry function until it returns, Sys.halt is called or steps
+    // run out, which leaves isHalted false
+    public void execute(String entry) {
+        int function = program.findFunction(entry);
+        if (function < 0)
+            throw new IllegalStateException("Entry function " + entry + " not found!");
+
+        int[] code = program.getCode();
+
+        // frame of the entry call, returning to -1 stops the machine
+        ram[SP] = 256;
+        push(-1);
+        for (int pointer = LCL; pointer <= THAT; pointer++)
+            push(ram[pointer]);
+        ram[ARG] = ram[SP] - 5;
+        ram[LCL] = ram[SP];
+        calls[function]++;
+        int pc = program.getFunctionEntry(function);
+
+        while (!halted && steps < maxSteps) {
+            int instruction = code[pc];
+            int opcode = instruction & 0xFF, operand = instruction >> 8;
+            executed[pc]++;
+            steps++;
+            pc++;
+
+            switch (opcode) {
+                case VMProgram.PUSH + 0: // constant
+                    ram[ram[SP]++] = operand;
+                    break;
+                case VMProgram.PUSH + 1: // argument
+                    ram[ram[SP]++] = ram[ram[ARG] + operand];
+                    break;
+                case VMProgram.PUSH + 2: // local
+                    ram[ram[SP]++] = ram[ram[LCL] + operand];
+                    break;
+                case VMProgram.PUSH + 3: case VMProgram.PUSH + 6: case VMProgram.PUSH + 7:
+                    // static, pointer and temp hold absolute addresses
+                    ram[ram[SP]++] = ram[operand];
+                    break;
+                case VMProgram.PUSH + 4: // this
+                    ram[ram[SP]++] = ram[address(ram[THIS] + operand)];
+                    break;
+                case VMProgram.PUSH + 5: // that
+                    ram[ram[SP]++] = ram[address(ram[THAT] + operand)];
+                    break;
+                case VMProgram.POP + 1:
+                    ram[ram[ARG] + operand] = ram[--ram[SP]];
+                    break;
+                case VMProgram.POP + 2:
+                    ram[ram[LCL] + operand] = ram[--ram[SP]];
+                    break;
+                case VMProgram.POP + 3: case VMProgram.POP + 6: case VMProgram.POP + 7:
+                    ram[operand] = ram[--ram[SP]];
+                    break;
+                case VMProgram.POP + 4:
+                    ram[address(ram[THIS] + operand)] = ram[--ram[SP]];
+                    break;
+                case VMProgram.POP + 5:
+                    ram[address(ram[THAT] + operand)] = ram[--ram[SP]];
+                    break;
+                case VMProgram.ARITHMETIC + 0: // add
+                    binary((short) (ram[ram[SP] - 2] + ram[ram[SP] - 1]));
+                    break;
+                case VMProgram.ARITHMETIC + 1: // sub
+                    binary((short) (ram[ram[SP] - 2] - ram[ram[SP] - 1]));
+                    break;
+                case VMProgram.ARITHMETIC + 2: // neg
+                    ram[ram[SP] - 1] = (short) -ram[ram[SP] - 1];
+                    break;
+                case VMProgram.ARITHMETIC + 3: // eq
+                    binary(ram[ram[SP] - 2] == ram[ram[SP] - 1] ? -1 : 0);
+                    break;
+                case VMProgram.ARITHMETIC + 4: // gt
+                    binary(ram[ram[SP] - 2] > ram[ram[SP] - 1] ? -1 : 0);
+                    break;
+                case VMProgram.ARITHMETIC + 5: // lt
+                    binary(ram[ram[SP] - 2] < ram[ram[SP] - 1] ? -1 : 0);
+                    break;
+                case VMProgram.ARITHMETIC + 6: // and
+                    binary(ram[ram[SP] - 2] & ram[ram[SP] - 1]);
+                    break;
+                case VMProgram.ARITHMETIC + 7: // or
+                    binary(ram[ram[SP] - 2] | ram[ram[SP] - 1]);
+                    break;
+                case VMProgram.ARITHMETIC + 8: // not
+                    ram[ram[SP] - 1] = ~ram[ram[SP] - 1];
+                    break;
+                case VMProgram.GOTO:
+                    taken[pc - 1]++;
+                    pc = operand;
+                    break;
+                case VMProgram.IF_GOTO:
+                    if (ram[--ram[SP]] != 0) {
+                        taken[pc - 1]++;
+                        pc = operand;
+                    }
+                    break;
+                case VMProgram.CALL:
+                    pc = call(operand, pc);
+                    break;
+                case VMProgram.FUNCTION:
+                    for (int i = 0; i < operand; i++)
+                        ram[ram[SP]++] = 0;
+                    break;
+                case VMProgram.RETURN:
+                    pc = doReturn();
+                    break;
+                default:
+                    throw new IllegalStateException("Invalid opcode " + opcode + " at " + (pc - 1));
+            }
+        }
+    }
+
+    public int peek(int address) {
+        return ram[address];
+    }
+
+    public boolean isHalted() {
+        return halted;
+    }
+
+    public long getSteps() {
+        return steps;
+    }
+
+    private int call(int site, int returnPc) {
+        int target = program.getCallTarget(site), nArgs = program.getCallArgs(site);
+
+        if (target < 0) {
+            callNative(-1 - target, nArgs);
+            return returnPc;
+        }
+
+        calls[target]++;
+
+        push(returnPc);
+        for (int pointer = LCL; pointer <= THAT; pointer++)
+            push(ram[pointer]);
+        ram[ARG] = ram[SP] - nArgs - 5;
+        ram[LCL] = ram[SP];
+
+        return program.getFunctionEntry(target);
+    }
+
+    private int doReturn() {
+        int frame = ram[LCL];
+        int returnPc = ram[frame - 5];
+
+        ram[ram[ARG]] = ram[ram[SP] - 1];
+        ram[SP] = ram[ARG] + 1;
+        ram[THAT] = ram[frame - 1];
+        ram[THIS] = ram[frame - 2];
+        ram[ARG] = ram[frame - 3];
+        ram[LCL] = ram[frame - 4];
+
+        if (returnPc < 0) {
+            halted = true;
+            return 0;
+        }
+
+        return returnPc;
+    }
+
+    // pop the arguments of a built-in function and push its result
+    private void callNative(int index, int nArgs) {
+        nativeCalls[index]++;
+
+        int base = ram[SP] - nArgs;
+        int x = nArgs > 0 ? ram[base] : 0, y = nArgs > 1 ? ram[base + 1] : 0;
+        int result = 0;
+
+        switch (NATIVES.get(index)) {
+            case "Math.multiply":
+                result = (short) (x * y);
+                break;
+            case "Math.divide":
+                if (y == 0)
+                    throw new IllegalStateException("Sys.error: division by zero");
+                result = (short) (x / y);
+                break;
+            case "Math.abs":
+                result = (short) Math.abs(x);
+                break;
+            case "Math.min":
+                result = Math.min(x, y);
+                break;
+            case "Math.max":
+                result = Math.max(x, y);
+                break;
+            case "Math.sqrt":
+                result = (int) Math.sqrt(x);
+                break;
+            case "Memory.peek":
+                result = ram[address(x)];
+                break;
+            case "Memory.poke":
+                ram[address(x)] = y;
+                break;
+            case "Memory.alloc": case "Array.new":
+                if (x <= 0 || heapFree + x > HEAP_END)
+                    throw new IllegalStateException("Sys.error: cannot allocate " + x + " words");
+                result = heapFree;
+                heapFree += x;
+                break;
+            case "Sys.halt":
+                halted = true;
+                break;
+            case "Sys.error":
+                error = "Sys.error: " + x;
+                halted = true;
+                break;
+            default:
+                // init, deAlloc, dispose and wait have nothing to do here
+                break;
+        }
+
+        ram[SP] = base;
+        push(result);
+    }
+
+    private void binary(int result) {
+        ram[SP]--;
+        ram[ram[SP] - 1] = result;
+    }
+
+    private void push(int value) {
+        ram[ram[SP]++] = value;
+    }
+
+    private int address(int value) {
+        return value & 0x7FFF;
+    }
+
+    // counts of the last run in the format the compiler reads with --profile
+    public ExecutionProfile createProfile() {
+        ExecutionProfile profile = new ExecutionProfile();
+        int[] code = program.getCode();
+
+        long[] instructions = countInstructions();
+        for (int function = 0; function < program.getFunctionCount(); function++) {
+            profile.addFunction(program.getFunctionName(function), calls[function],
+                    instructions[function]);
+        }
+
+        // call sites, numbered per caller and callee in program order
+        Map<String, Integer> occurrences = new HashMap<>();
+        for (int pc = 0; pc < program.getSize(); pc++) {
+            if ((code[pc] & 0xFF) != VMProgram.CALL)
+                continue;
+
+            String caller = program.getFunctionName(program.functionAt(pc));
+            String callee = program.getCallName(code[pc] >> 8);
+            int occurrence = occurrences.merge(caller + " " + callee, 1, Integer::sum) - 1;
+            profile.addSite(caller, callee, occurrence, executed[pc]);
+        }
+
+        // taken jumps per label, and branch outcomes per if-goto target
+        Map<String, Long> jumps = new HashMap<>();
+        for (int pc = 0; pc < program.getSize(); pc++) {
+            String label = program.getJumpLabel(pc);
+            if (label == null)
+                continue;
+
+            jumps.merge(label, taken[pc], Long::sum);
+
+            if ((code[pc] & 0xFF) == VMProgram.IF_GOTO) {
+                int split = label.indexOf('$');
+                profile.addBranch(label.substring(0, split), label.substring(split + 1),
+                        taken[pc], executed[pc] - taken[pc]);
+            }
+        }
+
+        // control passes a label by falling into its position or by jumping
+        // to it or to an earlier label at the same position
+        int lastTarget = -1;
+        long passed = 0;
+        for (String label : program.getLabels()) {
+            int target = program.getLabelTarget(label);
+
+            if (target != lastTarget) {
+                passed = fallThrough(target);
+                lastTarget = target;
+            }
+            passed += jumps.getOrDefault(label, 0L);
+
+            int split = label.indexOf('$');
+            profile.addLabel(label.substring(0, split), label.substring(split + 1), passed);
+        }
+
+        return profile;
+    }
+
+    // number of times the instruction before pc continued into pc
+    private long fallThrough(int pc) {
+        if (pc == 0)
+            return 0;
+
+        switch (program.getCode()[pc - 1] & 0xFF) {
+            case VMProgram.GOTO: case VMProgram.RETURN:
+                return 0;
+            case VMProgram.IF_GOTO:
+                return executed[pc - 1] - taken[pc - 1];
+            default:
+                return executed[pc - 1];
+        }
+    }
+
+    private long[] countInstructions() {
+        long[] instructions = new long[program.getFunctionCount()];
+        for (int pc = 0; pc < executed.length; pc++)
+            instructions[program.functionAt(pc)] += executed[pc];
+        return instructions;
+    }
+
+    private void printProfile(long elapsedNanos) {
+        int functionCount = program.getFunctionCount();
+        long[] instructions = countInstructions();
+
+        long totalCalls = 0;
+        for (long count : calls)
+            totalCalls += count;
+        for (long count : nativeCalls)
+            totalCalls += count;
+
+        List<Integer> order = new ArrayList<>();
+        for (int function = 0; function < functionCount; function++) {
+            if (calls[function] > 0)
+                order.add(function);
+        }
+        order.sort(Comparator.comparingLong((Integer f) -> instructions[f]).reversed());
+
+        System.out.println(String.format("%-32s %12s %14s %7s %12s",
+                "function", "calls", "instructions", "%", "instr/call"));
+
+        for (int function : order) {
+            System.out.println(String.format("%-32s %12d %14d %6.2f%% %12.1f",
+                    program.getFunctionName(function), calls[function], instructions[function],
+                    100.0 * instructions[function] / Math.max(steps, 1),
+                    (double) instructions[function] / calls[function]));
+        }
+
+        for (int index = 0; index < NATIVES.size(); index++) {
+            if (nativeCalls[index] > 0) {
+                System.out.println(String.format("%-32s %12d %14s",
+                        NATIVES.get(index) + " (built-in)", nativeCalls[index], "-"));
+            }
+        }
+
+        System.out.println(String.format("total: %d instructions, %d calls, %.1f ms",
+                steps, totalCalls, elapsedNanos / 1e6));
+    }
+
+    // instructions executed per Jack line, for files loaded with a source map
+    private void printLineProfile() {
+        Map<String, Long> lines = new HashMap<>();
+        Map<String, String> functions = new HashMap<>();
+
+        for (int pc = 0; pc < executed.length; pc++) {
+            if (executed[pc] == 0 || program.getSource(pc) == null)
+                continue;
+
+            String line = program.getSource(pc) + ":" + program.getSourceLine(pc);
+            lines.merge(line, executed[pc], Long::sum);
+            functions.putIfAbsent(line, program.getFunctionName(program.functionAt(pc)));
+        }
+
+        if (lines.isEmpty()) {
+            System.out.println("No source maps loaded, compile with --source-map");
+            return;
+        }
+
+        List<String> order = new ArrayList<>(lines.keySet());
+        order.sort(Comparator.comparingLong((String line) -> lines.get(line)).reversed());
+
+        System.out.println(String.format("%-24s %-32s %14s %7s",
+                "line", "function", "instructions", "%"));
+
+        for (String line : order.subList(0, Math.min(order.size(), LINE_PROFILE_LIMIT))) {
+            System.out.println(String.format("%-24s %-32s %14d %6.2f%%",
+                    line, functions.get(line), lines.get(line),
+                    100.0 * lines.get(line) / Math.max(steps, 1)));
+        }
+    }
+
+    private void printUsage() {
+        System.err.println("Usage:\n" +
+                           "  java VMInterpreter [options] (<filename.vm>|<filename.vmb>|<directory>)\n" +
+                           "    --entry <Class.function>  function to start from, default Sys.init\n" +
+                           "                              or Main.main\n" +
+                           "    --max-steps <n>           stop after n instructions, reporting\n" +
+                           "                              the counts so far\n" +
+                           "    --peek <from>[:<to>]      print RAM contents after the run\n" +
+                           "    --profile-out <file>      write counts for the compiler's --profile\n" +
+                           "    --line-profile            also count instructions per Jack line, read\n" +
+                           "                              from the X.map files of --source-map");
+    }
+}
@@ -0,0 +1,145 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.IOException;
+
+/**
+ * Reads a .vm file in the format written by VMWriter and replays every
+ * command into a VMEmitter.
+ */
+public class VMParser {
+    private File vmFile;
+    private BufferedReader reader;
+    private int lineNumber;
+
+    public VMParser(File file) {
+        vmFile = file;
+        try {
+            reader = new BufferedReader(new FileReader(vmFile));
+        } catch (FileNotFoundException e) {
+            throw new IllegalArgumentException("File not found or is directory!");
+        }
+    }
+
+    // true for files load() accepts
+    public static boolean isVMFile(File file) {
+        String lowerFilename = file.getName().toLowerCase();
+        return lowerFilename.endsWith(".vm") || lowerFilename.endsWith(".vmb");
+    }
+
+    // replay a text .vm or binary .vmb file into the emitter
+    public static void load(File file, VMEmitter emitter) {
+        if (file.getName().toLowerCase().endsWith(".vmb")) {
+            new VMBinaryReader(file).parse(emitter);
+        } else {
+            new VMParser(file).parse(emitter);
+        }
+    }
+
+    public void parse(VMEmitter emitter) {
+        String line;
+
+        while ((line = readLine()) != null) {
+            lineNumber++;
+
+            // strip comments and surrounding whitespace
+            int comment = line.indexOf("//");
+            if (comment >= 0)
+                line = line.substring(0, comment);
+            line = line.trim();
+
+            if (line.isEmpty())
+                continue;
+
+            parseCommand(line.split("\\s+"), emitter);
+        }
+
+        try {
+            reader.close();
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to close \"" + vmFile.getName() + "\"!");
+        }
+    }
+
+    private void parseCommand(String[] parts, VMEmitter emitter) {
+        String command = parts[0];
+
+        switch (command) {
+            case "push":
+                expectArguments(parts, 2);
+                emitter.writePush(parseSegment(parts[1]), parseInt(parts[2]));
+                break;
+            case "pop":
+                expectArguments(parts, 2);
+                emitter.writePop(parseSegment(parts[1]), parseInt(parts[2]));
+                break;
+            case "label":
+                expectArguments(parts, 1);
+                emitter.writeLabel(parts[1]);
+                break;
+            case "goto":
+                expectArguments(parts, 1);
+                emitter.writeGoto(parts[1]);
+                break;
+            case "if-goto":
+                expectArguments(parts, 1);
+                emitter.writeIf(parts[1]);
+                break;
+            case "call":
+                expectArguments(parts, 2);
+                emitter.writeCall(parts[1], parseInt(parts[2]));
+                break;
+            case "function":
+                expectArguments(parts, 2);
+                emitter.writeFunction(parts[1], parseInt(parts[2]));
+                break;
+            case "return":
+                expectArguments(parts, 0);
+                emitter.writeReturn();
+                break;
+            default:
+                Command arithmetic = Command.getValueByMnemonic(command);
+                if (arithmetic == null)
+                    throw syntaxError("unknown command \"" + command + "\"");
+                expectArguments(parts, 0);
+                emitter.writeArithmetic(arithmetic);
+                break;
+        }
+    }
+
+    private Segment parseSegment(String mnemonic) {
+        Segment segment = Segment.getValueByMnemonic(mnemonic);
+
+        if (segment == null)
+            throw syntaxError("unknown segment \"" + mnemonic + "\"");
+
+        return segment;
+    }
+
+    private int parseInt(String value) {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw syntaxError("expected integer but found \"" + value + "\"");
+        }
+    }
+
+    private void expectArguments(String[] parts, int count) {
+        if (parts.length != count + 1)
+            throw syntaxError("\"" + parts[0] + "\" takes " + count + " argument(s)");
+    }
+
+    private IllegalStateException syntaxError(String message) {
+        return new IllegalStateException(vmFile.getName() + ":" + lineNumber +
+                ": syntax error: " + message);
+    }
+
+    private String readLine() {
+        try {
+            return reader.readLine();
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to read file!");
+        }
+    }
+}
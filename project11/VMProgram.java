@@ -0,0 +1,289 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Loads VM commands into a compact pre-decoded instruction array for
+ * VMInterpreter. Each instruction is one int holding the opcode in the low
+ * byte and its operand in the upper bits. Labels are not instructions, jumps
+ * hold their target index, calls hold an index into the call site tables and
+ * static, temp and pointer operands are already absolute RAM addresses.
+ * When a file is loaded with its SourceMap, every instruction also records
+ * the Jack file and line it was compiled from.
+ */
+public class VMProgram implements VMEmitter {
+    // push and pop opcodes are these plus the segment ordinal
+    public static final int PUSH = 0;
+    public static final int POP = 8;
+    // arithmetic opcodes are this plus the command ordinal
+    public static final int ARITHMETIC = 16;
+    public static final int GOTO = 25;
+    public static final int IF_GOTO = 26;
+    public static final int CALL = 27;
+    public static final int FUNCTION = 28;
+    public static final int RETURN = 29;
+
+    public static final int STATIC_BASE = 16;
+
+    private int[] code = new int[1024];
+    private int size;
+
+    private List<String> functionNames = new ArrayList<>();
+    private List<Integer> functionEntries = new ArrayList<>();
+    private Map<String, Integer> functionIndex = new HashMap<>();
+
+    private List<String> callNames = new ArrayList<>();
+    private int[] callTargets;
+    private int[] callArgs = new int[256];
+
+    private Map<String, Integer> labels = new HashMap<>();
+    private List<String> labelOrder = new ArrayList<>();
+    private Map<Integer, String> jumpLabels = new HashMap<>();
+    private Map<String, Integer> staticAddresses = new HashMap<>();
+    private int nextStatic = STATIC_BASE;
+
+    private String className = "";
+    private String functionName = "";
+
+    // source map of the file being loaded and the number of its next command
+    private SourceMap sourceMap;
+    private int command;
+    private List<String> sources = new ArrayList<>();
+    // index into sources plus one, 0 where no map was loaded, and the line
+    private int[] sourceIndex = new int[1024];
+    private int[] sourceLines = new int[1024];
+
+    // map the commands of the next file loaded, null if it has none
+    public void setSourceMap(SourceMap map) {
+        sourceMap = map;
+        command = 0;
+        if (map != null)
+            sources.add(map.getSource());
+    }
+
+    public void writePush(Segment seg, int index) {
+        append(PUSH + seg.ordinal(), resolveOperand(seg, index));
+    }
+
+    public void writePop(Segment seg, int index) {
+        if (seg == Segment.CONST)
+            throw new IllegalStateException("Cannot pop to constant segment!");
+
+        append(POP + seg.ordinal(), resolveOperand(seg, index));
+    }
+
+    public void writeArithmetic(Command com) {
+        append(ARITHMETIC + com.ordinal(), 0);
+    }
+
+    public void writeLabel(String label) {
+        String key = functionName + "$" + label;
+
+        if (labels.containsKey(key))
+            throw new IllegalStateException("Duplicate label " + label + " in " + functionName);
+
+        labels.put(key, size);
+        labelOrder.add(key);
+        // labels are commands in the source map
+        command++;
+    }
+
+    public void writeGoto(String label) {
+        jumpLabels.put(size, functionName + "$" + label);
+        append(GOTO, 0);
+    }
+
+    public void writeIf(String label) {
+        jumpLabels.put(size, functionName + "$" + label);
+        append(IF_GOTO, 0);
+    }
+
+    public void writeCall(String name, int nArgs) {
+        int site = callNames.size();
+        callNames.add(name);
+
+        if (site == callArgs.length)
+            callArgs = Arrays.copyOf(callArgs, site * 2);
+        callArgs[site] = nArgs;
+
+        append(CALL, site);
+    }
+
+    public void writeFunction(String name, int nArgs) {
+        if (functionIndex.containsKey(name))
+            throw new IllegalStateException("Duplicate function " + name);
+
+        functionName = name;
+        className = name.substring(0, Math.max(name.indexOf('.'), 0));
+
+        functionIndex.put(name, functionNames.size());
+        functionNames.add(name);
+        functionEntries.add(size);
+
+        append(FUNCTION, nArgs);
+    }
+
+    public void writeReturn() {
+        append(RETURN, 0);
+    }
+
+    // nothing to release, see link()
+    public void close() {
+    }
+
+    /**
+     * resolves jump targets and calls once every file has been loaded
+     * @param natives names of built-in functions used when no VM code defines them
+     * @param intercepted natives used even when VM code defines them
+     * @return names of called functions that are neither loaded nor built in
+     */
+    public List<String> link(List<String> natives, List<String> intercepted) {
+        for (Map.Entry<Integer, String> jump : jumpLabels.entrySet()) {
+            Integer target = labels.get(jump.getValue());
+
+            if (target == null)
+                throw new IllegalStateException("Undefined label " + jump.getValue());
+
+            code[jump.getKey()] = (code[jump.getKey()] & 0xFF) | target << 8;
+        }
+
+        // call targets are function indexes, or -1 - native index
+        List<String> missing = new ArrayList<>();
+        callTargets = new int[callNames.size()];
+
+        for (int site = 0; site < callTargets.length; site++) {
+            String name = callNames.get(site);
+            Integer function = functionIndex.get(name);
+
+            if (intercepted.contains(name)) {
+                callTargets[site] = -1 - natives.indexOf(name);
+            } else if (function != null) {
+                callTargets[site] = function;
+            } else if (natives.contains(name)) {
+                callTargets[site] = -1 - natives.indexOf(name);
+            } else if (!missing.contains(name)) {
+                missing.add(name);
+            }
+        }
+
+        return missing;
+    }
+
+    public int[] getCode() {
+        return code;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public String getCallName(int site) {
+        return callNames.get(site);
+    }
+
+    public int getCallTarget(int site) {
+        return callTargets[site];
+    }
+
+    public int getCallArgs(int site) {
+        return callArgs[site];
+    }
+
+    public int getFunctionCount() {
+        return functionNames.size();
+    }
+
+    public String getFunctionName(int function) {
+        return functionNames.get(function);
+    }
+
+    public int getFunctionEntry(int function) {
+        return functionEntries.get(function);
+    }
+
+    // labels in the order they were declared, as Function$label
+    public List<String> getLabels() {
+        return labelOrder;
+    }
+
+    // instruction index the label refers to
+    public int getLabelTarget(String label) {
+        return labels.get(label);
+    }
+
+    // Function$label a goto or if-goto at pc jumps to, or null
+    public String getJumpLabel(int pc) {
+        return jumpLabels.get(pc);
+    }
+
+    // Jack file the instruction at pc was compiled from, or null
+    public String getSource(int pc) {
+        return sourceIndex[pc] == 0 ? null : sources.get(sourceIndex[pc] - 1);
+    }
+
+    // Jack line the instruction at pc was compiled from, or 0
+    public int getSourceLine(int pc) {
+        return sourceLines[pc];
+    }
+
+    // index of the named function, or -1
+    public int findFunction(String name) {
+        Integer function = functionIndex.get(name);
+        return function == null ? -1 : function;
+    }
+
+    // index of the function containing the instruction at pc
+    public int functionAt(int pc) {
+        int low = 0, high = functionEntries.size() - 1;
+
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (functionEntries.get(mid) <= pc) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+
+        return low;
+    }
+
+    // static, temp and pointer resolve to RAM addresses at load time
+    private int resolveOperand(Segment seg, int index) {
+        switch (seg) {
+            case POINTER:
+                return 3 + index;
+            case TEMP:
+                return 5 + index;
+            case STATIC:
+                String key = className + "." + index;
+                Integer address = staticAddresses.get(key);
+
+                if (address == null) {
+                    address = nextStatic++;
+                    staticAddresses.put(key, address);
+                }
+                return address;
+            default:
+                return index;
+        }
+    }
+
+    private void append(int opcode, int operand) {
+        if (size == code.length) {
+            code = Arrays.copyOf(code, size * 2);
+            sourceIndex = Arrays.copyOf(sourceIndex, size * 2);
+            sourceLines = Arrays.copyOf(sourceLines, size * 2);
+        }
+
+        if (sourceMap != null) {
+            sourceIndex[size] = sources.size();
+            sourceLines[size] = sourceMap.getLine(command);
+        }
+        command++;
+
+        code[size++] = opcode | operand << 8;
+    }
+}
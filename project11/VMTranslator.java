@@ -0,0 +1,91 @@
+import java.io.File;
+
+public class VMTranslator {
+    public static void main(String[] args) {
+        VMTranslator vmTranslator = new VMTranslator();
+        int exitCode = vmTranslator.run(args);
+        System.exit(exitCode);
+    }
+
+    private boolean cacheTop = true;
+    private boolean sharedRoutines = true;
+
+    public int run(String[] args) {
+        String path = null;
+
+        // parse options and the file or directory argument
+        for (String arg : args) {
+            if (arg.equals("--inline")) {
+                sharedRoutines = false;
+            } else if (arg.equals("--no-cache")) {
+                cacheTop = false;
+            } else if (arg.startsWith("-") || path != null) {
+                printUsage();
+                return -1;
+            } else {
+                path = arg;
+            }
+        }
+
+        if (path == null) {
+            printUsage();
+            return -1;
+        }
+
+        File fileOrDirectory = new File(path);
+
+        try {
+            AsmWriter writer;
+
+            if (fileOrDirectory.isDirectory()) {
+                File outputFile = AsmWriter.fileForDirectory(fileOrDirectory);
+                System.out.println("Translating to " + outputFile.getPath());
+
+                writer = new AsmWriter(outputFile, cacheTop, sharedRoutines);
+                writer.writeInit();
+
+                // iterate over directory non-recursively
+                for (File f : listFiles(fileOrDirectory)) {
+                    if (f.isFile() && VMParser.isVMFile(f)) {
+                        VMParser.load(f, writer);
+                    }
+                }
+            } else {
+                String filename = fileOrDirectory.getName();
+                String lowerFilename = filename.toLowerCase();
+
+                if (!VMParser.isVMFile(fileOrDirectory))
+                    throw new IllegalArgumentException("Filename must end with .vm or .vmb!");
+
+                File outputFile = new File(fileOrDirectory.getParentFile(),
+                        filename.substring(0, lowerFilename.lastIndexOf(".vm")) + ".asm");
+                System.out.println("Translating to " + outputFile.getPath());
+
+                writer = new AsmWriter(outputFile, cacheTop, sharedRoutines);
+                VMParser.load(fileOrDirectory, writer);
+            }
+
+            writer.close();
+            System.out.println("ROM size: " + writer.getRomSize() + " instructions");
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            System.err.println(e.getMessage());
+            return -1;
+        }
+
+        return 0;
+    }
+
+    private File[] listFiles(File directory) {
+        File[] files = directory.listFiles();
+        if (files == null)
+            throw new IllegalArgumentException("Cannot list \"" + directory.getName() + "\"!");
+        return files;
+    }
+
+    private void printUsage() {
+        System.err.println("Usage:\n" +
+                           "  java VMTranslator [--inline] [--no-cache] (<filename.vm>|<filename.vmb>|<directory>)\n" +
+                           "    --inline    inline call, return and comparisons at every use\n" +
+                           "    --no-cache  spill the stack top to RAM after every command");
+    }
+}
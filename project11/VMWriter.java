@@ -1,115 +1,208 @@
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+public class VMWriter implements VMEmitter {
+    // bytes collected before each write to the channel
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final byte[] PUSH = bytes("push ");
+    private static final byte[] POP = bytes("pop ");
+    private static final byte[] LABEL = bytes("label ");
+    private static final byte[] GOTO = bytes("goto ");
+    private static final byte[] IF_GOTO = bytes("if-goto ");
+    private static final byte[] CALL = bytes("call ");
+    private static final byte[] FUNCTION = bytes("function ");
+    private static final byte[] RETURN = bytes("return");
+
+    // segment mnemonics with their trailing space and command mnemonics,
+    // indexed by ordinal
+    private static final byte[][] SEGMENTS = new byte[Segment.values().length][];
+    private static final byte[][] COMMANDS = new byte[Command.values().length][];
+
+    static {
+        for (Segment seg : Segment.values())
+            SEGMENTS[seg.ordinal()] = bytes(seg.getMnemonic() + " ");
+        for (Command com : Command.values())
+            COMMANDS[com.ordinal()] = bytes(com.getMnemonic());
+    }
 
-public class VMWriter {
-    private File outputFile;
-    private BufferedWriter writer;
+    private String outputName;
+    private WritableByteChannel channel;
+    private ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
 
     public VMWriter(File file) {
-        outputFile = file;
+        outputName = file.getName();
         // open output file
         try {
-            writer = new BufferedWriter(new FileWriter(outputFile));
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
         } catch (IOException e) {
-            throw new IllegalStateException("Cannot write to file \"" +
-                    outputFile.getName() + "\"!");
+            throw new IllegalStateException("Cannot write to file \"" + outputName + "\"!");
         }
     }
 
+    // write into any channel, such as one backed by memory; name is used in messages
+    public VMWriter(WritableByteChannel channel, String name) {
+        this.channel = channel;
+        outputName = name;
+    }
+
     // write push command
     public void writePush(Segment seg, int index) {
-        writeLine("push " + seg.getMnemonic() + " " + index);
+        put(PUSH);
+        put(SEGMENTS[seg.ordinal()]);
+        putInt(index);
+        putNewline();
     }
 
     // write pop command
     public void writePop(Segment seg, int index) {
-        writeLine("pop " + seg.getMnemonic() + " " + index);
-    }
-
-    // overloaded
-    public void writePush(Kind seg, int index) {
-        writePush(getSegmentFromKind(seg), index);
-    }
-
-    // overloaded
-    public void writePop(Kind seg, int index) {
-        writePop(getSegmentFromKind(seg), index);
+        put(POP);
+        put(SEGMENTS[seg.ordinal()]);
+        putInt(index);
+        putNewline();
     }
 
     // write arithmetic command
     public void writeArithmetic(Command com) {
-        writeLine(com.getMnemonic());
+        put(COMMANDS[com.ordinal()]);
+        putNewline();
     }
 
     // write label command
     public void writeLabel(String label) {
-        writeLine("label " + label);
+        put(LABEL);
+        putName(label);
+        putNewline();
     }
 
     // write goto command
     public void writeGoto(String label) {
-        writeLine("goto " + label);
+        put(GOTO);
+        putName(label);
+        putNewline();
     }
 
     // write goto-if command
     public void writeIf(String label) {
-        writeLine("if-goto " + label);
+        put(IF_GOTO);
+        putName(label);
+        putNewline();
     }
 
     // write call command
     public void writeCall(String name, int nArgs) {
-        writeLine("call " + name + " " + nArgs);
+        put(CALL);
+        putName(name);
+        putByte(' ');
+        putInt(nArgs);
+        putNewline();
     }
 
     // write function command
     public void writeFunction(String name, int nArgs) {
-        writeLine("function " + name + " " + nArgs);
+        put(FUNCTION);
+        putName(name);
+        putByte(' ');
+        putInt(nArgs);
+        putNewline();
     }
 
     // write return
     public void writeReturn() {
-        writeLine("return");
+        put(RETURN);
+        putNewline();
     }
 
     // close and flush
     public void close() {
         try {
-            writer.close();
+            flush();
+            channel.close();
         } catch (IOException e) {
             throw new IllegalStateException("Failed to flush and close the file!");
         }
     }
 
-    // translate kind into segment
-    private Segment getSegmentFromKind(Kind kind) {
-        Segment result = null;
-
-        switch (kind) {
-            case ARG:
-                result = Segment.ARG;
-                break;
-            case FIELD:
-                result = Segment.THIS;
-                break;
-            case STATIC:
-                result = Segment.STATIC;
-                break;
-            case VAR:
-                result = Segment.LOCAL;
-                break;
+    private void put(byte[] bytes) {
+        if (buffer.remaining() < bytes.length)
+            flushBuffer();
+        buffer.put(bytes);
+    }
+
+    private void putByte(char c) {
+        if (!buffer.hasRemaining())
+            flushBuffer();
+        buffer.put((byte) c);
+    }
+
+    private void putNewline() {
+        putByte('\n');
+    }
+
+    // identifiers are ASCII, anything else goes through the encoder
+    private void putName(String name) {
+        for (int i = 0; i < name.length(); i++) {
+            if (name.charAt(i) >= 0x80) {
+                put(bytes(name));
+                return;
+            }
+        }
+
+        if (buffer.remaining() < name.length())
+            flushBuffer();
+
+        for (int i = 0; i < name.length(); i++)
+            putByte(name.charAt(i));
+    }
+
+    // format the decimal digits straight into the buffer
+    private void putInt(int value) {
+        // sign and ten digits
+        if (buffer.remaining() < 11)
+            flushBuffer();
+
+        long n = value;
+        if (n < 0) {
+            buffer.put((byte) '-');
+            n = -n;
         }
 
-        return result;
+        int start = buffer.position();
+        do {
+            buffer.put((byte) ('0' + n % 10));
+            n /= 10;
+        } while (n != 0);
+
+        // digits went in least significant first
+        for (int i = start, j = buffer.position() - 1; i < j; i++, j--) {
+            byte digit = buffer.get(i);
+            buffer.put(i, buffer.get(j));
+            buffer.put(j, digit);
+        }
     }
 
-    private void writeLine(String line) {
-        // write line to file
+    private void flushBuffer() {
         try {
-            writer.write(line + "\n");
+            flush();
         } catch (IOException e) {
-            throw new IllegalStateException("Failed to write to \"" + outputFile.getName() + "\"!");
+            throw new IllegalStateException("Failed to write to \"" + outputName + "\"!");
         }
     }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining())
+            channel.write(buffer);
+        buffer.clear();
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
 }
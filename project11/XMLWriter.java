@@ -0,0 +1,294 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes the XML parse tree of a class straight into a byte buffer that is
+ * handed to the output channel in blocks. Every tag is a byte array built
+ * once, so a token costs a few array copies rather than string
+ * concatenations, and text is escaped through a table as it is copied.
+ *
+ * Without indentation each element is one line, <tag>text</tag>. With it,
+ * the layout follows the nand2tetris comparison files: two spaces per level
+ * and a space either side of a token's text. A writer for tokens leaves the
+ * elements out and wraps the tokens in <tokens>, like the T.xml files.
+ */
+public class XMLWriter implements ParseTreeEmitter {
+    // bytes collected before each write to the channel
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    // <tag> and </tag> by NonTerminal and TokenType ordinal
+    private static final byte[][] ELEMENT_START = new byte[NonTerminal.values().length][];
+    private static final byte[][] ELEMENT_END = new byte[NonTerminal.values().length][];
+    private static final byte[][] TOKEN_START = new byte[TokenType.values().length][];
+    private static final byte[][] TOKEN_END = new byte[TokenType.values().length][];
+
+    // keyword mnemonics by ordinal
+    private static final byte[][] KEYWORDS = new byte[Keyword.values().length][];
+
+    // replacement of every ASCII character that needs one, otherwise null
+    private static final byte[][] ESCAPES = new byte[128][];
+
+    private static final byte[] SPACES = new byte[64];
+
+    private static final byte[] TOKENS_START = bytes("<tokens>\n");
+    private static final byte[] TOKENS_END = bytes("</tokens>\n");
+
+    static {
+        for (NonTerminal element : NonTerminal.values()) {
+            ELEMENT_START[element.ordinal()] = bytes("<" + element.getTagName() + ">");
+            ELEMENT_END[element.ordinal()] = bytes("</" + element.getTagName() + ">");
+        }
+        for (TokenType type : TokenType.values()) {
+            TOKEN_START[type.ordinal()] = bytes("<" + type + ">");
+            TOKEN_END[type.ordinal()] = bytes("</" + type + ">");
+        }
+        for (Keyword keyword : Keyword.values())
+            KEYWORDS[keyword.ordinal()] = bytes(keyword.getMnemonic());
+
+        ESCAPES['<'] = bytes("&lt;");
+        ESCAPES['>'] = bytes("&gt;");
+        ESCAPES['&'] = bytes("&amp;");
+        ESCAPES['"'] = bytes("&quot;");
+
+        for (int i = 0; i < SPACES.length; i++)
+            SPACES[i] = ' ';
+    }
+
+    private String outputName;
+    private WritableByteChannel channel;
+    private ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private boolean indent;
+    private boolean tokens;
+    private int depth;
+
+    public XMLWriter(File file, boolean indent) {
+        this(file, indent, false);
+    }
+
+    /**
+     * @param indent lay the XML out like the nand2tetris comparison files
+     * @param tokens write only the tokens, as a T.xml file
+     */
+    public XMLWriter(File file, boolean indent, boolean tokens) {
+        outputName = file.getName();
+        // open output file
+        try {
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot write to file \"" + outputName + "\"!");
+        }
+        setLayout(indent, tokens);
+    }
+
+    // write into any channel, such as one backed by memory; name is used in messages
+    public XMLWriter(WritableByteChannel channel, String name, boolean indent) {
+        this(channel, name, indent, false);
+    }
+
+    public XMLWriter(WritableByteChannel channel, String name, boolean indent, boolean tokens) {
+        this.channel = channel;
+        outputName = name;
+        setLayout(indent, tokens);
+    }
+
+    // write <element> and indent its children one level deeper
+    public void startElement(NonTerminal element) {
+        if (tokens)
+            return;
+
+        putIndent();
+        put(ELEMENT_START[element.ordinal()]);
+        putNewline();
+        depth++;
+    }
+
+    // write </element>
+    public void endElement(NonTerminal element) {
+        if (tokens)
+            return;
+
+        depth--;
+        putIndent();
+        put(ELEMENT_END[element.ordinal()]);
+        putNewline();
+    }
+
+    // write <type>text</type>, escaping the text
+    public void writeToken(TokenType type, String text) {
+        startToken(type);
+        putText(text);
+        endToken(type);
+    }
+
+    public void writeToken(TokenType type, char text) {
+        startToken(type);
+        putChar(text);
+        endToken(type);
+    }
+
+    public void writeToken(TokenType type, Keyword text) {
+        startToken(type);
+        put(KEYWORDS[text.ordinal()]);
+        endToken(type);
+    }
+
+    public void writeToken(TokenType type, int text) {
+        startToken(type);
+        putInt(text);
+        endToken(type);
+    }
+
+    // close and flush
+    public void close() {
+        if (tokens)
+            put(TOKENS_END);
+
+        try {
+            flush();
+            channel.close();
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to flush and close the file!");
+        }
+    }
+
+    private void setLayout(boolean indent, boolean tokens) {
+        this.indent = indent;
+        this.tokens = tokens;
+
+        if (tokens)
+            put(TOKENS_START);
+    }
+
+    private void startToken(TokenType type) {
+        putIndent();
+        put(TOKEN_START[type.ordinal()]);
+        if (indent)
+            putByte(' ');
+    }
+
+    private void endToken(TokenType type) {
+        if (indent)
+            putByte(' ');
+        put(TOKEN_END[type.ordinal()]);
+        putNewline();
+    }
+
+    private void putIndent() {
+        if (!indent)
+            return;
+
+        for (int n = depth * 2; n > 0; n -= SPACES.length) {
+            int length = Math.min(n, SPACES.length);
+            if (buffer.remaining() < length)
+                flushBuffer();
+            buffer.put(SPACES, 0, length);
+        }
+    }
+
+    private void put(byte[] bytes) {
+        if (buffer.remaining() < bytes.length)
+            flushBuffer();
+        buffer.put(bytes);
+    }
+
+    private void putByte(char c) {
+        if (!buffer.hasRemaining())
+            flushBuffer();
+        buffer.put((byte) c);
+    }
+
+    private void putNewline() {
+        putByte('\n');
+    }
+
+    private void putChar(char c) {
+        if (c < 0x80) {
+            if (ESCAPES[c] != null) {
+                put(ESCAPES[c]);
+            } else {
+                putByte(c);
+            }
+        } else {
+            put(bytes(String.valueOf(c)));
+        }
+    }
+
+    // escape ASCII through the table, anything else goes through the encoder
+    private void putText(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) >= 0x80) {
+                putEncoded(text);
+                return;
+            }
+        }
+
+        for (int i = 0; i < text.length(); i++)
+            putChar(text.charAt(i));
+    }
+
+    private void putEncoded(String text) {
+        StringBuilder escaped = new StringBuilder(text.length() + 16);
+
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < 0x80 && ESCAPES[c] != null) {
+                escaped.append(new String(ESCAPES[c], StandardCharsets.US_ASCII));
+            } else {
+                escaped.append(c);
+            }
+        }
+
+        put(bytes(escaped.toString()));
+    }
+
+    // format the decimal digits straight into the buffer
+    private void putInt(int value) {
+        // sign and ten digits
+        if (buffer.remaining() < 11)
+            flushBuffer();
+
+        long n = value;
+        if (n < 0) {
+            buffer.put((byte) '-');
+            n = -n;
+        }
+
+        int start = buffer.position();
+        do {
+            buffer.put((byte) ('0' + n % 10));
+            n /= 10;
+        } while (n != 0);
+
+        // digits went in least significant first
+        for (int i = start, j = buffer.position() - 1; i < j; i++, j--) {
+            byte digit = buffer.get(i);
+            buffer.put(i, buffer.get(j));
+            buffer.put(j, digit);
+        }
+    }
+
+    private void flushBuffer() {
+        try {
+            flush();
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to write to \"" + outputName + "\"!");
+        }
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining())
+            channel.write(buffer);
+        buffer.clear();
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+}
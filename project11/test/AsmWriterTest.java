@@ -0,0 +1,113 @@
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Regression checks for the Hack code AsmWriter writes, run as a program
+ * against the compiler classes:
+ *
+ *   javac -d out project11/*.java project11/test/*.java
+ *   java -cp out AsmWriterTest
+ *
+ * Exits with 1 if a check fails.
+ */
+public class AsmWriterTest {
+    // operand pairs whose difference overflows 16 bits, and ordinary ones
+    private static final int[][] OPERANDS = {
+            {20000, -20000}, {-20000, 20000}, {32767, -32768}, {-32768, 32767},
+            {32767, -1}, {-32768, 1}, {-1, 0}, {0, -1}, {5, 5}, {-5, -7},
+            {100, 200}, {-32768, -32768}, {0, 0}
+    };
+    private static final Command[] COMPARES = {Command.EQ, Command.GT, Command.LT};
+    private static final int RESULTS = 3000;
+
+    public static void main(String[] args) throws IOException {
+        boolean passed = true;
+
+        passed &= check("compares, inline", compares(false, false));
+        passed &= check("compares, cached top", compares(true, false));
+        passed &= check("compares, shared routines", compares(true, true));
+
+        System.exit(passed ? 0 : 1);
+    }
+
+    private static boolean check(String name, boolean passed) {
+        System.out.println((passed ? "ok   " : "FAIL ") + name);
+        return passed;
+    }
+
+    // every compare of every pair is stored from RESULTS on, then checked
+    // against signed 16-bit comparison
+    private static boolean compares(boolean cacheTop, boolean sharedRoutines) throws IOException {
+        File asmFile = File.createTempFile("compare", ".asm");
+
+        try {
+            AsmWriter writer = new AsmWriter(asmFile, cacheTop, sharedRoutines);
+            writer.writeInit();
+            writer.writeFunction("Sys.init", 0);
+
+            int address = RESULTS;
+            for (int[] pair : OPERANDS) {
+                for (Command compare : COMPARES) {
+                    writer.writePush(Segment.CONST, address++);
+                    writer.writePop(Segment.POINTER, 1);
+                    writeConstant(pair[0], writer);
+                    writeConstant(pair[1], writer);
+                    writer.writeArithmetic(compare);
+                    writer.writePop(Segment.THAT, 0);
+                }
+            }
+
+            writer.writeCall("Sys.halt", 0);
+            writer.writeFunction("Sys.halt", 0);
+            writer.writeLabel("LOOP");
+            writer.writeGoto("LOOP");
+            writer.close();
+
+            HackAssembler assembler = new HackAssembler();
+            HackEmulator emulator = new HackEmulator(assembler.assemble(asmFile));
+            emulator.addHaltAddress(assembler.addressOf("$HALT"));
+            emulator.addHaltAddress(assembler.addressOf("Sys.halt"));
+
+            if (!emulator.run(1_000_000))
+                return false;
+
+            boolean passed = true;
+            address = RESULTS;
+            for (int[] pair : OPERANDS) {
+                for (Command compare : COMPARES) {
+                    int expected = compare(compare, pair[0], pair[1]) ? -1 : 0;
+                    int actual = (short) emulator.peek(address++);
+
+                    if (actual != expected) {
+                        System.out.println("     " + pair[0] + " " + compare.getMnemonic() + " " +
+                                pair[1] + " gave " + actual);
+                        passed = false;
+                    }
+                }
+            }
+            return passed;
+        } finally {
+            asmFile.delete();
+        }
+    }
+
+    private static boolean compare(Command compare, int x, int y) {
+        switch (compare) {
+            case EQ: return x == y;
+            case GT: return x > y;
+            default: return x < y;
+        }
+    }
+
+    // push constant only takes 0 to 32767
+    private static void writeConstant(int value, VMEmitter out) {
+        if (value == -32768) {
+            out.writePush(Segment.CONST, 32767);
+            out.writeArithmetic(Command.NOT);
+        } else {
+            out.writePush(Segment.CONST, Math.abs(value));
+            if (value < 0)
+                out.writeArithmetic(Command.NEG);
+        }
+    }
+}
@@ -0,0 +1,99 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.List;
+
+/**
+ * Regression checks for profile-guided inlining, run as a program against
+ * the compiler classes:
+ *
+ *   javac -d out project11/*.java project11/test/*.java
+ *   java -cp out InlinerTest
+ *
+ * Exits with 1 if a check fails.
+ */
+public class InlinerTest {
+    // f(1) runs once and f(2) 499 times, so the if is laid out else first
+    private static final String ARMS =
+            "class Main {\n" +
+            "    function int f(int x) {\n" +
+            "        return x + 1;\n" +
+            "    }\n" +
+            "    function void main() {\n" +
+            "        var int i, s;\n" +
+            "        while (i < 500) {\n" +
+            "            if (i = 7) { let s = s + Main.f(1); } else { let s = s + Main.f(2); }\n" +
+            "            let i = i + 1;\n" +
+            "        }\n" +
+            "        do Memory.poke(8000, s);\n" +
+            "        return;\n" +
+            "    }\n" +
+            "}\n";
+
+    private static final PrintStream QUIET = new PrintStream(new OutputStream() {
+        @Override
+        public void write(int b) {
+        }
+    });
+
+    public static void main(String[] args) throws IOException {
+        boolean passed = check("hot arm of an else-first if is inlined", hotArmInlined());
+        System.exit(passed ? 0 : 1);
+    }
+
+    private static boolean check(String name, boolean passed) {
+        System.out.println((passed ? "ok   " : "FAIL ") + name);
+        return passed;
+    }
+
+    // the profile numbers sites in source order, which the else-first
+    // layout reverses in the VM code
+    private static boolean hotArmInlined() throws IOException {
+        File directory = Files.createTempDirectory("inliner").toFile();
+        File profile = new File(directory, "main.profile");
+
+        try {
+            Files.write(new File(directory, "Main.jack").toPath(), ARMS.getBytes());
+
+            if (compile(directory) != 0)
+                return false;
+            if (new VMInterpreter().run(new String[] {
+                    "--profile-out", profile.getPath(), directory.getPath() }) != 0) {
+                return false;
+            }
+            if (compile(directory, "--profile", profile.getPath()) != 0)
+                return false;
+
+            List<String> lines = Files.readAllLines(new File(directory, "Main.vm").toPath(),
+                    Charset.defaultCharset());
+            int calls = 0, coldCalls = 0;
+
+            for (int i = 1; i < lines.size(); i++) {
+                if (lines.get(i).equals("call Main.f 1")) {
+                    calls++;
+                    if (lines.get(i - 1).equals("push constant 1"))
+                        coldCalls++;
+                }
+            }
+
+            // only the cold f(1) is still called, f(2) was copied in
+            return calls == 1 && coldCalls == 1 && lines.contains("label INLINE_0_END");
+        } finally {
+            for (File file : directory.listFiles())
+                file.delete();
+            directory.delete();
+        }
+    }
+
+    private static int compile(File directory, String... options) {
+        String[] args = new String[options.length + 2];
+        System.arraycopy(options, 0, args, 0, options.length);
+        args[options.length] = "--no-cache";
+        args[options.length + 1] = directory.getPath();
+
+        return new JackAnalyzer(null, QUIET, System.err).run(args);
+    }
+}